@@ -0,0 +1,105 @@
+package novayoung.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.MDC;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Events Through LookLogAppender, Measured On The Logging Thread.
+ *
+ * Throughput gives events per second, SampleTime gives the latency percentiles (p99) added to the logging thread,
+ * run with the gc profiler for allocation per event.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppenderBenchmark {
+
+    private static final String PATTERN = "%d{yyyy-MM-dd HH:mm:ss.SSS} ~|--_--|~ %thread ~|--_--|~ %X{traceId} ~|--_--|~ %-5level"
+            + " ~|--_--|~ %logger{36} ~|--_--|~ %line ~|--_--|~ - ~|--_--|~ %msg%n";
+
+    /**
+     * false : encode by pattern then split, true : capture from the event
+     */
+    @Param({"false", "true"})
+    public boolean structuredCapture;
+
+    @Param({"QUEUE", "RING_BUFFER"})
+    public String bufferType;
+
+    private AnnotationConfigApplicationContext applicationContext;
+
+    private LookLogAppender appender;
+
+    private Logger logger;
+
+    @Setup(org.openjdk.jmh.annotations.Level.Trial)
+    public void setUp() {
+
+        LookLogConfig lookLogConfig = BenchmarkSupport.config();
+        lookLogConfig.setStructuredCapture(structuredCapture);
+        lookLogConfig.setBufferType(LogBuffer.Type.valueOf(bufferType));
+
+        applicationContext = BenchmarkSupport.start(lookLogConfig);
+        LookLogAppender.setApplicationContext(applicationContext);
+
+        LoggerContext loggerContext = new LoggerContext();
+
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(loggerContext);
+        encoder.setPattern(PATTERN);
+        encoder.setCharset(StandardCharsets.UTF_8);
+        encoder.start();
+
+        appender = new LookLogAppender();
+        appender.setContext(loggerContext);
+        appender.setEncoder(encoder);
+        appender.start();
+
+        logger = loggerContext.getLogger(AppenderBenchmark.class);
+        logger.setLevel(Level.INFO);
+        logger.setAdditive(false);
+        logger.addAppender(appender);
+    }
+
+    @TearDown(org.openjdk.jmh.annotations.Level.Trial)
+    public void tearDown() {
+        appender.stop();
+        applicationContext.close();
+    }
+
+    @Benchmark
+    public void log(TraceState traceState) {
+        logger.info("create order success, orderId : {}, amount : {}", traceState.next(), 1024);
+    }
+
+
+    @State(Scope.Thread)
+    public static class TraceState {
+
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        private int counter;
+
+        @Setup(org.openjdk.jmh.annotations.Level.Trial)
+        public void setUp() {
+            MDC.put(TraceIdUtil.TRACE_ID, "bench" + THREADS.incrementAndGet());
+        }
+
+        int next() {
+            return counter++;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package novayoung.log;
+
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Build The LookLog Beans Without Spring Boot, Backed By Local Stand-Ins Only
+ *
+ */
+final class BenchmarkSupport {
+
+    private static final String[] LEVELS = {"DEBUG", "INFO", "INFO", "INFO", "WARN", "ERROR"};
+
+    private BenchmarkSupport() {
+    }
+
+    static AnnotationConfigApplicationContext start(LookLogConfig lookLogConfig) {
+
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getBeanFactory().registerSingleton("lookLogConfig", lookLogConfig);
+        context.register(
+                LookLogAppender.CacheLogHandler.class,
+                DroppedLogCounter.class,
+                BlackholeCacheOperator.class,
+                EmbeddedCacheOperator.class,
+                SegmentCacheOperator.class);
+        context.refresh();
+        return context;
+    }
+
+    static LookLogConfig config() {
+
+        LookLogConfig lookLogConfig = new LookLogConfig();
+        lookLogConfig.setEnable(true);
+        lookLogConfig.setCacheOperator("blackholeCacheOperator");
+        lookLogConfig.setQueueSize(65536);
+        return lookLogConfig;
+    }
+
+    static List<LookLogAppender.LogDto> logs(int size, int traces) {
+
+        List<LookLogAppender.LogDto> logDtos = new ArrayList<>(size);
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < size; i++) {
+            LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+            logDto.setCreateTime(new Date(now + i));
+            logDto.setTime("2017-01-05 10:00:00.000");
+            logDto.setThread("http-nio-8080-exec-" + (i % 8));
+            logDto.setTraceId("trace" + (i % traces));
+            logDto.setLogLevel(LEVELS[i % LEVELS.length]);
+            logDto.setLoggerName("n.l.LookLogController");
+            logDto.setLine(String.valueOf(40 + i % 60));
+            logDto.setMessage("select * from t_order where order_id = " + i + " and status in (1, 2, 3)");
+            logDto.setFormattedMessage(logDto.getTime() + " " + logDto.getThread() + " " + logDto.getTraceId() + " "
+                    + logDto.getLogLevel() + " " + logDto.getLoggerName() + " " + logDto.getLine() + " - " + logDto.getMessage() + "\n");
+            logDtos.add(logDto);
+        }
+
+        return logDtos;
+    }
+}
@@ -0,0 +1,63 @@
+package novayoung.log;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stand-In CacheOperator Which Only Counts, So The Benchmarks Measure The Capture And Handoff Alone
+ *
+ */
+@Component("blackholeCacheOperator")
+class BlackholeCacheOperator implements LookLogAppender.CacheOperator {
+
+    private final LongAdder written = new LongAdder();
+
+    @Override
+    public void init() {
+    }
+
+    @Override
+    public boolean enable() {
+        return true;
+    }
+
+    @Override
+    public void putLog(LookLogAppender.LogDto logDto) {
+        logDto.getFormattedMessage();
+        written.increment();
+    }
+
+    @Override
+    public void putLogs(List<LookLogAppender.LogDto> logDtos) {
+        for (LookLogAppender.LogDto logDto : logDtos) {
+            putLog(logDto);
+        }
+    }
+
+    @Override
+    public List<String> getLogs(String traceId) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<String> getLogs(Map<String, Object> conditions, Integer order, Integer limit) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public String visitLogs(Map<String, Object> conditions, Integer order, Integer limit, LookLogAppender.LogLineVisitor visitor) {
+        return null;
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    long getWritten() {
+        return written.sum();
+    }
+}
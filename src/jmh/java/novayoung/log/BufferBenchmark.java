@@ -0,0 +1,75 @@
+package novayoung.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handoff From Logging Threads To The Consumer, Queue Against Ring Buffer, Without Any Backend
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferBenchmark {
+
+    @Param({"QUEUE", "RING_BUFFER"})
+    public String bufferType;
+
+    private LogBuffer buffer;
+
+    private LoggingEvent event;
+
+    private volatile boolean running;
+
+    private Thread consumer;
+
+    @Setup(org.openjdk.jmh.annotations.Level.Trial)
+    public void setUp() {
+
+        buffer = LogBuffer.Type.valueOf(bufferType) == LogBuffer.Type.RING_BUFFER ?
+                new LogRingBuffer(65536, LogRingBuffer.WaitStrategy.YIELD) :
+                new QueueLogBuffer(65536);
+
+        LoggerContext loggerContext = new LoggerContext();
+        event = new LoggingEvent(BufferBenchmark.class.getName(), loggerContext.getLogger(BufferBenchmark.class),
+                Level.INFO, "create order success, orderId : {}", null, new Object[]{1024});
+        event.getCallerData();
+
+        running = true;
+        consumer = new Thread() {
+            @Override
+            public void run() {
+                while (running) {
+                    try {
+                        for (int i = 0; i < 500 && buffer.poll(1, TimeUnit.MILLISECONDS) != null; i++) {
+                            // drain
+                        }
+                        buffer.release();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @TearDown(org.openjdk.jmh.annotations.Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        consumer.join();
+    }
+
+    @Benchmark
+    public boolean offer() {
+        return buffer.offer(event);
+    }
+}
@@ -0,0 +1,93 @@
+package novayoung.log;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batch Writes And Queries Of The Local CacheOperators.
+ *
+ * MongoDB and Redis need a server, their client side costs are measured by MongoMappingBenchmark instead.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheOperatorBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"embeddedCacheOperator", "segmentCacheOperator"})
+    public String cacheOperator;
+
+    private AnnotationConfigApplicationContext applicationContext;
+
+    private LookLogAppender.CacheOperator operator;
+
+    private List<LookLogAppender.LogDto> batch;
+
+    private File directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        directory = Files.createTempDirectory("looklog-benchmark").toFile();
+
+        LookLogConfig lookLogConfig = BenchmarkSupport.config();
+        lookLogConfig.setSegmentDirectory(directory.getPath());
+        lookLogConfig.setSegmentMaxTotalBytes(256 * 1024 * 1024L);
+
+        applicationContext = BenchmarkSupport.start(lookLogConfig);
+        operator = (LookLogAppender.CacheOperator) applicationContext.getBean(cacheOperator);
+        operator.init();
+
+        batch = BenchmarkSupport.logs(BATCH_SIZE, 50);
+        for (int i = 0; i < 1000; i++) {
+            operator.putLogs(batch);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        operator.destroy();
+        applicationContext.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void putLogs() {
+        operator.putLogs(batch);
+    }
+
+    @Benchmark
+    public List<String> getLogsByTraceId() {
+        return operator.getLogs("trace7");
+    }
+
+    @Benchmark
+    public List<String> getLogsByConditions() {
+        Map<String, Object> conditions = new HashMap<>();
+        conditions.put("level", new String[]{"ERROR"});
+        conditions.put("keyword", "order_id = 9");
+        return operator.getLogs(conditions, -1, 200);
+    }
+}
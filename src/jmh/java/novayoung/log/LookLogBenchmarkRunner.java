@@ -0,0 +1,47 @@
+package novayoung.log;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Run All LookLog Benchmarks Once Per Producer Thread Count, With The GC Profiler For Allocation Per Event.
+ *
+ * System properties :
+ *     jmh.threads     producer thread counts, default "1,4,16"
+ *     jmh.include     benchmark regex, default all benchmarks of this package
+ *     jmh.result.dir  directory of the json results, one file per thread count
+ *
+ */
+public class LookLogBenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+
+        String include = System.getProperty("jmh.include", LookLogBenchmarkRunner.class.getPackage().getName() + ".*Benchmark");
+        File resultDir = new File(System.getProperty("jmh.result.dir", "target/jmh"));
+
+        if (!resultDir.exists() && !resultDir.mkdirs()) {
+            throw new IllegalStateException("Can't Create Result Directory : " + resultDir);
+        }
+
+        for (String threads : System.getProperty("jmh.threads", "1,4,16").split(",")) {
+
+            int count = Integer.parseInt(threads.trim());
+
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(count)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(resultDir, "looklog-" + count + "-threads.json").getPath())
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+}
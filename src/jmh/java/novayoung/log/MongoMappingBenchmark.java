@@ -0,0 +1,68 @@
+package novayoung.log;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.mongodb.core.SimpleMongoDbFactory;
+import org.springframework.data.mongodb.core.convert.DefaultDbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client Side Cost Of The MongoDB Write Path, Mapping LogDto To A Document, No Server Needed
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MongoMappingBenchmark {
+
+    private MongoClient mongoClient;
+
+    private MappingMongoConverter converter;
+
+    private List<LookLogAppender.LogDto> logDtos;
+
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.afterPropertiesSet();
+
+        /**
+         * The Client Connects Lazily, No Server Is Touched By Mapping !
+         */
+        mongoClient = new MongoClient();
+        converter = new MappingMongoConverter(new DefaultDbRefResolver(new SimpleMongoDbFactory(mongoClient, "looklog")), mappingContext);
+        converter.afterPropertiesSet();
+
+        logDtos = BenchmarkSupport.logs(1024, 50);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mongoClient.close();
+    }
+
+    @Benchmark
+    public DBObject mappingMongoConverter() {
+        DBObject dbObject = new BasicDBObject();
+        converter.write(logDtos.get(index++ & 1023), dbObject);
+        return dbObject;
+    }
+
+    @Benchmark
+    public DBObject logDocument() {
+        LookLogAppender.LogDto logDto = logDtos.get(index++ & 1023);
+        return LogDocument.document(logDto, logDto.getCreateTime(), null, null);
+    }
+}
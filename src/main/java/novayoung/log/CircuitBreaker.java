@@ -0,0 +1,77 @@
+package novayoung.log;
+
+/**
+ * Circuit Breaker Around Cache Writes.
+ *
+ * Opens after a number of consecutive failures, and lets one trial request through after the open time.
+ *
+ */
+class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+
+    private int failures;
+
+    private long openedAt;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return true if the request can go to the backend
+     */
+    synchronized boolean allowRequest() {
+
+        switch (state) {
+
+            case CLOSED:
+                return true;
+
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt >= openMillis) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+
+            default:
+                return false;
+        }
+    }
+
+    synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    /**
+     * @return true if this failure opens the breaker
+     */
+    synchronized boolean onFailure() {
+
+        failures++;
+
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            boolean opening = state != State.OPEN;
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            return opening;
+        }
+
+        return false;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
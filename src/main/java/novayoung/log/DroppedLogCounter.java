@@ -0,0 +1,67 @@
+package novayoung.log;
+
+import ch.qos.logback.classic.Level;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count Logs Dropped On Buffer Overflow, Or Too Big For A Local Store, Per Level.
+ * One Shared Bean, So The Stores Count Into The Handler's Stats
+ *
+ */
+@Component("droppedLogCounter")
+class DroppedLogCounter {
+
+    private static final Level[] LEVELS = {Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR};
+
+    private final LongAdder[] counters = new LongAdder[LEVELS.length];
+
+    DroppedLogCounter() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+    }
+
+    void increment(Level level) {
+        counters[indexOf(level)].increment();
+    }
+
+    void increment(String level) {
+        increment(Level.toLevel(level, Level.INFO));
+    }
+
+    long total() {
+        long total = 0;
+        for (LongAdder counter : counters) {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+    Map<String, Long> snapshot() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (int i = 0; i < LEVELS.length; i++) {
+            map.put(LEVELS[i].toString(), counters[i].sum());
+        }
+        return map;
+    }
+
+    private static int indexOf(Level level) {
+        switch (level.toInt()) {
+            case Level.TRACE_INT:
+                return 0;
+            case Level.DEBUG_INT:
+                return 1;
+            case Level.WARN_INT:
+                return 3;
+            case Level.ERROR_INT:
+                return 4;
+            default:
+                return 2;
+        }
+    }
+}
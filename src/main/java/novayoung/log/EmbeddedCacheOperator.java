@@ -0,0 +1,523 @@
+package novayoung.log;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Keep Recent Logs In The JVM, No Network Hop For Writing Or Querying.
+ *
+ * Records are appended to a fixed-size off-heap circular store, the oldest records are evicted when
+ * the byte budget is used up or when they are older than cachedSecond.
+ * Each record is indexed by traceId hash, level and time bucket in primitive-keyed posting lists of record offsets.
+ *
+ */
+@Component("embeddedCacheOperator")
+public class EmbeddedCacheOperator implements LookLogAppender.CacheOperator {
+
+    private static final int WRAP_MARKER = -1;
+
+    /**
+     * Record Header : length(int), createTime(long), traceId hash(long), level code(byte)
+     */
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 8 + 1;
+
+    @Autowired
+    private LookLogConfig lookLogConfig;
+
+    @Autowired
+    private DroppedLogCounter droppedLogCounter;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private ByteBuffer store;
+
+    private int capacity;
+
+    private long bucketMillis;
+
+    /**
+     * Logical Offset Of The Next Record, Its Position In Store Is offset % capacity
+     */
+    private long tail;
+
+    /**
+     * Offsets Of All Live Records, Oldest First
+     */
+    private final LongDeque records = new LongDeque(1024);
+
+    private final LongObjectMap<LongDeque> traceIndex = new LongObjectMap<>(1024);
+
+    private final LongObjectMap<LongDeque> timeIndex = new LongObjectMap<>();
+
+    private final LongDeque[] levelIndex = new LongDeque[LogDtoCodec.levelCount()];
+
+    private LogDictionary dictionary;
+
+
+    @Override
+    public void init() {
+
+        capacity = (int) Math.min(Integer.MAX_VALUE, lookLogConfig.getEmbeddedMaxBytes());
+        bucketMillis = Math.max(1, lookLogConfig.getEmbeddedTimeBucketSeconds()) * 1000L;
+        store = ByteBuffer.allocateDirect(capacity);
+        dictionary = LogDictionary.create(lookLogConfig.getDictionaryMaxEntries());
+
+        for (int i = 0; i < levelIndex.length; i++) {
+            levelIndex[i] = new LongDeque(1024);
+        }
+    }
+
+    @Override
+    public boolean enable() {
+        return lookLogConfig.getEmbeddedMaxBytes() > 0;
+    }
+
+    @Override
+    public void putLog(LookLogAppender.LogDto logDto) {
+        putLogs(Collections.singletonList(logDto));
+    }
+
+    @Override
+    public void putLogs(List<LookLogAppender.LogDto> logDtos) {
+
+        lock.writeLock().lock();
+        try {
+
+            evictExpired();
+
+            for (LookLogAppender.LogDto logDto : logDtos) {
+                append(logDto);
+            }
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> getLogs(String traceId) {
+
+        if (StringUtils.isBlank(traceId)) {
+            return getLogs(new HashMap<String, Object>(), -1, lookLogConfig.getLookLogMaxLimit());
+        }
+
+        List<String> list = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+
+            LongDeque offsets = traceIndex.get(TraceIdUtil.hash(traceId));
+
+            for (int i = 0; offsets != null && i < offsets.size() && list.size() < lookLogConfig.getLookLogMaxLimit(); i++) {
+                LookLogAppender.LogDto logDto = read(offsets.get(i));
+                if (traceId.equals(logDto.getTraceId())) {
+                    list.add(logDto.getFormattedMessage());
+                }
+            }
+
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return list;
+    }
+
+    @Override
+    public List<String> getLogs(Map<String, Object> conditions, Integer order, Integer limit) {
+        LookLogAppender.LogLineList logLineList = new LookLogAppender.LogLineList();
+        visitLogs(conditions, order, limit, logLineList);
+        return logLineList.lines;
+    }
+
+    @Override
+    public String visitLogs(Map<String, Object> conditions, Integer order, Integer limit, LookLogAppender.LogLineVisitor visitor) {
+
+        String keyword = (String) conditions.get("keyword");
+        String traceId = (String) conditions.get("traceId");
+        Date startTime = (Date) conditions.get("startTime");
+        Date endTime = (Date) conditions.get("endTime");
+        String[] level = (String[]) conditions.get("level");
+
+        Pattern pattern = StringUtils.isNotBlank(keyword) ? Pattern.compile(keyword) : null;
+        long start = startTime == null ? Long.MIN_VALUE : startTime.getTime();
+        long end = endTime == null ? Long.MAX_VALUE : endTime.getTime();
+        long traceHash = TraceIdUtil.hash(traceId);
+
+        boolean[] levels = null;
+        if (level != null && level.length > 0) {
+            levels = new boolean[LogDtoCodec.levelCount()];
+            for (String name : level) {
+                levels[LogDtoCodec.levelCode(name)] = true;
+            }
+        }
+
+        int max = limit == null || limit <= 0 ? lookLogConfig.getLookLogMaxLimit() : limit;
+        boolean descending = order == null || order < 0;
+
+        String[] cursor = LogCursor.decode((String) conditions.get("cursor"), descending, 1);
+        long deadline = LogQueryGovernor.deadline(conditions);
+
+        int count = 0;
+        long last = -1;
+
+        /**
+         * Offsets Only Grow, The Scan Goes On Past The Last Offset Examined, Past The Cursor's To Begin With
+         */
+        long low = Long.MIN_VALUE;
+        long high = Long.MAX_VALUE;
+
+        if (cursor != null) {
+            long after = LogCursor.longAt(cursor, 0);
+            if (descending) {
+                high = after - 1;
+            } else {
+                low = after + 1;
+            }
+        }
+
+        long[] candidates = null;
+        boolean first = true;
+        boolean done = false;
+
+        LogLineChunk chunk = new LogLineChunk();
+
+        while (!done && count < max) {
+
+            LogQueryGovernor.checkDeadline(deadline);
+            chunk.reset(max - count);
+
+            lock.readLock().lock();
+            try {
+
+                /**
+                 * Candidates Are Picked Once, Records Appended After That Are Not Part Of The Query
+                 */
+                if (first) {
+                    candidates = candidates(traceId, levels, startTime, endTime);
+                    high = Math.min(high, tail - 1);
+                    first = false;
+                }
+
+                long oldest = records.isEmpty() ? tail : records.first();
+                int size = candidates == null ? records.size() : candidates.length;
+                int index = descending ? lowerBound(candidates, size, high + 1) - 1 : lowerBound(candidates, size, low);
+                int scanned = 0;
+
+                while (true) {
+
+                    if (index < 0 || index >= size) {
+                        done = true;
+                        break;
+                    }
+
+                    long offset = candidates == null ? records.get(index) : candidates[index];
+
+                    /**
+                     * Evicted Since The Candidates Were Picked, Older Ones Are Gone Too
+                     */
+                    if (offset < oldest) {
+                        if (descending) {
+                            done = true;
+                            break;
+                        }
+                        index = lowerBound(candidates, size, oldest);
+                        continue;
+                    }
+
+                    if (offset > high) {
+                        done = true;
+                        break;
+                    }
+
+                    if (chunk.isFull() || scanned++ == LogLineChunk.SCAN) {
+                        break;
+                    }
+
+                    if (descending) {
+                        high = offset - 1;
+                        index--;
+                    } else {
+                        low = offset + 1;
+                        index++;
+                    }
+
+                    int position = position(offset);
+
+
+                    /**
+                     * Filter By Header First, Only Decode The Records That Pass !
+                     */
+                    long createTime = store.getLong(position + 4);
+                    if (createTime < start || createTime > end) {
+                        continue;
+                    }
+                    if (StringUtils.isNotBlank(traceId) && store.getLong(position + 12) != traceHash) {
+                        continue;
+                    }
+                    if (levels != null && !levels[store.get(position + 20)]) {
+                        continue;
+                    }
+
+                    LookLogAppender.LogDto logDto = read(offset);
+
+                    if (StringUtils.isNotBlank(traceId) && !traceId.equals(logDto.getTraceId())) {
+                        continue;
+                    }
+                    if (pattern != null && (logDto.getFormattedMessage() == null || !pattern.matcher(logDto.getFormattedMessage()).find())) {
+                        continue;
+                    }
+
+                    chunk.add(createTime, logDto.getLogLevel(), logDto.getTraceId(), logDto.getFormattedMessage(), offset, 0);
+                }
+
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            /**
+             * The Visitor May Write To A Slow Client, Never While Ingest Waits For The Lock
+             */
+            boolean go = chunk.deliver(visitor);
+
+            if (chunk.delivered() > 0) {
+                count += chunk.delivered();
+                last = chunk.lastPosition();
+            }
+
+            if (!go) {
+                break;
+            }
+        }
+
+        return count >= max ? LogCursor.encode(descending, last) : null;
+    }
+
+    @Override
+    public void destroy() {
+
+        lock.writeLock().lock();
+        try {
+            records.clear();
+            traceIndex.clear();
+            timeIndex.clear();
+            for (LongDeque offsets : levelIndex) {
+                if (offsets != null) {
+                    offsets.clear();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Pick The Most Selective Index For The Conditions
+     *
+     * @return ascending offsets of candidate records, null means all records
+     */
+    private long[] candidates(String traceId, boolean[] levels, Date startTime, Date endTime) {
+
+        if (StringUtils.isNotBlank(traceId)) {
+            LongDeque offsets = traceIndex.get(TraceIdUtil.hash(traceId));
+            return offsets == null ? new long[0] : offsets.toArray();
+        }
+
+        if (startTime != null || endTime != null) {
+
+            final long startBucket = startTime == null ? Long.MIN_VALUE : startTime.getTime() / bucketMillis;
+            final long endBucket = endTime == null ? Long.MAX_VALUE : endTime.getTime() / bucketMillis;
+            final List<LongDeque> buckets = new ArrayList<>();
+
+            timeIndex.forEach(new LongObjectMap.Visitor<LongDeque>() {
+                @Override
+                public void visit(long bucket, LongDeque offsets) {
+                    if (bucket >= startBucket && bucket <= endBucket) {
+                        buckets.add(offsets);
+                    }
+                }
+            });
+
+            return merge(buckets);
+        }
+
+        if (levels != null) {
+
+            List<LongDeque> lists = new ArrayList<>();
+            for (int i = 0; i < levels.length; i++) {
+                if (levels[i]) {
+                    lists.add(levelIndex[i]);
+                }
+            }
+
+            return merge(lists);
+        }
+
+        return null;
+    }
+
+    /**
+     * Index Of The First Offset Not Below The Given One, Candidates And Records Are Both Ascending
+     */
+    private int lowerBound(long[] candidates, int size, long offset) {
+
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            long value = candidates == null ? records.get(middle) : candidates[middle];
+            if (value < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private static long[] merge(List<LongDeque> lists) {
+
+        int size = 0;
+        for (LongDeque offsets : lists) {
+            size += offsets.size();
+        }
+
+        long[] merged = new long[size];
+        int index = 0;
+        for (LongDeque offsets : lists) {
+            for (int i = 0; i < offsets.size(); i++) {
+                merged[index++] = offsets.get(i);
+            }
+        }
+
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    private void append(LookLogAppender.LogDto logDto) {
+
+        byte[] body = LogDtoCodec.encode(logDto, dictionary);
+        int need = RECORD_HEADER_SIZE + body.length;
+
+        if (need > capacity) {
+            droppedLogCounter.increment(logDto.getLogLevel());
+            return;
+        }
+
+
+        /**
+         * Record Doesn't Fit Before The End Of Store, Wrap To The Beginning !
+         */
+        long start = tail;
+        int position = position(start);
+        int waste = capacity - position < need ? capacity - position : 0;
+        start += waste;
+
+        while (!records.isEmpty() && start + need - records.first() > capacity) {
+            evictFirst();
+        }
+
+        if (waste >= 4) {
+            store.putInt(position, WRAP_MARKER);
+        }
+
+        position = position(start);
+
+        long createTime = logDto.getCreateTime() == null ? System.currentTimeMillis() : logDto.getCreateTime().getTime();
+        long traceHash = TraceIdUtil.hash(logDto.getTraceId());
+        int levelCode = LogDtoCodec.levelCode(logDto.getLogLevel());
+
+        store.putInt(position, need - 4);
+        store.putLong(position + 4, createTime);
+        store.putLong(position + 12, traceHash);
+        store.put(position + 20, (byte) levelCode);
+
+        ByteBuffer buffer = store.duplicate();
+        buffer.position(position + RECORD_HEADER_SIZE);
+        buffer.put(body);
+
+        tail = start + need;
+
+
+        /**
+         * Index The Record !
+         */
+        records.addLast(start);
+        postingList(traceIndex, traceHash).addLast(start);
+        postingList(timeIndex, createTime / bucketMillis).addLast(start);
+        levelIndex[levelCode].addLast(start);
+    }
+
+    /**
+     * Evict The Oldest Record, It's Always The First One In Each Of Its Posting Lists
+     */
+    private void evictFirst() {
+
+        long offset = records.pollFirst();
+        int position = position(offset);
+
+        long createTime = store.getLong(position + 4);
+        long traceHash = store.getLong(position + 12);
+        int levelCode = store.get(position + 20);
+
+        pollFirst(traceIndex, traceHash);
+        pollFirst(timeIndex, createTime / bucketMillis);
+        levelIndex[levelCode].pollFirst();
+    }
+
+    private void evictExpired() {
+
+        Long cachedSecond = lookLogConfig.getCachedSecond();
+        if (cachedSecond == null || cachedSecond <= 0) {
+            return;
+        }
+
+        long expireTime = System.currentTimeMillis() - cachedSecond * 1000L;
+
+        while (!records.isEmpty() && store.getLong(position(records.first()) + 4) < expireTime) {
+            evictFirst();
+        }
+    }
+
+    private LookLogAppender.LogDto read(long offset) {
+
+        int position = position(offset);
+        int length = store.getInt(position);
+
+        ByteBuffer buffer = store.duplicate();
+        buffer.limit(position + 4 + length);
+        buffer.position(position + RECORD_HEADER_SIZE);
+        return LogDtoCodec.decode(buffer, dictionary);
+    }
+
+    private int position(long offset) {
+        return (int) (offset % capacity);
+    }
+
+    private static LongDeque postingList(LongObjectMap<LongDeque> index, long key) {
+        LongDeque offsets = index.get(key);
+        if (offsets == null) {
+            offsets = new LongDeque();
+            index.put(key, offsets);
+        }
+        return offsets;
+    }
+
+    private static void pollFirst(LongObjectMap<LongDeque> index, long key) {
+        LongDeque offsets = index.get(key);
+        if (offsets != null) {
+            offsets.pollFirst();
+            if (offsets.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
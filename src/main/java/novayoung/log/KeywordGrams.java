@@ -0,0 +1,73 @@
+package novayoung.log;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Lower Cased Character Trigrams Of A Log Line, The Terms Of The Inverted Keyword Index
+ *
+ * A Literal Keyword Can Only Be A Substring Of Lines Holding All Of Its Trigrams, So Intersecting
+ * The Posting Lists Narrows The Candidates Before The Exact Match Is Checked
+ *
+ */
+final class KeywordGrams {
+
+    static final int GRAM_LENGTH = 3;
+
+    /**
+     * Term Of Lines Too Long To Be Indexed, Always Candidates Of A Keyword Query
+     */
+    static final String UNINDEXED = "*";
+
+    private static final String REGEX_META = "\\.[]{}()*+?^$|";
+
+    private KeywordGrams() {
+    }
+
+    /**
+     * Distinct Trigrams Of The Text, Or Only The UNINDEXED Term When It Is Longer Than maxChars
+     */
+    static Collection<String> index(String text, int maxChars) {
+
+        Set<String> grams = new LinkedHashSet<>();
+
+        if (text == null) {
+            return grams;
+        }
+
+        if (text.length() > maxChars) {
+            grams.add(UNINDEXED);
+            return grams;
+        }
+
+        String lower = text.toLowerCase(Locale.ROOT);
+
+        for (int i = 0; i + GRAM_LENGTH <= lower.length(); i++) {
+            grams.add(lower.substring(i, i + GRAM_LENGTH));
+        }
+
+        return grams;
+    }
+
+    /**
+     * Trigrams A Line Must Hold To Contain The Keyword, Or Null When The Index Can't Answer It :
+     * Keywords Shorter Than A Trigram Or Using Regex Syntax
+     */
+    static Collection<String> query(String keyword) {
+
+        if (keyword == null || keyword.length() < GRAM_LENGTH) {
+            return null;
+        }
+
+        for (int i = 0; i < keyword.length(); i++) {
+            if (REGEX_META.indexOf(keyword.charAt(i)) >= 0) {
+                return null;
+            }
+        }
+
+        return index(keyword, Integer.MAX_VALUE);
+    }
+
+}
@@ -0,0 +1,111 @@
+package novayoung.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Block Of Log Lines, Deflate Compressed Or Stored As Is, For The Remote Stores.
+ *
+ * Layout : MAGIC(3 bytes), deflated flag(byte), then count(int) and per line createTime(long), level(utf), display line(int length + utf-8 bytes),
+ * deflated as a whole when flagged. The magic starts with a zero byte, which a plain utf-8 log line never does,
+ * so blocks and plain lines can share a list.
+ *
+ */
+final class LogBlock {
+
+    private static final byte[] MAGIC = {0, 'L', 'B'};
+
+    private static final int HEADER_SIZE = MAGIC.length + 1;
+
+    final long[] times;
+
+    final String[] levels;
+
+    final String[] messages;
+
+    private LogBlock(int size) {
+        this.times = new long[size];
+        this.levels = new String[size];
+        this.messages = new String[size];
+    }
+
+    int size() {
+        return messages.length;
+    }
+
+    static boolean isBlock(byte[] bytes) {
+        return bytes != null && bytes.length >= HEADER_SIZE && Arrays.equals(Arrays.copyOf(bytes, MAGIC.length), MAGIC);
+    }
+
+    static byte[] encode(List<LookLogAppender.LogDto> logDtos, boolean deflate) {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        bytes.write(MAGIC, 0, MAGIC.length);
+        bytes.write(deflate ? 1 : 0);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        try (DataOutputStream out = new DataOutputStream(deflate ? new DeflaterOutputStream(bytes, deflater, 8192) : bytes)) {
+
+            out.writeInt(logDtos.size());
+
+            for (LookLogAppender.LogDto logDto : logDtos) {
+                byte[] message = logDto.getFormattedMessage().getBytes("UTF-8");
+                out.writeLong(logDto.getCreateTime().getTime());
+                out.writeUTF(logDto.getLogLevel() == null ? "" : logDto.getLogLevel());
+                out.writeInt(message.length);
+                out.write(message);
+            }
+
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            deflater.end();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    static LogBlock decode(byte[] block) {
+
+        InputStream body = new ByteArrayInputStream(block, HEADER_SIZE, block.length - HEADER_SIZE);
+
+        try (DataInputStream in = new DataInputStream(block[MAGIC.length] == 1 ? new InflaterInputStream(body) : body)) {
+
+            LogBlock logBlock = new LogBlock(in.readInt());
+
+            for (int i = 0; i < logBlock.size(); i++) {
+                logBlock.times[i] = in.readLong();
+                logBlock.levels[i] = in.readUTF();
+                byte[] message = new byte[in.readInt()];
+                in.readFully(message);
+                logBlock.messages[i] = new String(message, "UTF-8");
+            }
+
+            return logBlock;
+
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Total Chars Of The Display Lines, Compared With The Compression Threshold
+     */
+    static int chars(List<LookLogAppender.LogDto> logDtos) {
+        int chars = 0;
+        for (LookLogAppender.LogDto logDto : logDtos) {
+            chars += logDto.getFormattedMessage().length();
+        }
+        return chars;
+    }
+}
@@ -0,0 +1,76 @@
+package novayoung.log;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hand Off Logs From The Application Threads To The Consumer Thread.
+ *
+ * Producers may be any thread, there is only one consumer. Logs returned by the poll methods
+ * stay owned by the consumer until {@link #release()} is called, implementations may reuse them after that.
+ *
+ */
+interface LogBuffer {
+
+    /**
+     * Put The Log Into Buffer, Return False If Buffer Is Full
+     */
+    boolean offer(LookLogAppender.LogDto logDto);
+
+    /**
+     * Capture The Event Into Buffer, Return False If Buffer Is Full
+     */
+    boolean offer(ILoggingEvent event);
+
+    /**
+     * Put The Log Into Buffer, Wait Up To The Timeout If Buffer Is Full
+     */
+    boolean offer(LookLogAppender.LogDto logDto, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Capture The Event Into Buffer, Wait Up To The Timeout If Buffer Is Full
+     */
+    boolean offer(ILoggingEvent event, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Remove The Oldest Log From The Producer Side To Make Room
+     *
+     * @return the removed log, null if buffer is empty or removing is not supported
+     */
+    LookLogAppender.LogDto evictOldest();
+
+    /**
+     * Number Of Logs Waiting In The Buffer, May Be Approximate
+     */
+    int size();
+
+    int capacity();
+
+    LookLogAppender.LogDto take() throws InterruptedException;
+
+    LookLogAppender.LogDto poll();
+
+    LookLogAppender.LogDto poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * All Logs Polled So Far Are Written, Their Room Can Be Reused
+     */
+    void release();
+
+
+    enum Type {
+
+        /**
+         * java.util.concurrent.LinkedBlockingQueue
+         */
+        QUEUE,
+
+        /**
+         * Lock-Free Ring Buffer With Preallocated Slots
+         */
+        RING_BUFFER
+
+    }
+
+}
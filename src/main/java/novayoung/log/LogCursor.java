@@ -0,0 +1,68 @@
+package novayoung.log;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Continuation Token Of A Condition Query, Opaque To Callers.
+ *
+ * It holds the order it was read in and the store's position of the last line of the page, such as a record offset,
+ * or createTime with the id of the line that breaks ties at that time. The next page seeks straight past that position
+ * instead of skipping the pages before it. Only the last position may contain ':'.
+ *
+ */
+final class LogCursor {
+
+    private static final char ASCENDING = 'a';
+
+    private static final char DESCENDING = 'd';
+
+    private LogCursor() {
+    }
+
+    static String encode(boolean descending, Object... positions) {
+        String text = (descending ? DESCENDING : ASCENDING) + ":" + StringUtils.join(positions, ':');
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the positions of the token, null if there is no token
+     * @throws IllegalArgumentException if the token is malformed, was read in the other order or has another number of positions
+     */
+    static String[] decode(String token, boolean descending, int positions) {
+
+        if (StringUtils.isBlank(token)) {
+            return null;
+        }
+
+        String text;
+        try {
+            text = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("malformed cursor", e);
+        }
+
+        String[] parts = text.split(":", positions + 1);
+
+        if (parts.length != positions + 1 || parts[0].length() != 1) {
+            throw new IllegalArgumentException("malformed cursor");
+        }
+
+        if (parts[0].charAt(0) != (descending ? DESCENDING : ASCENDING)) {
+            throw new IllegalArgumentException("cursor was read in the other order");
+        }
+
+        return Arrays.copyOfRange(parts, 1, parts.length);
+    }
+
+    static long longAt(String[] positions, int index) {
+        try {
+            return Long.parseLong(positions[index]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("malformed cursor", e);
+        }
+    }
+}
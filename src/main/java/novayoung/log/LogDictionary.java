@@ -0,0 +1,148 @@
+package novayoung.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary Of Low-Cardinality Strings (Thread, Logger, Level, Line), Records Keep Their Small Int Codes.
+ *
+ * Codes are handed out in order and never change. A persisted dictionary appends each new entry,
+ * length(int) + utf-8 bytes, to its file before the code is returned, so no stored record refers to a missing entry.
+ * Once maxEntries is reached no code is handed out and the caller stores the string inline.
+ *
+ */
+final class LogDictionary {
+
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+
+    private final int maxEntries;
+
+    private final RandomAccessFile file;
+
+    private volatile String[] values = new String[64];
+
+    private int size;
+
+
+    private LogDictionary(int maxEntries, RandomAccessFile file) {
+        this.maxEntries = maxEntries;
+        this.file = file;
+    }
+
+    /**
+     * An In-Memory Dictionary, For Stores That Don't Outlive The Process
+     */
+    static LogDictionary create(int maxEntries) {
+        return new LogDictionary(maxEntries, null);
+    }
+
+    /**
+     * Load The Persisted Dictionary, An Entry Half Written By A Crash Is Cut Off
+     */
+    static LogDictionary open(File path, int maxEntries) throws IOException {
+
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        LogDictionary dictionary = new LogDictionary(maxEntries, file);
+
+        long position = 0;
+        long length = file.length();
+
+        while (position + 4 <= length) {
+
+            file.seek(position);
+            int entryLength = file.readInt();
+
+            if (entryLength < 0 || position + 4 + entryLength > length) {
+                break;
+            }
+
+            byte[] bytes = new byte[entryLength];
+            file.readFully(bytes);
+            dictionary.add(new String(bytes, StandardCharsets.UTF_8));
+            position += 4 + entryLength;
+        }
+
+        file.setLength(position);
+        file.seek(position);
+
+        return dictionary;
+    }
+
+    /**
+     * @return the code of the value, -1 if the dictionary is full or the entry can't be persisted
+     */
+    int code(String value) {
+
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+
+        synchronized (this) {
+
+            code = codes.get(value);
+            if (code != null) {
+                return code;
+            }
+
+            if (size >= maxEntries) {
+                return -1;
+            }
+
+            if (file != null) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                try {
+                    file.write(ByteBuffer.allocate(4 + bytes.length).putInt(bytes.length).put(bytes).array());
+                } catch (IOException e) {
+                    return -1;
+                }
+            }
+
+            return add(value);
+        }
+    }
+
+    String value(int code) {
+        return values[code];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void close() {
+
+        if (file == null) {
+            return;
+        }
+
+        try {
+            file.close();
+        } catch (IOException e) {
+            //Ignore
+        }
+    }
+
+
+    /**
+     * Publish The Value Before Its Code, A Reader Holding The Code Always Sees The Value
+     */
+    private int add(String value) {
+
+        String[] array = values;
+        if (size == array.length) {
+            array = Arrays.copyOf(array, size * 2);
+        }
+
+        array[size] = value;
+        values = array;
+        codes.put(value, size);
+
+        return size++;
+    }
+}
@@ -0,0 +1,112 @@
+package novayoung.log;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * Hand Written MongoDb Layout Of A LogDto : Short Field Names, No "_class" Type Hint,
+ * Only The Fields Queries Filter Or Display
+ *
+ */
+final class LogDocument {
+
+    /**
+     * Appended To lookLog.mongoDbCollectionName, So These Documents Never Share A Collection (Or Its createTime TTL Index)
+     * With The createTime/formattedMessage Documents Of Earlier Versions
+     */
+    static final String COLLECTION_SUFFIX = "_v2";
+
+    static final String TRACE_ID = "i";
+
+    static final String TIME = "t";
+
+    static final String LEVEL = "l";
+
+    static final String MESSAGE = "m";
+
+    static final String GRAMS = "g";
+
+    /**
+     * A LogBlock, Holding The Compressed Display Line Of A Document, Or Compressed Lines Of A Bucket
+     */
+    static final String BLOCK = "z";
+
+    /**
+     * Fields Of A Bucket In The BUCKET Layout, Its TIME Is The Latest Line
+     */
+    static final String WINDOW = "w";
+
+    static final String MIN_TIME = "t0";
+
+    static final String COUNT = "n";
+
+    static final String LINES = "ls";
+
+    /**
+     * Offset Of A Line Unpacked From Its Bucket, Only Set In Memory While Reading
+     */
+    static final String OFFSET = "o";
+
+    /**
+     * Reads Fetch The Display Line Of A Document With The Short Fields Streamed Alongside It, Or The Lines Of A Bucket With Its TraceId And Last Time,
+     * Both With The _id That Orders Lines Of The Same Time
+     */
+    static final DBObject MESSAGE_PROJECTION = new BasicDBObject(MESSAGE, 1).append(BLOCK, 1)
+            .append(TRACE_ID, 1).append(TIME, 1).append(LEVEL, 1);
+
+    static final DBObject LINES_PROJECTION = new BasicDBObject(LINES, 1).append(TRACE_ID, 1).append(TIME, 1);
+
+    private LogDocument() {
+    }
+
+    /**
+     * A Line Document, Grams Are Left Out When Null, The Display Line Is Replaced By The Block When Given.
+     * Times Are Always BSON Dates, The Only Type The TTL Monitor Expires, So Ranges And Sorts Never Meet Mixed Types
+     */
+    static BasicDBObject document(LookLogAppender.LogDto logDto, Date time, Collection<String> grams, byte[] block) {
+
+        BasicDBObject document = new BasicDBObject();
+
+        if (logDto.getTraceId() != null) {
+            document.append(TRACE_ID, logDto.getTraceId());
+        }
+
+        document.append(TIME, time)
+                .append(LEVEL, logDto.getLogLevel());
+
+        if (block == null) {
+            document.append(MESSAGE, logDto.getFormattedMessage());
+        } else {
+            document.append(BLOCK, block);
+        }
+
+        if (grams != null) {
+            document.append(GRAMS, grams);
+        }
+
+        return document;
+    }
+
+    /**
+     * A Line Pushed Into A Bucket, The TraceId Is The Bucket's
+     */
+    static BasicDBObject line(LookLogAppender.LogDto logDto, Date time) {
+        return new BasicDBObject(TIME, time)
+                .append(LEVEL, logDto.getLogLevel())
+                .append(MESSAGE, logDto.getFormattedMessage());
+    }
+
+    /**
+     * Epoch Millis Of A Time, A Stored Date Or The Long Of A Line Unpacked From A Block, -1 When Missing
+     */
+    static long millis(Object time) {
+        if (time == null) {
+            return -1;
+        }
+        return time instanceof Date ? ((Date) time).getTime() : ((Number) time).longValue();
+    }
+
+}
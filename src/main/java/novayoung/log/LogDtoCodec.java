@@ -0,0 +1,283 @@
+package novayoung.log;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Binary Encoding Of LogDto, Used By Local Storage
+ *
+ * Layout : createTime(long), then formattedMessage, traceId, time, thread, logLevel, loggerName, line, message,
+ * each as length(int, -1 for null) + utf-8 bytes.
+ *
+ * Compact Layout, With A LogDictionary : createTime(long), kind(byte), traceId, then thread, logLevel, loggerName, line
+ * as dictionary codes, then the text of the kind. The display line isn't stored when it can be rebuilt from the parts :
+ * FORMATTED (structured capture) keeps the message only, JOINED (parsed from the pattern) keeps time and message,
+ * only VERBATIM keeps the display line itself. Strings are varint length + 1 (0 for null) + utf-8 bytes,
+ * codes are varint 0 for null, 1 for an inline string following, or the dictionary code + 2.
+ *
+ */
+final class LogDtoCodec {
+
+    private static final String[] LEVELS = {"TRACE", "DEBUG", "INFO", "WARN", "ERROR"};
+
+    private static final int FORMATTED = 0;
+
+    private static final int JOINED = 1;
+
+    private static final int VERBATIM = 2;
+
+    private static final int NULL_CODE = 0;
+
+    private static final int INLINE_CODE = 1;
+
+    private LogDtoCodec() {
+    }
+
+    /**
+     * Small Code Of The Log Level, Ordered By Severity, Unknown Levels Are Coded As INFO
+     */
+    static int levelCode(String level) {
+        if (level != null) {
+            for (int i = 0; i < LEVELS.length; i++) {
+                if (LEVELS[i].equalsIgnoreCase(level.trim())) {
+                    return i;
+                }
+            }
+        }
+        return 2;
+    }
+
+    static String levelName(int code) {
+        return LEVELS[code];
+    }
+
+    static int levelCount() {
+        return LEVELS.length;
+    }
+
+    static byte[] encode(LookLogAppender.LogDto logDto) {
+
+        byte[][] fields = {
+                bytes(logDto.getFormattedMessage()),
+                bytes(logDto.getTraceId()),
+                bytes(logDto.getTime()),
+                bytes(logDto.getThread()),
+                bytes(logDto.getLogLevel()),
+                bytes(logDto.getLoggerName()),
+                bytes(logDto.getLine()),
+                bytes(logDto.getMessage())
+        };
+
+        int size = 8;
+        for (byte[] field : fields) {
+            size += 4 + (field == null ? 0 : field.length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putLong(logDto.getCreateTime() == null ? 0L : logDto.getCreateTime().getTime());
+        for (byte[] field : fields) {
+            if (field == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(field.length);
+                buffer.put(field);
+            }
+        }
+
+        return buffer.array();
+    }
+
+    /**
+     * Decode One LogDto From The Current Position Of The Buffer, The Position Is Moved To The End Of It
+     */
+    static LookLogAppender.LogDto decode(ByteBuffer buffer) {
+
+        LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+        logDto.setCreateTime(new Date(buffer.getLong()));
+        logDto.setFormattedMessage(string(buffer));
+        logDto.setTraceId(string(buffer));
+        logDto.setTime(string(buffer));
+        logDto.setThread(string(buffer));
+        logDto.setLogLevel(string(buffer));
+        logDto.setLoggerName(string(buffer));
+        logDto.setLine(string(buffer));
+        logDto.setMessage(string(buffer));
+        return logDto;
+    }
+
+    static byte[] encode(LookLogAppender.LogDto logDto, LogDictionary dictionary) {
+
+        /**
+         * Formatting First, It Folds The Stack Trace Into The Message
+         */
+        String formattedMessage = logDto.getFormattedMessage();
+
+        int kind;
+        if (logDto.getTimestamp() > 0) {
+            kind = FORMATTED;
+        } else if (formattedMessage != null && formattedMessage.equals(LookLogAppender.LogDto.join(logDto.getTime(), logDto.getThread(),
+                logDto.getTraceId(), logDto.getLogLevel(), logDto.getLoggerName(), logDto.getLine(), logDto.getMessage()))) {
+            kind = JOINED;
+        } else {
+            kind = VERBATIM;
+        }
+
+        String[] parts = {logDto.getThread(), logDto.getLogLevel(), logDto.getLoggerName(), logDto.getLine()};
+        int[] codes = new int[parts.length];
+        byte[][] inline = new byte[parts.length][];
+
+        byte[] traceId = bytes(logDto.getTraceId());
+        byte[] time = kind == FORMATTED ? null : bytes(logDto.getTime());
+        byte[] text = bytes(kind == VERBATIM ? formattedMessage : logDto.getMessage());
+
+        int size = 8 + 1 + 5 * 3 + length(traceId) + length(time) + length(text);
+
+        for (int i = 0; i < parts.length; i++) {
+            codes[i] = parts[i] == null ? -1 : dictionary.code(parts[i]);
+            if (parts[i] != null && codes[i] < 0) {
+                inline[i] = bytes(parts[i]);
+                size += 5 + inline[i].length;
+            }
+            size += 5;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putLong(logDto.getCreateTime() == null ? 0L : logDto.getCreateTime().getTime());
+        buffer.put((byte) kind);
+        putString(buffer, traceId);
+
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i] == null) {
+                putVarint(buffer, NULL_CODE);
+            } else if (inline[i] != null) {
+                putVarint(buffer, INLINE_CODE);
+                putString(buffer, inline[i]);
+            } else {
+                putVarint(buffer, codes[i] + 2);
+            }
+        }
+
+        if (kind != FORMATTED) {
+            putString(buffer, time);
+        }
+        putString(buffer, text);
+
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Decode One LogDto Of The Compact Layout From The Current Position Of The Buffer
+     */
+    static LookLogAppender.LogDto decode(ByteBuffer buffer, LogDictionary dictionary) {
+
+        long createTime = buffer.getLong();
+        int kind = buffer.get();
+        String traceId = varString(buffer);
+        String thread = coded(buffer, dictionary);
+        String logLevel = coded(buffer, dictionary);
+        String loggerName = coded(buffer, dictionary);
+        String line = coded(buffer, dictionary);
+
+        LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+
+        if (kind == FORMATTED) {
+            logDto.restore(createTime, traceId, thread, logLevel, loggerName, line, varString(buffer));
+            return logDto;
+        }
+
+        String time = varString(buffer);
+        String text = varString(buffer);
+
+        logDto.setCreateTime(new Date(createTime));
+        logDto.setTraceId(traceId);
+        logDto.setTime(time);
+        logDto.setThread(thread);
+        logDto.setLogLevel(logLevel);
+        logDto.setLoggerName(loggerName);
+        logDto.setLine(line);
+
+        if (kind == JOINED) {
+            logDto.setMessage(text);
+            logDto.setFormattedMessage(LookLogAppender.LogDto.join(time, thread, traceId, logLevel, loggerName, line, text));
+        } else {
+            logDto.setFormattedMessage(text);
+        }
+
+        return logDto;
+    }
+
+    private static int length(byte[] bytes) {
+        return 5 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            putVarint(buffer, 0);
+        } else {
+            putVarint(buffer, bytes.length + 1);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String varString(ByteBuffer buffer) {
+
+        int length = getVarint(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String coded(ByteBuffer buffer, LogDictionary dictionary) {
+
+        int code = getVarint(buffer);
+
+        if (code == NULL_CODE) {
+            return null;
+        }
+        if (code == INLINE_CODE) {
+            return varString(buffer);
+        }
+        return dictionary.value(code - 2);
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer buffer) {
+
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
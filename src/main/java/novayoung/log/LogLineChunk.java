@@ -0,0 +1,108 @@
+package novayoung.log;
+
+/**
+ * Lines Of A Query Copied Out Of A Local Store While Its Read Lock Is Held, Handed To The Visitor After It Is Released.
+ *
+ * The visitor may write to a slow client, and ingest takes the write lock, so a store fills a chunk of at most LINES lines,
+ * examining at most SCAN records, unlocks, delivers the chunk and locks again to go on from the last record examined.
+ * Each line keeps the store's position of its record, for the cursor of the page.
+ *
+ */
+final class LogLineChunk {
+
+    /**
+     * Max Lines Copied Out Per Chunk
+     */
+    static final int LINES = 256;
+
+    /**
+     * Max Records Examined Per Chunk, Bounds How Long A Query Holds The Lock When Few Records Match
+     */
+    static final int SCAN = 4096;
+
+    private final long[] times = new long[LINES];
+
+    private final String[] levels = new String[LINES];
+
+    private final String[] traceIds = new String[LINES];
+
+    private final String[] messages = new String[LINES];
+
+    private final long[] positions = new long[LINES];
+
+    private final long[] subPositions = new long[LINES];
+
+    private int size;
+
+    private int capacity;
+
+    /**
+     * Lines Of The Last deliver() The Visitor Took
+     */
+    private int delivered;
+
+
+    /**
+     * Start A Chunk Of At Most capacity Lines, The Page's Remaining Lines
+     */
+    void reset(int capacity) {
+        this.size = 0;
+        this.delivered = 0;
+        this.capacity = Math.min(capacity, LINES);
+    }
+
+    void add(long time, String level, String traceId, String message, long position, long subPosition) {
+        times[size] = time;
+        levels[size] = level;
+        traceIds[size] = traceId;
+        messages[size] = message;
+        positions[size] = position;
+        subPositions[size] = subPosition;
+        size++;
+    }
+
+    boolean isFull() {
+        return size >= capacity;
+    }
+
+    /**
+     * Hand The Lines To The Visitor, Outside The Store's Lock
+     *
+     * @return false if the visitor stopped the query
+     */
+    boolean deliver(LookLogAppender.LogLineVisitor visitor) {
+
+        boolean go = true;
+
+        while (go && delivered < size) {
+            go = visitor.visit(times[delivered], levels[delivered], traceIds[delivered], messages[delivered]);
+            delivered++;
+        }
+
+        for (int i = 0; i < size; i++) {
+            levels[i] = null;
+            traceIds[i] = null;
+            messages[i] = null;
+        }
+
+        return go;
+    }
+
+    /**
+     * Lines Of The Chunk The Visitor Took
+     */
+    int delivered() {
+        return delivered;
+    }
+
+    /**
+     * Position Of The Last Line The Visitor Took, Valid When It Took One
+     */
+    long lastPosition() {
+        return positions[delivered - 1];
+    }
+
+    long lastSubPosition() {
+        return subPositions[delivered - 1];
+    }
+}
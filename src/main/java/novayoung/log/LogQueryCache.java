@@ -0,0 +1,475 @@
+package novayoung.log;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Results Of Recent Condition Queries, So The Same Query Shared By Several People Reads The Store Once.
+ *
+ * Entries are keyed by the normalized conditions, order and limit, bounded by count and by chars of the lines, least recently used first out.
+ * Every batch written to the store moves the ingest watermark and stays in a bounded history of recent batches.
+ * An entry stays valid until queryCacheSeconds unless a line written after it matches its conditions, which only scans the lines
+ * written since, in memory; an entry older than the history is dropped. A window ending before the seal lag,
+ * with no buffered or spilled lines left to write, can't get new lines and outlives the history.
+ *
+ * A store shared by several instances (Redis, MongoDB) also takes lines this instance never sees,
+ * so only sealed windows are cached for it; lines another instance still has buffered or spilled can land in one until it expires.
+ *
+ */
+final class LogQueryCache {
+
+    /**
+     * Lines Are Written A Little After Their createTime, A Window Ending Longer Ago Than This Is Complete
+     */
+    private static final long SEAL_LAG_MILLIS = 10000L;
+
+    /**
+     * Max Batches Kept In The History, Which Is Also Bounded By queryCacheMaxChars
+     */
+    private static final int BATCH_HISTORY = 1024;
+
+    private final LookLogConfig lookLogConfig;
+
+    /**
+     * Other Instances Write To The Store Too
+     */
+    private final boolean shared;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private long chars;
+
+    /**
+     * Latest Written Batches, The First One Is Batch Number generation - batches.size()
+     */
+    private final ArrayDeque<Batch> batches = new ArrayDeque<>();
+
+    private long batchChars;
+
+    /**
+     * The Ingest Watermark, Count Of Batches Written So Far
+     */
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+
+    LogQueryCache(LookLogConfig lookLogConfig, boolean shared) {
+        this.lookLogConfig = lookLogConfig;
+        this.shared = shared;
+    }
+
+    /**
+     * Move The Watermark Past A Batch Just Written To The Store
+     */
+    void written(List<LookLogAppender.LogDto> logDtos) {
+
+        if (logDtos.isEmpty()) {
+            return;
+        }
+
+        Batch batch = new Batch(logDtos);
+
+        synchronized (this) {
+
+            batches.addLast(batch);
+            batchChars += batch.chars;
+            generation++;
+
+            while (batches.size() > BATCH_HISTORY || (batches.size() > 1 && batchChars > lookLogConfig.getQueryCacheMaxChars())) {
+                batchChars -= batches.removeFirst().chars;
+            }
+        }
+    }
+
+    /**
+     * Replay The Cached Result, Or Run The Query And Keep What It Visited
+     *
+     * @param settled no buffered or spilled lines are waiting to be written to the store
+     */
+    String visitLogs(LookLogAppender.LogQuery store, Map<String, Object> conditions, Integer order, Integer limit,
+                     boolean settled, LookLogAppender.LogLineVisitor visitor) {
+
+        Query query = new Query(conditions, order, limit);
+        long now = System.currentTimeMillis();
+
+        Entry entry = get(query.key, now);
+
+        if (entry != null) {
+
+            hits.incrementAndGet();
+
+            for (int i = 0; i < entry.size; i++) {
+                if (!visitor.visit(entry.times[i], entry.levels[i], entry.traceIds[i], entry.messages[i])) {
+                    break;
+                }
+            }
+
+            return entry.next;
+        }
+
+        misses.incrementAndGet();
+
+        /**
+         * Taken Before The Query, A Batch Written While It Runs Is Checked Against The Entry Later
+         */
+        long watermark;
+        synchronized (this) {
+            watermark = generation;
+        }
+
+        Recorder recorder = new Recorder(visitor, Math.max(1, lookLogConfig.getQueryCacheMaxChars() / 4));
+
+        String next = store.visitLogs(conditions, order, limit, recorder);
+
+        boolean sealed = settled && query.end != null && query.end < now - SEAL_LAG_MILLIS;
+
+        /**
+         * A Query The Caller Stopped, Or Too Big To Keep, Is Not Cached, Nor An Open Window Of A Shared Store
+         */
+        if (!recorder.stopped && !recorder.overflow && (sealed || !shared)) {
+            put(query.key, new Entry(query, recorder, next, watermark, now + lookLogConfig.getQueryCacheSeconds() * 1000L, sealed));
+        }
+
+        return next;
+    }
+
+    Map<String, Object> getStats() {
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("chars", chars);
+            stats.put("watermark", generation);
+        }
+
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+
+        return stats;
+    }
+
+
+    /**
+     * The Lines Written Since The Entry Was Filled Are Matched Outside The Lock, Ingest Never Waits For A Lookup
+     */
+    private Entry get(String key, long now) {
+
+        Entry entry;
+        List<Batch> since;
+        long watermark;
+
+        synchronized (this) {
+
+            entry = entries.get(key);
+
+            if (entry == null) {
+                return null;
+            }
+
+            if (now >= entry.expiresAt || (!entry.sealed && generation - entry.watermark > batches.size())) {
+                invalidate(key, entry);
+                return null;
+            }
+
+            if (entry.watermark == generation) {
+                return entry;
+            }
+
+            /**
+             * A Sealed Entry Still Checks The History It Has, A Batch Being Written While It Was Filled Lands There
+             */
+            long first = Math.max(entry.watermark, generation - batches.size());
+
+            since = new ArrayList<>((int) (generation - first));
+            Iterator<Batch> iterator = batches.descendingIterator();
+            for (long g = generation - 1; g >= first; g--) {
+                since.add(iterator.next());
+            }
+
+            watermark = generation;
+        }
+
+        if (changed(entry.query, since)) {
+            synchronized (this) {
+                invalidate(key, entry);
+            }
+            return null;
+        }
+
+        /**
+         * Still Valid, The Next Lookup Only Checks Lines Written From Now On
+         */
+        synchronized (this) {
+            entry.watermark = Math.max(entry.watermark, watermark);
+        }
+
+        return entry;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+
+        remove(key);
+
+        entries.put(key, entry);
+        chars += entry.chars;
+
+        Iterator<Entry> iterator = entries.values().iterator();
+
+        while ((entries.size() > lookLogConfig.getQueryCacheEntries() || chars > lookLogConfig.getQueryCacheMaxChars()) && iterator.hasNext()) {
+            chars -= iterator.next().chars;
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void invalidate(String key, Entry entry) {
+        if (entries.get(key) == entry) {
+            remove(key);
+            invalidations.incrementAndGet();
+        }
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            chars -= removed.chars;
+        }
+    }
+
+    /**
+     * Whether A Line Of The Batches Matches The Query
+     */
+    private boolean changed(Query query, List<Batch> since) {
+
+        TraceIdMatch traceIdMatch = lookLogConfig.getTraceIdMatch();
+
+        for (Batch batch : since) {
+
+            if ((query.start != null && batch.maxTime < query.start) || (query.end != null && batch.minTime > query.end)) {
+                continue;
+            }
+
+            for (int i = 0; i < batch.messages.length; i++) {
+                if ((query.start == null || batch.times[i] >= query.start)
+                        && (query.end == null || batch.times[i] <= query.end)
+                        && (query.levels & (1 << batch.levels[i])) != 0
+                        && (query.traceId == null || traceIdMatch.matches(batch.traceIds[i], query.traceId))
+                        && (query.pattern == null || query.pattern.matcher(batch.messages[i]).find())) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Normalized Conditions, Blank Values And Level Order Don't Make A Different Query
+     */
+    private static final class Query {
+
+        final String traceId;
+
+        final Long start;
+
+        final Long end;
+
+        final int levels;
+
+        final Pattern pattern;
+
+        final String key;
+
+        Query(Map<String, Object> conditions, Integer order, Integer limit) {
+
+            String keyword = (String) conditions.get("keyword");
+            String traceId = (String) conditions.get("traceId");
+            Date startTime = (Date) conditions.get("startTime");
+            Date endTime = (Date) conditions.get("endTime");
+            String[] level = (String[]) conditions.get("level");
+            String cursor = (String) conditions.get("cursor");
+
+            this.traceId = StringUtils.isBlank(traceId) ? null : traceId;
+            this.start = startTime == null ? null : startTime.getTime();
+            this.end = endTime == null ? null : endTime.getTime();
+
+            int mask = 0;
+            if (level != null) {
+                for (String name : level) {
+                    mask |= 1 << LogDtoCodec.levelCode(name);
+                }
+            }
+            this.levels = mask == 0 ? -1 : mask;
+            this.pattern = StringUtils.isBlank(keyword) ? null : Pattern.compile(keyword);
+
+            this.key = StringUtils.join(new Object[]{
+                    this.traceId,
+                    StringUtils.isBlank(keyword) ? null : keyword,
+                    start,
+                    end,
+                    this.levels,
+                    StringUtils.isBlank(cursor) ? null : cursor,
+                    order == null || order < 0 ? -1 : 1,
+                    limit
+            }, '\u0000');
+        }
+    }
+
+
+    /**
+     * The Lines Of A Written Batch, Copied Out Since Buffers Reuse Their Logs
+     */
+    private static final class Batch {
+
+        final long[] times;
+
+        final byte[] levels;
+
+        final String[] traceIds;
+
+        final String[] messages;
+
+        long minTime = Long.MAX_VALUE;
+
+        long maxTime = Long.MIN_VALUE;
+
+        long chars;
+
+        Batch(List<LookLogAppender.LogDto> logDtos) {
+
+            int size = logDtos.size();
+            this.times = new long[size];
+            this.levels = new byte[size];
+            this.traceIds = new String[size];
+            this.messages = new String[size];
+
+            for (int i = 0; i < size; i++) {
+                LookLogAppender.LogDto logDto = logDtos.get(i);
+                times[i] = logDto.getCreateTime().getTime();
+                levels[i] = (byte) LogDtoCodec.levelCode(logDto.getLogLevel());
+                traceIds[i] = logDto.getTraceId();
+                messages[i] = logDto.getFormattedMessage();
+                minTime = Math.min(minTime, times[i]);
+                maxTime = Math.max(maxTime, times[i]);
+                chars += messages[i].length();
+            }
+        }
+    }
+
+
+    private static final class Entry {
+
+        final Query query;
+
+        final int size;
+
+        final long[] times;
+
+        final String[] levels;
+
+        final String[] traceIds;
+
+        final String[] messages;
+
+        final long chars;
+
+        final String next;
+
+        /**
+         * Batches Up To This One Are Known Not To Change The Entry
+         */
+        long watermark;
+
+        final long expiresAt;
+
+        final boolean sealed;
+
+        Entry(Query query, Recorder recorder, String next, long watermark, long expiresAt, boolean sealed) {
+            this.query = query;
+            this.size = recorder.messages.size();
+            this.times = new long[size];
+            this.levels = recorder.levels.toArray(new String[size]);
+            this.traceIds = recorder.traceIds.toArray(new String[size]);
+            this.messages = recorder.messages.toArray(new String[size]);
+            for (int i = 0; i < size; i++) {
+                this.times[i] = recorder.times.get(i);
+            }
+            this.chars = recorder.chars;
+            this.next = next;
+            this.watermark = watermark;
+            this.expiresAt = expiresAt;
+            this.sealed = sealed;
+        }
+    }
+
+
+    /**
+     * Passes Lines On To The Caller, Keeping A Copy Until It Grows Past maxChars
+     */
+    private static final class Recorder implements LookLogAppender.LogLineVisitor {
+
+        private final LookLogAppender.LogLineVisitor visitor;
+
+        private final long maxChars;
+
+        final List<Long> times = new ArrayList<>();
+
+        final List<String> levels = new ArrayList<>();
+
+        final List<String> traceIds = new ArrayList<>();
+
+        final List<String> messages = new ArrayList<>();
+
+        long chars;
+
+        boolean overflow;
+
+        boolean stopped;
+
+        Recorder(LookLogAppender.LogLineVisitor visitor, long maxChars) {
+            this.visitor = visitor;
+            this.maxChars = maxChars;
+        }
+
+        @Override
+        public boolean visit(long createTime, String level, String traceId, String message) {
+
+            if (!overflow) {
+                chars += message == null ? 0 : message.length();
+                if (chars > maxChars) {
+                    overflow = true;
+                    times.clear();
+                    levels.clear();
+                    traceIds.clear();
+                    messages.clear();
+                } else {
+                    times.add(createTime);
+                    levels.add(level);
+                    traceIds.add(traceId);
+                    messages.add(message);
+                }
+            }
+
+            if (!visitor.visit(createTime, level, traceId, message)) {
+                stopped = true;
+                return false;
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package novayoung.log;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds What Condition Queries May Cost The Store, So A Careless Search Can't Starve Ingest.
+ *
+ * At most queryMaxConcurrent queries run against the store at once, and at most queryMaxExpensiveConcurrent of them
+ * are expensive: a keyword without traceId over an open or wide time range, which has to scan everything in it.
+ * A query waits queryQueueMillis for its turn and is rejected after that. Each query gets a deadline queryTimeoutMillis ahead,
+ * passed to the store in the conditions ("deadline"), which gives MongoDB its maxTimeMS and is checked by the other stores between chunks of work.
+ * A client that goes away stops the query at the next line written to it.
+ *
+ */
+final class LogQueryGovernor implements LookLogAppender.LogQuery {
+
+    /**
+     * The Condition Holding The Deadline Of The Query, Epoch Millis
+     */
+    static final String DEADLINE = "deadline";
+
+    /**
+     * A Keyword Search Over A Longer Time Range Counts As Expensive
+     */
+    private static final long EXPENSIVE_SPAN_MILLIS = 60 * 60 * 1000L;
+
+    private final LookLogConfig lookLogConfig;
+
+    private final LookLogAppender.LogQuery store;
+
+    private final Semaphore permits;
+
+    private final Semaphore expensivePermits;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong timedOut = new AtomicLong();
+
+
+    LogQueryGovernor(LookLogConfig lookLogConfig, LookLogAppender.LogQuery store) {
+        this.lookLogConfig = lookLogConfig;
+        this.store = store;
+        this.permits = new Semaphore(Math.max(1, lookLogConfig.getQueryMaxConcurrent()), true);
+        this.expensivePermits = new Semaphore(Math.max(1, lookLogConfig.getQueryMaxExpensiveConcurrent()), true);
+    }
+
+    @Override
+    public String visitLogs(Map<String, Object> conditions, Integer order, Integer limit, LookLogAppender.LogLineVisitor visitor) {
+
+        boolean expensive = expensive(conditions);
+
+        acquire(expensive ? expensivePermits : null);
+        try {
+
+            acquire(permits);
+            try {
+
+                Map<String, Object> governed = new HashMap<>(conditions);
+                if (lookLogConfig.getQueryTimeoutMillis() > 0) {
+                    governed.put(DEADLINE, System.currentTimeMillis() + lookLogConfig.getQueryTimeoutMillis());
+                }
+
+                return store.visitLogs(governed, order, limit, visitor);
+
+            } catch (TimeBudgetException e) {
+
+                timedOut.incrementAndGet();
+                throw e;
+
+            } finally {
+                permits.release();
+            }
+
+        } finally {
+            if (expensive) {
+                expensivePermits.release();
+            }
+        }
+    }
+
+    Map<String, Object> getStats() {
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("running", Math.max(1, lookLogConfig.getQueryMaxConcurrent()) - permits.availablePermits());
+        stats.put("expensiveRunning", Math.max(1, lookLogConfig.getQueryMaxExpensiveConcurrent()) - expensivePermits.availablePermits());
+        stats.put("waiting", permits.getQueueLength() + expensivePermits.getQueueLength());
+        stats.put("rejected", rejected.get());
+        stats.put("timedOut", timedOut.get());
+
+        return stats;
+    }
+
+
+    /**
+     * The Deadline Of The Query, Long.MAX_VALUE If It Has None
+     */
+    static long deadline(Map<String, Object> conditions) {
+        Long deadline = (Long) conditions.get(DEADLINE);
+        return deadline == null ? Long.MAX_VALUE : deadline;
+    }
+
+    /**
+     * Stop A Store Scan That Ran Past Its Deadline
+     */
+    static void checkDeadline(long deadline) {
+        if (deadline != Long.MAX_VALUE && System.currentTimeMillis() > deadline) {
+            throw new TimeBudgetException();
+        }
+    }
+
+    /**
+     * Millis Left Before The Deadline, 0 If It Has None
+     */
+    static long remainingMillis(long deadline) {
+
+        if (deadline == Long.MAX_VALUE) {
+            return 0;
+        }
+
+        checkDeadline(deadline);
+
+        return Math.max(1, deadline - System.currentTimeMillis());
+    }
+
+
+    private void acquire(Semaphore semaphore) {
+
+        if (semaphore == null) {
+            return;
+        }
+
+        boolean acquired;
+        try {
+            acquired = semaphore.tryAcquire(lookLogConfig.getQueryQueueMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+
+        if (!acquired) {
+            rejected.incrementAndGet();
+            throw new RejectedException(semaphore == expensivePermits
+                    ? "too many expensive queries running, narrow the time range or add a traceId"
+                    : "too many queries running, try again later");
+        }
+    }
+
+    private boolean expensive(Map<String, Object> conditions) {
+
+        if (StringUtils.isBlank((String) conditions.get("keyword")) || StringUtils.isNotBlank((String) conditions.get("traceId"))) {
+            return false;
+        }
+
+        Date startTime = (Date) conditions.get("startTime");
+        Date endTime = (Date) conditions.get("endTime");
+
+        return startTime == null || endTime == null || endTime.getTime() - startTime.getTime() > EXPENSIVE_SPAN_MILLIS;
+    }
+
+
+    /**
+     * The Query Was Turned Away Or Stopped, The Store Is Fine
+     */
+    static class RejectedException extends RuntimeException {
+
+        private static final long serialVersionUID = 3554212446747509643L;
+
+        RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The Query Ran Past Its Deadline
+     */
+    static class TimeBudgetException extends RejectedException {
+
+        private static final long serialVersionUID = -3926223614496086091L;
+
+        TimeBudgetException() {
+            super("query ran past its time budget, narrow the time range or add a traceId");
+        }
+    }
+}
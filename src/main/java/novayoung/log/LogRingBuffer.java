@@ -0,0 +1,274 @@
+package novayoung.log;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Multi-Producer Single-Consumer Ring Buffer.
+ *
+ * The slots are preallocated LogDto, producers claim a sequence by CAS and fill the slot in place,
+ * so there is no node allocation and no lock on the logging threads.
+ *
+ */
+class LogRingBuffer implements LogBuffer {
+
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final LookLogAppender.LogDto[] slots;
+
+    private final int mask;
+
+    /**
+     * The Sequence Published In Each Slot, Slot Is Readable When It Equals The Read Sequence
+     */
+    private final AtomicLongArray published;
+
+    /**
+     * Next Sequence To Claim By Producers
+     */
+    private final AtomicLong claimed = new AtomicLong();
+
+    /**
+     * Sequences Below It Are Released By The Consumer
+     */
+    private final AtomicLong released = new AtomicLong();
+
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * Next Sequence To Read, Only Touched By The Consumer
+     */
+    private long readSequence;
+
+
+    LogRingBuffer(int capacity, WaitStrategy waitStrategy) {
+
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+        this.slots = new LookLogAppender.LogDto[size];
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        this.waitStrategy = waitStrategy == null ? WaitStrategy.PARK : waitStrategy;
+
+        for (int i = 0; i < size; i++) {
+            slots[i] = new LookLogAppender.LogDto();
+            published.set(i, -1L);
+        }
+    }
+
+    @Override
+    public boolean offer(LookLogAppender.LogDto logDto) {
+
+        long sequence = claim();
+        if (sequence < 0) {
+            return false;
+        }
+
+        slots[(int) sequence & mask].copyFrom(logDto);
+        published.lazySet((int) sequence & mask, sequence);
+        return true;
+    }
+
+    @Override
+    public boolean offer(ILoggingEvent event) {
+
+        long sequence = claim();
+        if (sequence < 0) {
+            return false;
+        }
+
+        slots[(int) sequence & mask].capture(event);
+        published.lazySet((int) sequence & mask, sequence);
+        return true;
+    }
+
+    @Override
+    public boolean offer(LookLogAppender.LogDto logDto, long timeout, TimeUnit unit) throws InterruptedException {
+
+        long sequence = claim(unit.toNanos(timeout));
+        if (sequence < 0) {
+            return false;
+        }
+
+        slots[(int) sequence & mask].copyFrom(logDto);
+        published.lazySet((int) sequence & mask, sequence);
+        return true;
+    }
+
+    @Override
+    public boolean offer(ILoggingEvent event, long timeout, TimeUnit unit) throws InterruptedException {
+
+        long sequence = claim(unit.toNanos(timeout));
+        if (sequence < 0) {
+            return false;
+        }
+
+        slots[(int) sequence & mask].capture(event);
+        published.lazySet((int) sequence & mask, sequence);
+        return true;
+    }
+
+    /**
+     * Slots Are Only Ever Read By The Consumer, So Producers Can't Evict
+     */
+    @Override
+    public LookLogAppender.LogDto evictOldest() {
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.max(0, claimed.get() - released.get());
+    }
+
+    @Override
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Claim The Next Free Slot, Park Between Attempts Until The Timeout
+     */
+    private long claim(long timeoutNanos) throws InterruptedException {
+
+        long deadline = System.nanoTime() + timeoutNanos;
+
+        while (true) {
+
+            long sequence = claim();
+            if (sequence >= 0) {
+                return sequence;
+            }
+
+            if (deadline - System.nanoTime() <= 0) {
+                return -1L;
+            }
+
+            WaitStrategy.PARK.idle();
+        }
+    }
+
+    /**
+     * Claim The Next Free Slot
+     *
+     * @return sequence of the slot, -1 if ring is full
+     */
+    private long claim() {
+
+        while (true) {
+
+            long sequence = claimed.get();
+
+            if (sequence - released.get() >= slots.length) {
+                return -1L;
+            }
+
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    @Override
+    public LookLogAppender.LogDto take() throws InterruptedException {
+
+        while (true) {
+
+            LookLogAppender.LogDto logDto = poll();
+            if (logDto != null) {
+                return logDto;
+            }
+
+            waitStrategy.idle();
+        }
+    }
+
+    @Override
+    public LookLogAppender.LogDto poll() {
+
+        int index = (int) readSequence & mask;
+
+        if (published.get(index) != readSequence) {
+            return null;
+        }
+
+        readSequence++;
+        return slots[index];
+    }
+
+    @Override
+    public LookLogAppender.LogDto poll(long timeout, TimeUnit unit) throws InterruptedException {
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        while (true) {
+
+            LookLogAppender.LogDto logDto = poll();
+            if (logDto != null) {
+                return logDto;
+            }
+
+            if (deadline - System.nanoTime() <= 0) {
+                return null;
+            }
+
+            waitStrategy.idle();
+        }
+    }
+
+    @Override
+    public void release() {
+        released.lazySet(readSequence);
+    }
+
+
+    /**
+     * How The Consumer Waits For The Next Log
+     */
+    enum WaitStrategy {
+
+        /**
+         * Lowest Latency, Burns A Whole Core
+         */
+        BUSY_SPIN {
+            @Override
+            void idle() throws InterruptedException {
+                checkInterrupted();
+            }
+        },
+
+        /**
+         * Give Up The CPU To Other Threads Between Checks
+         */
+        YIELD {
+            @Override
+            void idle() throws InterruptedException {
+                checkInterrupted();
+                Thread.yield();
+            }
+        },
+
+        /**
+         * Park For A Short While Between Checks, Cheapest On CPU
+         */
+        PARK {
+            @Override
+            void idle() throws InterruptedException {
+                checkInterrupted();
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        };
+
+        abstract void idle() throws InterruptedException;
+
+        private static void checkInterrupted() throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+}
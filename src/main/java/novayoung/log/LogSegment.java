@@ -0,0 +1,444 @@
+package novayoung.log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Append-Only Memory-Mapped Segment File Of Log Records.
+ *
+ * Record : length(int), createTime(long), traceId hash(long), level code(byte), LogDtoCodec compact bytes.
+ * Records are grouped in blocks of a fixed number of records, the sparse index keeps the start position
+ * and the min / max createTime of each block, so a time range query only scans the blocks that overlap it.
+ * A bloom filter over the traceId hashes lets a trace query skip the whole segment.
+ * When a segment is full it is sealed, its index and bloom filter are written to a sidecar ".idx" file.
+ *
+ */
+class LogSegment {
+
+    static final int RECORD_HEADER_SIZE = 4 + 8 + 8 + 1;
+
+    private static final int INDEX_MAGIC = 0x4C4C4958;
+
+    /**
+     * Names Of The Segment Files This Store Writes, Other Files In The Directory Are Left Alone
+     */
+    private static final Pattern FILE_NAME = Pattern.compile("\\d{20}\\.log");
+
+    private static final int BLOOM_HASHES = 7;
+
+    private final long sequence;
+
+    private final File logFile;
+
+    private final File indexFile;
+
+    private final MappedByteBuffer buffer;
+
+    private final int size;
+
+    private final int indexInterval;
+
+    private int writePosition;
+
+    private long minTime = Long.MAX_VALUE;
+
+    private long maxTime = Long.MIN_VALUE;
+
+    private int count;
+
+    private int[] blockPositions = new int[64];
+
+    private long[] blockMinTimes = new long[64];
+
+    private long[] blockMaxTimes = new long[64];
+
+    private int blockCount;
+
+    private long[] bloom;
+
+    private boolean sealed;
+
+
+    private LogSegment(File directory, long sequence, int size, int bloomBits, int indexInterval) throws IOException {
+
+        this.sequence = sequence;
+        this.logFile = new File(directory, String.format("%020d.log", sequence));
+        this.indexFile = new File(directory, String.format("%020d.idx", sequence));
+        this.size = size;
+        this.indexInterval = Math.max(1, indexInterval);
+        this.bloom = new long[Math.max(1, bloomBits / 64)];
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(logFile, "rw")) {
+            if (randomAccessFile.length() < size) {
+                randomAccessFile.setLength(size);
+            }
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Create A New Empty Segment
+     */
+    static LogSegment create(File directory, long sequence, int size, int bloomBits, int indexInterval) throws IOException {
+        return new LogSegment(directory, sequence, size, bloomBits, indexInterval);
+    }
+
+    static boolean isSegmentFile(String name) {
+        return FILE_NAME.matcher(name).matches();
+    }
+
+    /**
+     * Open An Existing Segment, Load The Sidecar Index If It Is Sealed, Otherwise Rebuild It By Scanning
+     */
+    static LogSegment open(File logFile, int bloomBits, int indexInterval) throws IOException {
+
+        String name = logFile.getName();
+        long sequence = Long.parseLong(name.substring(0, name.indexOf('.')));
+        int size = (int) Math.min(Integer.MAX_VALUE, logFile.length());
+
+        LogSegment segment = new LogSegment(logFile.getParentFile(), sequence, size, bloomBits, indexInterval);
+
+        if (!segment.loadIndex()) {
+            segment.rebuildIndex();
+        }
+
+        return segment;
+    }
+
+
+    /**
+     * @return false if the record doesn't fit, the segment should be sealed then
+     */
+    boolean append(byte[] body, long createTime, long traceHash, int levelCode) {
+
+        int need = RECORD_HEADER_SIZE + body.length;
+
+        if (sealed || writePosition + need > size) {
+            return false;
+        }
+
+        ByteBuffer record = buffer.duplicate();
+        record.position(writePosition + 4);
+        record.putLong(createTime);
+        record.putLong(traceHash);
+        record.put((byte) levelCode);
+        record.put(body);
+
+        /**
+         * Length Goes Last, A Half Written Record Is Never Visible !
+         */
+        buffer.putInt(writePosition, need - 4);
+
+        index(writePosition, createTime, traceHash);
+        writePosition += need;
+        return true;
+    }
+
+    /**
+     * Seal The Segment, Persist Its Index And Bloom Filter
+     */
+    void seal() throws IOException {
+
+        sealed = true;
+        buffer.force();
+
+        File temp = new File(indexFile.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(writePosition);
+            out.writeLong(minTime);
+            out.writeLong(maxTime);
+            out.writeInt(count);
+            out.writeInt(blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                out.writeInt(blockPositions[i]);
+                out.writeLong(blockMinTimes[i]);
+                out.writeLong(blockMaxTimes[i]);
+            }
+            out.writeInt(bloom.length);
+            for (long word : bloom) {
+                out.writeLong(word);
+            }
+        }
+
+        if (!temp.renameTo(indexFile)) {
+            throw new IOException("Can't Write Segment Index : " + indexFile);
+        }
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Unmap And Delete The Files, The Segment Must Not Be Read Anymore
+     */
+    void delete() {
+
+        unmap(buffer);
+
+        //noinspection ResultOfMethodCallIgnored
+        indexFile.delete();
+
+        //noinspection ResultOfMethodCallIgnored
+        logFile.delete();
+    }
+
+    boolean mightContain(long traceHash) {
+
+        long hash2 = mix(traceHash);
+
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = ((traceHash + i * hash2) & Long.MAX_VALUE) % (bloom.length * 64L);
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    boolean overlaps(long start, long end) {
+        return count > 0 && minTime <= end && maxTime >= start;
+    }
+
+    /**
+     * Visit The Records Of The Blocks That Overlap The Time Range, In Write Order Or Reversed
+     *
+     * @return false if the visitor stopped
+     */
+    boolean scan(long start, long end, boolean descending, RecordVisitor visitor) {
+        return scan(start, end, descending, -1, visitor);
+    }
+
+    /**
+     * Same Scan, Starting Past The Record At after (In The Scan Order), Blocks Before It Are Skipped Without Reading, -1 Scans All
+     */
+    boolean scan(long start, long end, boolean descending, int after, RecordVisitor visitor) {
+
+        int[] positions = new int[indexInterval];
+
+        for (int i = 0; i < blockCount; i++) {
+
+            int block = descending ? blockCount - 1 - i : i;
+            int blockEnd = block + 1 < blockCount ? blockPositions[block + 1] : writePosition;
+
+            if (blockMinTimes[block] > end || blockMaxTimes[block] < start) {
+                continue;
+            }
+
+            if (after >= 0 && (descending ? blockPositions[block] >= after : blockEnd <= after)) {
+                continue;
+            }
+
+            int records = 0;
+            for (int position = blockPositions[block]; position < blockEnd; position += 4 + buffer.getInt(position)) {
+                if (records == positions.length) {
+                    int[] grown = new int[positions.length * 2];
+                    System.arraycopy(positions, 0, grown, 0, records);
+                    positions = grown;
+                }
+                positions[records++] = position;
+            }
+
+            for (int j = 0; j < records; j++) {
+
+                int position = positions[descending ? records - 1 - j : j];
+
+                if (after >= 0 && (descending ? position >= after : position <= after)) {
+                    continue;
+                }
+
+                long createTime = buffer.getLong(position + 4);
+
+                if (createTime < start || createTime > end) {
+                    continue;
+                }
+
+                if (!visitor.visit(this, position, createTime, buffer.getLong(position + 12), buffer.get(position + 20))) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    LookLogAppender.LogDto read(int position, LogDictionary dictionary) {
+
+        int length = buffer.getInt(position);
+
+        ByteBuffer record = buffer.duplicate();
+        record.limit(position + 4 + length);
+        record.position(position + RECORD_HEADER_SIZE);
+        return LogDtoCodec.decode(record, dictionary);
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    long getMaxTime() {
+        return maxTime;
+    }
+
+    int getWritePosition() {
+        return writePosition;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+
+    private void index(int position, long createTime, long traceHash) {
+
+        if (count % indexInterval == 0) {
+
+            if (blockCount == blockPositions.length) {
+                blockPositions = Arrays.copyOf(blockPositions, blockCount * 2);
+                blockMinTimes = Arrays.copyOf(blockMinTimes, blockCount * 2);
+                blockMaxTimes = Arrays.copyOf(blockMaxTimes, blockCount * 2);
+            }
+
+            blockPositions[blockCount] = position;
+            blockMinTimes[blockCount] = createTime;
+            blockMaxTimes[blockCount] = createTime;
+            blockCount++;
+        }
+
+        blockMinTimes[blockCount - 1] = Math.min(blockMinTimes[blockCount - 1], createTime);
+        blockMaxTimes[blockCount - 1] = Math.max(blockMaxTimes[blockCount - 1], createTime);
+        minTime = Math.min(minTime, createTime);
+        maxTime = Math.max(maxTime, createTime);
+        count++;
+
+        long hash2 = mix(traceHash);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = ((traceHash + i * hash2) & Long.MAX_VALUE) % (bloom.length * 64L);
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private boolean loadIndex() {
+
+        if (!indexFile.exists()) {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+
+            if (in.readInt() != INDEX_MAGIC) {
+                return false;
+            }
+
+            writePosition = in.readInt();
+            minTime = in.readLong();
+            maxTime = in.readLong();
+            count = in.readInt();
+            blockCount = in.readInt();
+            blockPositions = new int[Math.max(1, blockCount)];
+            blockMinTimes = new long[Math.max(1, blockCount)];
+            blockMaxTimes = new long[Math.max(1, blockCount)];
+            for (int i = 0; i < blockCount; i++) {
+                blockPositions[i] = in.readInt();
+                blockMinTimes[i] = in.readLong();
+                blockMaxTimes[i] = in.readLong();
+            }
+            bloom = new long[in.readInt()];
+            for (int i = 0; i < bloom.length; i++) {
+                bloom[i] = in.readLong();
+            }
+
+            sealed = writePosition <= size;
+            return sealed;
+
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void rebuildIndex() {
+
+        writePosition = 0;
+        minTime = Long.MAX_VALUE;
+        maxTime = Long.MIN_VALUE;
+        count = 0;
+        blockCount = 0;
+
+        while (writePosition + RECORD_HEADER_SIZE <= size) {
+
+            int length = buffer.getInt(writePosition);
+            if (length < RECORD_HEADER_SIZE - 4 || writePosition + 4 + length > size) {
+                break;
+            }
+
+            index(writePosition, buffer.getLong(writePosition + 4), buffer.getLong(writePosition + 12));
+            writePosition += 4 + length;
+        }
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash | 1L;
+    }
+
+
+    /**
+     * Release The Mapping Now, A Deleted File's Disk Space Is Otherwise Held Until The Buffer Is Garbage Collected.
+     * Unsafe.invokeCleaner On Java 9+, The Buffer's Cleaner On Java 8, Left To The GC If Neither Is Reachable
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                invokeCleaner = null;
+            }
+
+            if (invokeCleaner != null) {
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+                return;
+            }
+
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+
+        } catch (Exception e) {
+            //Ignore
+        }
+    }
+
+
+    interface RecordVisitor {
+
+        /**
+         * @return false to stop scanning
+         */
+        boolean visit(LogSegment segment, int position, long createTime, long traceHash, int levelCode);
+
+    }
+}
@@ -0,0 +1,206 @@
+package novayoung.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory-Mapped Spill File, Holds Logs While The Cache Backend Is Unavailable.
+ *
+ * The file is a circular buffer of records (length + LogDtoCodec bytes) behind a header of
+ * read offset, write offset and used bytes, so spilled logs survive a restart and are replayed in order.
+ *
+ */
+class LogSpillFile {
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final int WRAP_MARKER = -1;
+
+    private final MappedByteBuffer buffer;
+
+    private final int capacity;
+
+    private int readOffset;
+
+    private int writeOffset;
+
+    private int usedBytes;
+
+    /**
+     * Read State After The Last Peek, Applied By Commit
+     */
+    private int peekReadOffset;
+
+    private int peekConsumedBytes;
+
+
+    LogSpillFile(File file, int maxBytes) throws IOException {
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Can't Create Spill Directory : " + parent);
+        }
+
+        int fileSize = Math.max(HEADER_SIZE + 1024, maxBytes);
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            boolean existed = randomAccessFile.length() == fileSize;
+            randomAccessFile.setLength(fileSize);
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            capacity = fileSize - HEADER_SIZE;
+
+            if (existed) {
+                readOffset = buffer.getInt(0);
+                writeOffset = buffer.getInt(4);
+                usedBytes = buffer.getInt(8);
+            }
+
+            if (!existed || readOffset < 0 || readOffset >= capacity || writeOffset < 0 || writeOffset >= capacity
+                    || usedBytes < 0 || usedBytes > capacity) {
+                clear();
+            }
+
+            writeHeader();
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return usedBytes == 0;
+    }
+
+    synchronized int getUsedBytes() {
+        return usedBytes;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Append Logs In Order, Stop At The First One That Doesn't Fit
+     *
+     * @return number of logs appended
+     */
+    synchronized int append(List<LookLogAppender.LogDto> logDtos) {
+
+        int appended = 0;
+
+        for (LookLogAppender.LogDto logDto : logDtos) {
+
+            byte[] record = LogDtoCodec.encode(logDto);
+            int need = 4 + record.length;
+            int tail = capacity - writeOffset;
+            int waste = tail < need ? tail : 0;
+
+            if (usedBytes + waste + need > capacity) {
+                break;
+            }
+
+            if (waste > 0) {
+                if (waste >= 4) {
+                    buffer.putInt(HEADER_SIZE + writeOffset, WRAP_MARKER);
+                }
+                usedBytes += waste;
+                writeOffset = 0;
+            }
+
+            buffer.position(HEADER_SIZE + writeOffset);
+            buffer.putInt(record.length);
+            buffer.put(record);
+
+            writeOffset = (writeOffset + need) % capacity;
+            usedBytes += need;
+            appended++;
+        }
+
+        writeHeader();
+        return appended;
+    }
+
+    /**
+     * Read Up To Max Logs From The Head Without Removing Them, Call {@link #commit()} After They Are Written
+     */
+    synchronized List<LookLogAppender.LogDto> peek(int max) {
+
+        List<LookLogAppender.LogDto> logDtos = new ArrayList<>();
+
+        int offset = readOffset;
+        int used = usedBytes;
+
+        try {
+
+            while (used > 0 && logDtos.size() < max) {
+
+                int tail = capacity - offset;
+                if (tail < 4 || buffer.getInt(HEADER_SIZE + offset) == WRAP_MARKER) {
+                    used -= tail;
+                    offset = 0;
+                    continue;
+                }
+
+                int length = buffer.getInt(HEADER_SIZE + offset);
+                buffer.position(HEADER_SIZE + offset + 4);
+                buffer.limit(HEADER_SIZE + offset + 4 + length);
+                logDtos.add(LogDtoCodec.decode(buffer));
+                buffer.limit(buffer.capacity());
+
+                offset = (offset + 4 + length) % capacity;
+                used -= 4 + length;
+            }
+
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+
+            /**
+             * Broken File, Give Up What's Left !
+             */
+            buffer.limit(buffer.capacity());
+            offset = writeOffset;
+            used = 0;
+        }
+
+        peekReadOffset = offset;
+        peekConsumedBytes = usedBytes - Math.max(0, used);
+        return logDtos;
+    }
+
+    /**
+     * Remove The Logs Returned By The Last Peek
+     */
+    synchronized void commit() {
+
+        /**
+         * Logs Appended After The Peek Only Moved The Write Side, They Are Still There !
+         */
+        usedBytes -= peekConsumedBytes;
+        readOffset = peekReadOffset;
+        peekConsumedBytes = 0;
+
+        if (usedBytes <= 0) {
+            clear();
+        }
+
+        writeHeader();
+    }
+
+    synchronized void force() {
+        buffer.force();
+    }
+
+    private void clear() {
+        readOffset = 0;
+        writeOffset = 0;
+        usedBytes = 0;
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, readOffset);
+        buffer.putInt(4, writeOffset);
+        buffer.putInt(8, usedBytes);
+    }
+}
@@ -0,0 +1,561 @@
+package novayoung.log;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+/**
+ * Live Tail Of Ingested Lines, Pushed To Viewers As Server-Sent Events Without Touching The Store.
+ *
+ * The consumer workers publish each drained batch into an in-memory ring, overwriting the oldest lines, and never wait for a viewer.
+ * One dispatcher thread reads each line once, matches it once per distinct filter and queues it to every viewer of that filter.
+ * Each viewer's bounded queue is sent by its own task; lines that don't fit a full queue are skipped and counted in a "skipped" event,
+ * and a viewer that sent nothing for a whole heartbeat while its queue was full is disconnected. The browser then reconnects
+ * with Last-Event-ID (the line's sequence) and resumes from the ring, skipping what was overwritten meanwhile.
+ * Lines ingested while nobody watches are not copied but still numbered, so a resume across that time reports them as skipped.
+ *
+ */
+final class LogTail {
+
+    /**
+     * Idle Viewers Get A Comment Line This Often, Which Finds Closed Connections And Keeps Proxies From Timing Out
+     */
+    private static final long HEARTBEAT_MILLIS = 15000L;
+
+    private static final Line HEARTBEAT = new Line(-1, -1, null, null, null);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final LookLogConfig lookLogConfig;
+
+    private final Line[] ring;
+
+    /**
+     * Sequence Of The Next Line To Publish, Lines Are Numbered From 0 Since Start
+     */
+    private volatile long published;
+
+    private final AtomicInteger viewers = new AtomicInteger();
+
+    /**
+     * Viewers Waiting For The Dispatcher To Add Them, Groups Are Only Touched By The Dispatcher
+     */
+    private final Queue<Viewer> joining = new ConcurrentLinkedQueue<>();
+
+    private final Map<String, Group> groups = new HashMap<>();
+
+    private final ThreadPoolExecutor senders;
+
+    private final Thread dispatcher;
+
+
+    LogTail(LookLogConfig lookLogConfig) {
+
+        this.lookLogConfig = lookLogConfig;
+        this.ring = new Line[Math.max(16, lookLogConfig.getTailBufferSize())];
+
+        /**
+         * At Most One Send And One Completion Per Viewer, So A Blocked Socket Only Holds Its Own Threads
+         */
+        int maxThreads = Math.max(1, lookLogConfig.getTailMaxClients()) * 2;
+        this.senders = new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "LookLogAppender-Tail-Sender-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.dispatcher = new Thread() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        };
+        this.dispatcher.setName("LookLogAppender-Tail");
+        this.dispatcher.setDaemon(true);
+    }
+
+    void start() {
+        dispatcher.start();
+    }
+
+    void close() {
+        dispatcher.interrupt();
+        senders.shutdownNow();
+    }
+
+    int viewers() {
+        return viewers.get();
+    }
+
+    /**
+     * Copy The Batch Into The Ring. While Nobody Watches Nothing Is Copied, The Lines Only Take Their Sequences,
+     * So A Viewer Resuming Across That Gap Gets It Counted As Skipped
+     */
+    void publish(List<LookLogAppender.LogDto> logDtos) {
+
+        if (logDtos.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+
+            if (viewers.get() == 0) {
+                published += logDtos.size();
+                return;
+            }
+
+            long sequence = published;
+
+            for (LookLogAppender.LogDto logDto : logDtos) {
+                ring[(int) (sequence % ring.length)] = new Line(sequence, logDto.getCreateTime().getTime(),
+                        logDto.getLogLevel(), logDto.getTraceId(), logDto.getFormattedMessage());
+                sequence++;
+            }
+
+            published = sequence;
+        }
+
+        LockSupport.unpark(dispatcher);
+    }
+
+    /**
+     * @param lastEventId sequence of the last line the viewer got before reconnecting, null for a new viewer
+     * @return the emitter of the viewer, null if tailMaxClients viewers are already watching
+     */
+    SseEmitter subscribe(String traceId, String[] level, String keyword, String lastEventId) {
+
+        Filter filter = new Filter(traceId, level, keyword);
+
+        long resume = -1;
+        if (StringUtils.isNotBlank(lastEventId)) {
+            try {
+                resume = Long.parseLong(lastEventId.trim()) + 1;
+            } catch (NumberFormatException e) {
+                //Start Live
+            }
+        }
+
+        if (viewers.incrementAndGet() > lookLogConfig.getTailMaxClients()) {
+            viewers.decrementAndGet();
+            return null;
+        }
+
+        SseEmitter emitter = new SseEmitter(lookLogConfig.getTailTimeoutMillis());
+        final Viewer viewer = new Viewer(emitter, filter, resume);
+
+        Runnable close = new Runnable() {
+            @Override
+            public void run() {
+                viewer.close();
+            }
+        };
+        emitter.onCompletion(close);
+        emitter.onTimeout(close);
+
+        joining.add(viewer);
+        LockSupport.unpark(dispatcher);
+
+        return emitter;
+    }
+
+
+    private void dispatch() {
+
+        long next = published;
+        long heartbeat = System.currentTimeMillis() + HEARTBEAT_MILLIS;
+        Set<Viewer> touched = new HashSet<>();
+
+        while (!Thread.currentThread().isInterrupted()) {
+
+            /**
+             * Nobody Was Watching, The Lines Meanwhile Were Not Copied And There Is Nothing To Walk
+             */
+            if (groups.isEmpty()) {
+                next = published;
+            }
+
+            /**
+             * New Viewers Start Where The Dispatcher Is, A Reconnected One Is First Caught Up From The Ring
+             */
+            Viewer viewer;
+            while ((viewer = joining.poll()) != null) {
+                join(viewer, next);
+                touched.add(viewer);
+            }
+
+            long end = published;
+
+            while (next < end) {
+
+                Line line = ring[(int) (next % ring.length)];
+
+                /**
+                 * Ingest Lapped The Dispatcher, Skip Ahead To The Oldest Line Still In The Ring
+                 */
+                if (line == null || line.sequence != next) {
+                    long oldest = Math.max(next + 1, published - ring.length + 1);
+                    for (Group group : groups.values()) {
+                        for (Viewer member : group.viewers) {
+                            member.skipped.addAndGet(oldest - next);
+                            touched.add(member);
+                        }
+                    }
+                    next = oldest;
+                    continue;
+                }
+
+                for (Group group : groups.values()) {
+                    if (group.filter.matches(line)) {
+                        for (Viewer member : group.viewers) {
+                            member.offer(line);
+                            touched.add(member);
+                        }
+                    }
+                }
+
+                next++;
+            }
+
+            if (System.currentTimeMillis() >= heartbeat) {
+                for (Group group : groups.values()) {
+                    for (Viewer member : group.viewers) {
+                        member.beat();
+                        touched.add(member);
+                    }
+                }
+                heartbeat = System.currentTimeMillis() + HEARTBEAT_MILLIS;
+            }
+
+            for (Viewer member : touched) {
+                member.schedule();
+            }
+            touched.clear();
+
+            leave();
+
+            if (published == next && joining.isEmpty()) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_MILLIS));
+            }
+        }
+    }
+
+    private void join(Viewer viewer, long next) {
+
+        if (viewer.closed.get()) {
+            return;
+        }
+
+        if (viewer.resume >= 0 && viewer.resume < next) {
+
+            long from = viewer.resume;
+            long oldest = Math.max(0, published - ring.length + 1);
+
+            if (from < oldest) {
+                viewer.skipped.addAndGet(oldest - from);
+                from = oldest;
+            }
+
+            for (long sequence = from; sequence < next; sequence++) {
+                Line line = ring[(int) (sequence % ring.length)];
+                if (line == null || line.sequence != sequence) {
+                    viewer.skipped.incrementAndGet();
+                } else if (viewer.filter.matches(line)) {
+                    viewer.offer(line);
+                }
+            }
+        }
+
+        Group group = groups.get(viewer.filter.key);
+        if (group == null) {
+            group = new Group(viewer.filter);
+            groups.put(viewer.filter.key, group);
+        }
+        group.viewers.add(viewer);
+    }
+
+    /**
+     * Drop Closed Viewers, And Groups Nobody Watches Any More
+     */
+    private void leave() {
+
+        Iterator<Group> groupIterator = groups.values().iterator();
+
+        while (groupIterator.hasNext()) {
+
+            Group group = groupIterator.next();
+
+            Iterator<Viewer> viewerIterator = group.viewers.iterator();
+            while (viewerIterator.hasNext()) {
+                if (viewerIterator.next().closed.get()) {
+                    viewerIterator.remove();
+                }
+            }
+
+            if (group.viewers.isEmpty()) {
+                groupIterator.remove();
+            }
+        }
+    }
+
+
+    private static final class Line {
+
+        final long sequence;
+
+        final long time;
+
+        final String level;
+
+        final String traceId;
+
+        final String message;
+
+        /**
+         * The Event Data, Written Once However Many Viewers Get The Line
+         */
+        private volatile String json;
+
+        Line(long sequence, long time, String level, String traceId, String message) {
+            this.sequence = sequence;
+            this.time = time;
+            this.level = level;
+            this.traceId = traceId;
+            this.message = message;
+        }
+
+        String json() throws IOException {
+
+            String value = json;
+
+            if (value == null) {
+
+                StringWriter writer = new StringWriter(message == null ? 64 : message.length() + 64);
+
+                try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+                    generator.writeStartObject();
+                    generator.writeNumberField("time", time);
+                    if (level != null) {
+                        generator.writeStringField("level", level);
+                    }
+                    if (traceId != null) {
+                        generator.writeStringField("traceId", traceId);
+                    }
+                    generator.writeStringField("message", message == null ? "" : message);
+                    generator.writeEndObject();
+                }
+
+                value = writer.toString();
+                json = value;
+            }
+
+            return value;
+        }
+    }
+
+
+    /**
+     * The traceId, level And keyword Conditions Of The Query Page, TraceIds Are Matched As lookLog.traceIdMatch Says
+     */
+    private final class Filter {
+
+        final String key;
+
+        final String traceId;
+
+        final Set<String> levels;
+
+        final Pattern pattern;
+
+        Filter(String traceId, String[] level, String keyword) {
+
+            this.traceId = StringUtils.isBlank(traceId) ? null : traceId.trim();
+            this.pattern = StringUtils.isBlank(keyword) ? null : Pattern.compile(keyword);
+
+            Set<String> names = null;
+            if (level != null && level.length > 0) {
+                names = new TreeSet<>();
+                for (String name : level) {
+                    names.add(name.trim().toUpperCase());
+                }
+            }
+            this.levels = names;
+
+            this.key = this.traceId + "\u0000" + names + "\u0000" + (pattern == null ? null : keyword);
+        }
+
+        boolean matches(Line line) {
+
+            if (levels != null && (line.level == null || !levels.contains(line.level))) {
+                return false;
+            }
+
+            if (traceId != null && !lookLogConfig.getTraceIdMatch().matches(line.traceId, traceId)) {
+                return false;
+            }
+
+            return pattern == null || (line.message != null && pattern.matcher(line.message).find());
+        }
+    }
+
+
+    private static final class Group {
+
+        final Filter filter;
+
+        final List<Viewer> viewers = new ArrayList<>();
+
+        Group(Filter filter) {
+            this.filter = filter;
+        }
+    }
+
+
+    private final class Viewer implements Runnable {
+
+        final SseEmitter emitter;
+
+        final Filter filter;
+
+        /**
+         * First Sequence To Replay From The Ring, -1 To Start Live
+         */
+        final long resume;
+
+        final BlockingQueue<Line> queue;
+
+        final AtomicLong skipped = new AtomicLong();
+
+        /**
+         * Events Sent So Far, And As Of The Last Heartbeat
+         */
+        final AtomicLong sent = new AtomicLong();
+
+        long sentAtBeat;
+
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        final AtomicBoolean closed = new AtomicBoolean();
+
+        Viewer(SseEmitter emitter, Filter filter, long resume) {
+            this.emitter = emitter;
+            this.filter = filter;
+            this.resume = resume;
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, lookLogConfig.getTailClientQueueSize()));
+        }
+
+        /**
+         * A Full Queue Means The Client Can't Keep Up, The Line Is Skipped Rather Than Slowing Anyone Down
+         */
+        void offer(Line line) {
+            if (!closed.get() && !queue.offer(line)) {
+                skipped.incrementAndGet();
+            }
+        }
+
+        /**
+         * Disconnect A Viewer Whose Queue Stayed Full Without A Single Send Since The Last Heartbeat
+         */
+        void beat() {
+
+            long count = sent.get();
+
+            if (queue.remainingCapacity() == 0 && count == sentAtBeat) {
+                close();
+                return;
+            }
+
+            sentAtBeat = count;
+            queue.offer(HEARTBEAT);
+        }
+
+        void schedule() {
+            if (!closed.get() && (!queue.isEmpty() || skipped.get() > 0) && scheduled.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this);
+                } catch (RejectedExecutionException e) {
+                    close();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+
+                do {
+
+                    long skip = skipped.getAndSet(0);
+                    if (skip > 0) {
+                        emitter.send(SseEmitter.event().name("skipped").data(String.valueOf(skip)));
+                    }
+
+                    Line line;
+                    while (!closed.get() && (line = queue.poll()) != null) {
+                        if (line == HEARTBEAT) {
+                            emitter.send(SseEmitter.event().comment("heartbeat"));
+                        } else {
+                            emitter.send(SseEmitter.event().id(String.valueOf(line.sequence)).data(line.json()));
+                        }
+                        sent.incrementAndGet();
+                    }
+
+                    scheduled.set(false);
+
+                } while (!closed.get() && (!queue.isEmpty() || skipped.get() > 0) && scheduled.compareAndSet(false, true));
+
+            } catch (Exception e) {
+
+                /**
+                 * The Client Went Away
+                 */
+                close();
+
+            }
+        }
+
+        void close() {
+
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+
+            viewers.decrementAndGet();
+            queue.clear();
+
+            /**
+             * The Emitter Is Locked While A Send Blocks On The Socket, So It Is Completed Off The Dispatcher
+             */
+            try {
+                senders.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            emitter.complete();
+                        } catch (RuntimeException e) {
+                            //Ignore
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                //Ignore
+            }
+        }
+    }
+}
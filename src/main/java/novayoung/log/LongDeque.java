@@ -0,0 +1,108 @@
+package novayoung.log;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Growable Circular Deque Of Primitive Longs, Used As Posting List Of Record Offsets
+ *
+ */
+class LongDeque {
+
+    private long[] elements;
+
+    private int head;
+
+    private int size;
+
+    LongDeque() {
+        this(8);
+    }
+
+    LongDeque(int initialCapacity) {
+        elements = new long[Math.max(2, initialCapacity)];
+    }
+
+    void addLast(long value) {
+        if (size == elements.length) {
+            grow();
+        }
+        elements[(head + size) % elements.length] = value;
+        size++;
+    }
+
+    long pollFirst() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        long value = elements[head];
+        head = (head + 1) % elements.length;
+        size--;
+        return value;
+    }
+
+    long first() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return elements[head];
+    }
+
+    long last() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return elements[(head + size - 1) % elements.length];
+    }
+
+    long get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return elements[(head + index) % elements.length];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Index Of The First Element Not Less Than The Value, The Deque Must Be Ascending
+     */
+    int lowerBound(long value) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (get(middle) < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    long[] toArray() {
+        long[] array = new long[size];
+        for (int i = 0; i < size; i++) {
+            array[i] = elements[(head + i) % elements.length];
+        }
+        return array;
+    }
+
+    private void grow() {
+        long[] grown = Arrays.copyOf(toArray(), elements.length * 2);
+        elements = grown;
+        head = 0;
+    }
+}
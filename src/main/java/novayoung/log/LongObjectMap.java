@@ -0,0 +1,152 @@
+package novayoung.log;
+
+import java.util.Arrays;
+
+/**
+ * Open Addressing Hash Map With Primitive Long Keys, No Boxing Of Keys And No Entry Objects
+ *
+ */
+class LongObjectMap<V> {
+
+    private long[] keys;
+
+    private Object[] values;
+
+    private int size;
+
+    private int mask;
+
+    LongObjectMap() {
+        this(16);
+    }
+
+    LongObjectMap(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(4, initialCapacity) - 1) << 1;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int index = indexOf(key);
+        return index < 0 ? null : (V) values[index];
+    }
+
+    void put(long key, V value) {
+
+        if (value == null) {
+            throw new IllegalArgumentException("Null Value");
+        }
+
+        if ((size + 1) * 4 > keys.length * 3) {
+            rehash(keys.length * 2);
+        }
+
+        int index = slot(key);
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+
+        V removed = (V) values[index];
+        values[index] = null;
+        size--;
+
+        /**
+         * Backward Shift The Following Entries, So Lookups Don't Need Tombstones !
+         */
+        int hole = index;
+        int next = (index + 1) & mask;
+        while (values[next] != null) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                values[next] = null;
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        return removed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Visit Every Entry, The Map Must Not Be Modified While Visiting
+     */
+    @SuppressWarnings("unchecked")
+    void forEach(Visitor<V> visitor) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                visitor.visit(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private int indexOf(long key) {
+        int index = slot(key);
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rehash(int capacity) {
+
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        size = 0;
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                put(oldKeys[i], (V) oldValues[i]);
+            }
+        }
+    }
+
+
+    interface Visitor<V> {
+
+        void visit(long key, V value);
+
+    }
+}
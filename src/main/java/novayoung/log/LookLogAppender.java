@@ -1,27 +1,39 @@
 package novayoung.log;
 
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.pattern.TargetLengthBasedClassNameAbbreviator;
 import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.CoreConstants;
 import ch.qos.logback.core.OutputStreamAppender;
 import com.mongodb.*;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.FastDateFormat;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.ApplicationContext;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Tuple;
+import redis.clients.util.SafeEncoder;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 /**
@@ -35,8 +47,29 @@ public class LookLogAppender extends OutputStreamAppender<ILoggingEvent> {
 
     private static ApplicationContext applicationContext;
 
+    private static volatile CacheLogHandler cacheLogHandler;
+
     public static void setApplicationContext(ApplicationContext applicationContext) {
         LookLogAppender.applicationContext = applicationContext;
+        LookLogAppender.cacheLogHandler = null;
+    }
+
+
+    /**
+     * Lookup The Handler Once, Then Reuse It On Every Write
+     *
+     * @return CacheLogHandler, null if spring is not initialized
+     */
+    private static CacheLogHandler cacheLogHandler() {
+
+        CacheLogHandler handler = cacheLogHandler;
+
+        if (handler == null && applicationContext != null) {
+            handler = applicationContext.getBean(CacheLogHandler.class);
+            cacheLogHandler = handler;
+        }
+
+        return handler;
     }
 
     @Override
@@ -56,18 +89,9 @@ public class LookLogAppender extends OutputStreamAppender<ILoggingEvent> {
 
 
                 /**
-                 * If Spring Is Not Initialized, Do Nothing !
-                 *
-                 */
-                if (applicationContext == null) {
-                    return;
-                }
-
-
-                /**
-                 * If Handler Is Not Found In Spring Beans, Do Nothing !
+                 * If Spring Is Not Initialized Or Handler Is Not Found, Do Nothing !
                  */
-                CacheLogHandler cacheLogHandler = applicationContext.getBean(CacheLogHandler.class);
+                CacheLogHandler cacheLogHandler = cacheLogHandler();
                 if (cacheLogHandler == null || !cacheLogHandler.lookLogConfig.isEnable()) {
                     return;
                 }
@@ -85,6 +109,28 @@ public class LookLogAppender extends OutputStreamAppender<ILoggingEvent> {
     }
 
 
+    /**
+     * In Structured Capture Mode, Build The LogDto From The Event Directly,
+     * Without Encoding, Decoding And Splitting The Formatted Message.
+     */
+    @Override
+    protected void subAppend(ILoggingEvent event) {
+
+        CacheLogHandler cacheLogHandler = cacheLogHandler();
+
+        if (cacheLogHandler == null || !cacheLogHandler.lookLogConfig.isStructuredCapture()) {
+            super.subAppend(event);
+            return;
+        }
+
+        if (!isStarted() || !cacheLogHandler.lookLogConfig.isEnable()) {
+            return;
+        }
+
+        cacheLogHandler.handle(event);
+    }
+
+
     /**
      * Parse The Log Message To LogDto
      *
@@ -114,10 +160,14 @@ public class LookLogAppender extends OutputStreamAppender<ILoggingEvent> {
     }
 
 
-    private static class LogDto implements Serializable {
+    static class LogDto implements Serializable {
 
         private static final long serialVersionUID = 1703639553933543532L;
 
+        private static final FastDateFormat TIME_FORMAT = FastDateFormat.getInstance("yyyy-MM-dd HH:mm:ss.SSS");
+
+        private static final TargetLengthBasedClassNameAbbreviator LOGGER_ABBREVIATOR = new TargetLengthBasedClassNameAbbreviator(36);
+
         private String formattedMessage;
 
         private String traceId;
@@ -136,8 +186,109 @@ public class LookLogAppender extends OutputStreamAppender<ILoggingEvent> {
 
         private Date createTime = new Date();
 
+        /**
+         * Epoch Millis Of The Event, Only Set In Structured Capture Mode Or When Restored From Parts
+         */
+        private transient long timestamp;
+
+        private transient IThrowableProxy throwableProxy;
+
+
+        /**
+         * Copy The Fields Out Of The Event, This Runs On The Logging Thread,
+         * So Formatting Of The Display Line Is Deferred To {@link #getFormattedMessage()}.
+         */
+        void capture(ILoggingEvent event) {
+
+            StackTraceElement[] callerData = event.getCallerData();
+
+            this.timestamp = event.getTimeStamp();
+            this.thread = event.getThreadName();
+            this.traceId = event.getMDCPropertyMap().get(TraceIdUtil.TRACE_ID);
+            this.logLevel = event.getLevel().toString();
+            this.loggerName = event.getLoggerName();
+            this.line = callerData != null && callerData.length > 0 ? String.valueOf(callerData[0].getLineNumber()) : "?";
+            this.message = event.getFormattedMessage();
+            this.throwableProxy = event.getThrowableProxy();
+            this.createTime = new Date(timestamp);
+            this.time = null;
+            this.formattedMessage = null;
+        }
+
+
+        /**
+         * Copy All Fields From Another Log, Used To Fill A Reusable Slot
+         */
+        void copyFrom(LogDto other) {
+            this.formattedMessage = other.formattedMessage;
+            this.traceId = other.traceId;
+            this.time = other.time;
+            this.thread = other.thread;
+            this.logLevel = other.logLevel;
+            this.loggerName = other.loggerName;
+            this.line = other.line;
+            this.message = other.message;
+            this.createTime = other.createTime;
+            this.timestamp = other.timestamp;
+            this.throwableProxy = other.throwableProxy;
+        }
+
+
+        /**
+         * Restore A Log Stored By Its Parts, The Display Line Is Formatted Again Lazily
+         */
+        void restore(long timestamp, String traceId, String thread, String logLevel, String loggerName, String line, String message) {
+            this.timestamp = timestamp;
+            this.traceId = traceId;
+            this.thread = thread;
+            this.logLevel = logLevel;
+            this.loggerName = loggerName;
+            this.line = line;
+            this.message = message;
+            this.throwableProxy = null;
+            this.createTime = new Date(timestamp);
+            this.time = null;
+            this.formattedMessage = null;
+        }
+
+
+        /**
+         * The Display Line As Parsed From The looklog.xml Pattern, Its Parts Joined By Spaces
+         */
+        static String join(String time, String thread, String traceId, String logLevel, String loggerName, String line, String message) {
+            return time + ' ' + thread + ' ' + traceId + ' ' + StringUtils.rightPad(logLevel, 5) + ' ' + loggerName + ' ' + line + " - " + message;
+        }
+
+
+        /**
+         * Format The Display Line Lazily, Same Layout As The Pattern In looklog.xml
+         */
+        private void format() {
+
+            if (throwableProxy != null) {
+                message = message + CoreConstants.LINE_SEPARATOR + ThrowableProxyUtil.asString(throwableProxy);
+                throwableProxy = null;
+            }
+
+            time = TIME_FORMAT.format(timestamp);
+
+            StringBuilder builder = new StringBuilder(128 + (message == null ? 0 : message.length()));
+            builder.append(time).append(' ')
+                    .append(thread).append(' ')
+                    .append(traceId == null ? "" : traceId).append(' ')
+                    .append(StringUtils.rightPad(logLevel, 5)).append(' ')
+                    .append(LOGGER_ABBREVIATOR.abbreviate(loggerName)).append(' ')
+                    .append(line).append(" - ")
+                    .append(message).append(CoreConstants.LINE_SEPARATOR);
+
+            formattedMessage = builder.toString();
+        }
+
 
         String getFormattedMessage() {
+            if (formattedMessage == null && timestamp > 0) {
+                format();
+            }
             return formattedMessage;
         }
 
@@ -145,6 +296,13 @@ public class LookLogAppender extends OutputStreamAppender<ILoggingEvent> {
             this.formattedMessage = formattedMessage;
         }
 
+        /**
+         * Epoch Millis Of The Event, 0 Unless The Display Line Is Formatted From The Parts
+         */
+        long getTimestamp() {
+            return timestamp;
+        }
+
         String getTraceId() {
             return traceId;
         }
@@ -155,6 +313,9 @@ public class LookLogAppender extends OutputStreamAppender<ILoggingEvent> {
 
         @SuppressWarnings("unused")
 		public String getTime() {
+            if (time == null && timestamp > 0) {
+                format();
+            }
             return time;
         }
 
@@ -223,20 +384,61 @@ public class LookLogAppender extends OutputStreamAppender<ILoggingEvent> {
     @Component
     public static class CacheLogHandler {
 
-        private BlockingQueue<LogDto> queue;
+        /**
+         * One Buffer Per Consumer Worker, Sharded By TraceId
+         */
+        private LogBuffer[] buffers;
+
+        @Autowired
+        private DroppedLogCounter droppedLogCounter;
+
+        private CircuitBreaker circuitBreaker;
+
+        /**
+         * One Spill File Per Worker, Null If Spilling Is Off
+         */
+        private LogSpillFile[] spills;
+
+        /**
+         * Live Tail Fed By The Workers, Started With The Handler Whether Or Not Anyone Watches, Null Only If LookLog Is Disabled
+         */
+        private LogTail logTail;
+
+        /**
+         * Results Of Recent Queries, Null If Disabled
+         */
+        private LogQueryCache queryCache;
+
+        /**
+         * Caps And Time Budget Of Queries Reaching The Store
+         */
+        private LogQueryGovernor queryGovernor;
 
         @Autowired
         private LookLogConfig lookLogConfig;
 
 
         @Autowired
-        @Qualifier("mongoDbCacheOperator")
+        private Map<String, CacheOperator> cacheOperators;
+
         private CacheOperator cacheOperator;
 
 
         @PostConstruct
         public void init() {
 
+            /**
+             * Choose The CacheOperator By Bean Name !
+             */
+            cacheOperator = cacheOperators.get(lookLogConfig.getCacheOperator());
+            if (cacheOperator == null) {
+                if (lookLogConfig.isEnable()) {
+                    throw new IllegalStateException("Unknown CacheOperator : " + lookLogConfig.getCacheOperator());
+                }
+                return;
+            }
+
+
             /**
              * If UnEnable, Do Nothing !
              */
@@ -246,9 +448,39 @@ public class LookLogAppender extends OutputStreamAppender<ILoggingEvent> {
 
 
             /**
-             * Initialize Buffer Queue
+             * Initialize Buffers, The Queue Size Is Shared By All Workers
+             */
+            int workers = Math.max(1, lookLogConfig.getConsumerThreads());
+            int capacity = Math.max(1, lookLogConfig.getQueueSize() / workers);
+
+            buffers = new LogBuffer[workers];
+            for (int i = 0; i < workers; i++) {
+                if (lookLogConfig.getBufferType() == LogBuffer.Type.RING_BUFFER) {
+                    buffers[i] = new LogRingBuffer(capacity, lookLogConfig.getRingBufferWaitStrategy());
+                } else {
+                    buffers[i] = new QueueLogBuffer(capacity);
+                }
+            }
+
+
+            /**
+             * Initialize Circuit Breaker And Spill Files, One Spill File Per Worker To Keep The Order
              */
-            queue = new LinkedBlockingQueue<>(lookLogConfig.getQueueSize());
+            circuitBreaker = new CircuitBreaker(
+                    lookLogConfig.getCircuitBreakerFailureThreshold(),
+                    lookLogConfig.getCircuitBreakerOpenMillis());
+
+            if (StringUtils.isNotBlank(lookLogConfig.getSpillDirectory())) {
+                spills = new LogSpillFile[workers];
+                for (int i = 0; i < workers; i++) {
+                    File file = new File(lookLogConfig.getSpillDirectory(), "looklog-spill-" + i + ".dat");
+                    try {
+                        spills[i] = new LogSpillFile(file, (int) Math.min(Integer.MAX_VALUE, lookLogConfig.getSpillMaxBytes() / workers));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e.getMessage(), e);
+                    }
+                }
+            }
 
 
             /**
@@ -258,32 +490,72 @@ public class LookLogAppender extends OutputStreamAppender<ILoggingEvent> {
 
 
             /**
-             * Start A Thread To Listen Buffer Queue
+             * Start The Live Tail Dispatcher
+             */
+            logTail = new LogTail(lookLogConfig);
+            logTail.start();
+
+
+            /**
+             * Initialize Query Governor And Cache, Cache Hits Don't Count Against The Governor
+             */
+            queryGovernor = new LogQueryGovernor(lookLogConfig, cacheOperator);
+
+            if (lookLogConfig.getQueryCacheEntries() > 0 && lookLogConfig.getQueryCacheSeconds() > 0) {
+                queryCache = new LogQueryCache(lookLogConfig,
+                        !(cacheOperator instanceof EmbeddedCacheOperator || cacheOperator instanceof SegmentCacheOperator));
+            }
+
+
+            /**
+             * Start A Thread To Listen Each Buffer
+             */
+            for (int i = 0; i < buffers.length; i++) {
+                listeningQueue(i);
+            }
+
+
+            /**
+             * Start A Thread To Replay Spill Files When Cache Recovers
              */
-            listeningQueue();
+            if (spills != null) {
+                replayingSpills();
+            }
         }
 
         private boolean disable() {
-            return !lookLogConfig.isEnable() || !cacheOperator.enable();
+            return !lookLogConfig.isEnable() || cacheOperator == null || !cacheOperator.enable();
         }
 
 
         @PreDestroy
         public void destroy() {
+            if (logTail != null) {
+                logTail.close();
+            }
+            if (spills != null) {
+                for (LogSpillFile spill : spills) {
+                    spill.force();
+                }
+            }
             if (cacheOperator != null) {
                 cacheOperator.destroy();
             }
         }
 
 
-        private void listeningQueue() {
+        private void listeningQueue(final int shard) {
 
             if (cacheOperator == null ) {
                 return;
             }
 
+            final LogBuffer buffer = buffers[shard];
+
             Thread thread = new Thread(){
 
+                private final List<LogDto> batch = new ArrayList<>(lookLogConfig.getBatchSize());
+
                 @Override
                 public void run() {
 
@@ -293,9 +565,11 @@ public class LookLogAppender extends OutputStreamAppender<ILoggingEvent> {
                         try {
 
                             /**
-                             * Receive Log Message, Put Into Cache !
+                             * Receive Log Messages, Put Into Cache By Batch !
                              */
-                            writeLog(queue.take());
+                            drain(buffer, batch);
+                            logTail.publish(batch);
+                            writeLogs(shard, batch);
 
                         } catch (InterruptedException e) {
 
@@ -311,6 +585,11 @@ public class LookLogAppender extends OutputStreamAppender<ILoggingEvent> {
                                 Thread.currentThread().interrupt();
                             }
 
+                        } finally {
+
+                            batch.clear();
+                            buffer.release();
+
                         }
 
                     }
@@ -318,7 +597,7 @@ public class LookLogAppender extends OutputStreamAppender<ILoggingEvent> {
                 }
             };
 
-            thread.setName("LookLogAppender-Listen");
+            thread.setName("LookLogAppender-Listen-" + shard);
 
             thread.start();
 
@@ -343,325 +622,2110 @@ public class LookLogAppender extends OutputStreamAppender<ILoggingEvent> {
             return cacheOperator.getLogs(conditions, order, limit);
         }
 
-        private void writeLog(LogDto logDto) {
-
-            if (StringUtils.isBlank(logDto.getFormattedMessage()) ||
-                    cacheOperator == null || disable()) {
-                return;
+        String visitLogs(Map<String, Object> conditions, Integer order, Integer limit, LogLineVisitor visitor) {
+            if (cacheOperator == null || disable()) {
+                return null;
             }
 
-            cacheOperator.putLog(logDto);
+            if (queryCache != null) {
+                return queryCache.visitLogs(queryGovernor, conditions, order, limit, buffered() == 0 && spilled() == 0, visitor);
+            }
 
+            return queryGovernor.visitLogs(conditions, order, limit, visitor);
         }
 
-        private void handle(LogDto logDto) {
-
-
-            /**
-             * If UnEnable, Do Nothing !
-             */
-            if (disable()) {
-                return;
-            }
-
-            if (logDto == null) {
-                return;
+        /**
+         * Watch Lines As They Are Ingested, Null If Disabled Or lookLog.tailMaxClients Viewers Are Already Watching
+         */
+        SseEmitter tail(String traceId, String[] level, String keyword, String lastEventId) {
+            if (logTail == null || disable()) {
+                return null;
             }
 
-
-            /**
-             * Put Log Message Into Queue, If Queue Is Full, Do Nothing !
-             */
-            queue.offer(logDto);
-
+            return logTail.subscribe(traceId, level, keyword, lastEventId);
         }
 
-    }
+        /**
+         * Block Until One Log Arrives, Then Keep Draining Until The Batch Is Full By
+         * Count Or By Bytes, Or The Linger Time Since The First Log Is Over.
+         */
+        private void drain(LogBuffer buffer, List<LogDto> batch) throws InterruptedException {
 
+            int batchSize = lookLogConfig.getBatchSize();
+            long batchMaxBytes = lookLogConfig.getBatchMaxBytes();
+            long bytes = 0;
 
-    interface CacheOperator {
+            LogDto logDto = buffer.take();
 
-        void init();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lookLogConfig.getBatchLingerMillis());
 
-        boolean enable();
+            while (logDto != null) {
 
-        void putLog(LogDto logDto);
+                String formattedMessage = logDto.getFormattedMessage();
 
-        List<String> getLogs(String traceId);
+                if (StringUtils.isNotBlank(formattedMessage)) {
+                    batch.add(logDto);
+                    bytes += formattedMessage.length();
+                }
 
-        List<String> getLogs(Map<String, Object> conditions, Integer order, Integer limit);
+                if (batch.size() >= batchSize || bytes >= batchMaxBytes) {
+                    return;
+                }
 
-        void destroy();
+                logDto = buffer.poll();
 
-    }
+                if (logDto == null) {
 
-    @Component("redisCacheOperator")
-    public static class RedisCacheOperator implements CacheOperator {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return;
+                    }
 
-        @Autowired
-        private LookLogConfig lookLogConfig;
+                    logDto = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                }
+            }
 
-        private JedisPool jedisPool;
+        }
 
-        @Override
-        public void init() {
+        private void writeLogs(int shard, List<LogDto> logDtos) {
 
-            if (StringUtils.isBlank(lookLogConfig.getRedisHost())) {
+            if (logDtos.isEmpty() || cacheOperator == null || disable()) {
                 return;
             }
 
-            /**
-             * Build JedisPool !
-             */
-            JedisPoolConfig jedisPoolConfig = new JedisPoolConfig();
-            jedisPoolConfig.setMaxTotal(lookLogConfig.getRedisPoolMaxActive());
-            jedisPoolConfig.setMaxIdle(lookLogConfig.getRedisPoolMaxIdle());
-            jedisPoolConfig.setMinIdle(lookLogConfig.getRedisPoolMinIdle());
-            jedisPoolConfig.setMaxWaitMillis(lookLogConfig.getRedisPoolMaxWait());
+            LogSpillFile spill = spills == null ? null : spills[shard];
 
-            if (StringUtils.isBlank(lookLogConfig.getRedisPassword())) {
-                jedisPool = new JedisPool(
-                        jedisPoolConfig,
-                        lookLogConfig.getRedisHost(),
-                        lookLogConfig.getRedisPort(),
-                        lookLogConfig.getRedisTimeout());
 
-            } else {
-                jedisPool = new JedisPool(
-                        jedisPoolConfig,
-                        lookLogConfig.getRedisHost(),
-                        lookLogConfig.getRedisPort(),
-                        lookLogConfig.getRedisTimeout(),
-                        lookLogConfig.getRedisPassword());
+            /**
+             * Spilled Logs Are Not Replayed Yet, Queue Up Behind Them To Keep The Order !
+             */
+            if (spill != null && !spill.isEmpty()) {
+                spill(spill, logDtos);
+                return;
             }
 
 
-
             /**
-             * Test Jedis Connection !
+             * Cache Is Down, Don't Wait For It !
              */
-            Jedis jedis = null;
-            try {
-                jedis = jedisPool.getResource();
-                String key = "lookLogApender#OnlyTestKey123";
-                jedis.set(key, "1");
-                jedis.del(key);
-            } finally {
-                if (jedis != null) {
-                    jedis.close();
-                }
+            if (!circuitBreaker.allowRequest()) {
+                spill(spill, logDtos);
+                return;
             }
 
-        }
-
-        @Override
-        public boolean enable() {
-            return StringUtils.isNotBlank(lookLogConfig.getRedisHost());
-        }
-
-        @Override
-        public void putLog(LogDto logDto) {
-
-            Jedis jedis = null;
             try {
 
-                jedis = jedisPool.getResource();
-
-                String key = lookLogConfig.getKeyPrefix() + logDto.getTraceId();
+                cacheOperator.putLogs(logDtos);
+                circuitBreaker.onSuccess();
+                written(logDtos);
 
-                Long len = jedis.rpush(key, logDto.getFormattedMessage());
+            } catch (RuntimeException e) {
 
-                if (len == 1L && lookLogConfig.getCachedSecond() != null && lookLogConfig.getCachedSecond().intValue() > 0) {
-                    jedis.expire(key, lookLogConfig.getCachedSecond().intValue());
-                }
-            } finally {
-                if (jedis != null) {
-                    jedis.close();
+                if (circuitBreaker.onFailure()) {
+                    e.printStackTrace();
                 }
-            }
-        }
 
-        @Override
-        public List<String> getLogs(String traceId) {
-            Jedis jedis = null;
+                spill(spill, logDtos);
 
-            try {
+            }
 
-                jedis = jedisPool.getResource();
+        }
 
-                String key = lookLogConfig.getKeyPrefix() + traceId;
 
-                Long len = jedis.llen(key);
+        /**
+         * Append Logs To The Spill File, Logs That Don't Fit Or Without Spill File Are Dropped
+         */
+        private void spill(LogSpillFile spill, List<LogDto> logDtos) {
 
-                if (len == null || len == 0) {
-                    return new ArrayList<>();
-                }
+            int spilled = spill == null ? 0 : spill.append(logDtos);
 
-                return jedis.lrange(key, 0, -1);
+            for (int i = spilled; i < logDtos.size(); i++) {
+                droppedLogCounter.increment(logDtos.get(i).getLogLevel());
+            }
+        }
 
-            } finally {
-                if (jedis != null) {
-                    jedis.close();
-                }
+
+        /**
+         * Move The Query Cache's Ingest Watermark Past Logs Now In The Store
+         */
+        private void written(List<LogDto> logDtos) {
+            if (queryCache != null) {
+                queryCache.written(logDtos);
             }
         }
 
-        @Override
-        public List<String> getLogs(Map<String, Object> conditions, Integer order, Integer limit) {
-            throw new UnsupportedOperationException();
+        private int buffered() {
+            int size = 0;
+            if (buffers != null) {
+                for (LogBuffer buffer : buffers) {
+                    size += buffer.size();
+                }
+            }
+            return size;
         }
 
-        @Override
-        public void destroy() {
-            if (jedisPool != null) {
-                jedisPool.destroy();
+        private long spilled() {
+            long spilledBytes = 0;
+            if (spills != null) {
+                for (LogSpillFile spill : spills) {
+                    spilledBytes += spill.getUsedBytes();
+                }
             }
+            return spilledBytes;
         }
-    }
 
-    @Component("mongoDbCacheOperator")
-    public static class MongoDbCacheOperator implements CacheOperator {
 
-        @Autowired
-        private LookLogConfig lookLogConfig;
+        private void replayingSpills() {
 
-        @Autowired
-        private MongoTemplate mongoTemplate;
+            Thread thread = new Thread(){
 
+                @Override
+                public void run() {
 
-        @Override
-        public void init() {
+                    //noinspection InfiniteLoopStatement
+                    while (true) {
 
-            DBCollection collection = mongoTemplate.getCollection(lookLogConfig.getMongoDbCollectionName());
+                        try {
 
-            if (lookLogConfig.getCachedSecond() != null && lookLogConfig.getCachedSecond() > 0) {
+                            boolean draining = false;
+                            for (LogSpillFile spill : spills) {
+                                draining |= replay(spill);
+                            }
 
-                List<DBObject> indexs = collection.getIndexInfo();
+                            /**
+                             * New Logs Queue Up Behind The Spill, So Once The Cache Is Back It's Drained Without Pause,
+                             * Or A Steady Load Above The Throttle Would Keep It From Ever Emptying.
+                             * Only Probing A Cache That Was Down Is Throttled !
+                             */
+                            if (!draining) {
+                                Thread.sleep(lookLogConfig.getSpillReplayIntervalMillis());
+                            }
 
-                String indexFiledName = "createTime";
-                String indexName = "createTime_expire";
+                        } catch (InterruptedException e) {
 
-                for (DBObject dbObject : indexs) {
-                    if (indexName.equals(dbObject.get("name"))) {
-                        return;
-                    }
-                }
+                            Thread.currentThread().interrupt();
+                            return;
 
-                BasicDBObject options = new BasicDBObject("name", indexName);
-                options.append("expireAfterSeconds", lookLogConfig.getCachedSecond());
+                        }
+
+                    }
+
+                }
+            };
+
+            thread.setName("LookLogAppender-Replay");
+            thread.setDaemon(true);
+
+            thread.start();
+
+        }
+
+        /**
+         * Replay One Batch Of The Spill
+         *
+         * @return true if the breaker was closed, the batch went through and more is spilled
+         */
+        private boolean replay(LogSpillFile spill) {
+
+            if (spill.isEmpty() || disable()) {
+                return false;
+            }
+
+            boolean closed = circuitBreaker.getState() == CircuitBreaker.State.CLOSED;
+
+            if (!circuitBreaker.allowRequest()) {
+                return false;
+            }
+
+            List<LogDto> logDtos = spill.peek(lookLogConfig.getSpillReplayBatchSize());
+
+            try {
+
+                if (!logDtos.isEmpty()) {
+                    cacheOperator.putLogs(logDtos);
+                    written(logDtos);
+                }
+
+                circuitBreaker.onSuccess();
+                spill.commit();
+
+                return closed && !spill.isEmpty();
+
+            } catch (RuntimeException e) {
+
+                if (circuitBreaker.onFailure()) {
+                    e.printStackTrace();
+                }
+
+                return false;
 
-                collection.createIndex(new BasicDBObject(indexFiledName, 1), options);
             }
         }
 
-        @Override
-        public boolean enable() {
-            return StringUtils.isNotBlank(lookLogConfig.getMongoDbCollectionName());
+        private void handle(LogDto logDto) {
+
+
+            /**
+             * If UnEnable, Do Nothing !
+             */
+            if (disable()) {
+                return;
+            }
+
+            if (logDto == null) {
+                return;
+            }
+
+
+            /**
+             * Put Log Message Into Buffer, If Buffer Is Full, Follow The Overflow Policy !
+             */
+            offer(shard(logDto.getTraceId(), logDto.getThread()), logDto, null, Level.toLevel(logDto.getLogLevel(), Level.INFO));
+
         }
 
-        @Override
-        public void putLog(LogDto logDto) {
+        private void handle(ILoggingEvent event) {
+
+            /**
+             * If UnEnable, Do Nothing !
+             */
+            if (disable()) {
+                return;
+            }
 
-            mongoTemplate.insert(logDto, lookLogConfig.getMongoDbCollectionName());
+
+            /**
+             * Capture Event Into Buffer, If Buffer Is Full, Follow The Overflow Policy !
+             */
+            offer(shard(event.getMDCPropertyMap().get(TraceIdUtil.TRACE_ID), event.getThreadName()), null, event, event.getLevel());
 
         }
 
-        @Override
-        public List<String> getLogs(String traceId) {
 
+        /**
+         * Offer Either The LogDto Or The Event Into Buffer, Count It As Dropped If There Is No Room
+         */
+        private void offer(LogBuffer buffer, LogDto logDto, ILoggingEvent event, Level level) {
+
+            boolean offered;
 
-            List<String> list = new ArrayList<>();
+            try {
+
+                switch (lookLogConfig.getOverflowPolicy()) {
 
-            DBCollection collection = mongoTemplate.getCollection(lookLogConfig.getMongoDbCollectionName());
+                    case DROP_OLDEST:
+                        offered = offer(buffer, logDto, event);
+                        for (int i = 0; !offered && i < 3; i++) {
+                            LogDto evicted = buffer.evictOldest();
+                            if (evicted == null) {
+                                break;
+                            }
+                            droppedLogCounter.increment(evicted.getLogLevel());
+                            offered = offer(buffer, logDto, event);
+                        }
+                        break;
+
+                    case SHED_LOWER_LEVELS:
+                        if (!level.isGreaterOrEqual(Level.WARN) &&
+                                buffer.size() >= buffer.capacity() * lookLogConfig.getOverflowShedRatio()) {
+                            offered = false;
+                        } else {
+                            offered = offer(buffer, logDto, event);
+                        }
+                        break;
+
+                    case BLOCK:
+                        long timeout = lookLogConfig.getOverflowBlockMillis();
+                        offered = logDto != null ?
+                                buffer.offer(logDto, timeout, TimeUnit.MILLISECONDS) :
+                                buffer.offer(event, timeout, TimeUnit.MILLISECONDS);
+                        break;
+
+                    default:
+                        offered = offer(buffer, logDto, event);
+                        break;
+                }
 
-            DBCursor dbCursor;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                offered = false;
+            }
 
-            if (StringUtils.isNotBlank(traceId)) {
+            if (!offered) {
+                droppedLogCounter.increment(level);
+            }
+        }
 
-                Pattern pattern = Pattern.compile("^.*" + traceId + ".*$", Pattern.CASE_INSENSITIVE);
+        private boolean offer(LogBuffer buffer, LogDto logDto, ILoggingEvent event) {
+            return logDto != null ? buffer.offer(logDto) : buffer.offer(event);
+        }
 
-                dbCursor = collection.find(new BasicDBObject("traceId", pattern));
 
-            } else {
+        /**
+         * Buffer And Drop Statistics
+         */
+        Map<String, Object> getStats() {
 
-                dbCursor = collection.find().sort(new BasicDBObject("createTime", -1));
+            Map<String, Object> stats = new LinkedHashMap<>();
 
+            int size = 0;
+            int capacity = 0;
+            if (buffers != null) {
+                for (LogBuffer buffer : buffers) {
+                    size += buffer.size();
+                    capacity += buffer.capacity();
+                }
             }
 
-            dbCursor = dbCursor.limit(lookLogConfig.getLookLogMaxLimit());
+            stats.put("overflowPolicy", lookLogConfig.getOverflowPolicy());
+            stats.put("buffered", size);
+            stats.put("capacity", capacity);
+            stats.put("circuitBreaker", circuitBreaker == null ? null : circuitBreaker.getState());
+            stats.put("spilledBytes", spilled());
+            stats.put("dropped", droppedLogCounter.snapshot());
+            stats.put("droppedTotal", droppedLogCounter.total());
+            stats.put("tailViewers", logTail == null ? 0 : logTail.viewers());
+            stats.put("queryCache", queryCache == null ? null : queryCache.getStats());
+            stats.put("queryGovernor", queryGovernor == null ? null : queryGovernor.getStats());
+            return stats;
+        }
+
 
-            while (dbCursor.hasNext()) {
-                DBObject dbObject = dbCursor.next();
-                list.add((String) dbObject.get("formattedMessage"));
+        /**
+         * Pick The Buffer By TraceId, So Logs Of One Trace Are Written In Order By One Worker.
+         * Logs Without TraceId Are Spread By Thread Name Instead.
+         */
+        private LogBuffer shard(String traceId, String thread) {
+
+            if (buffers.length == 1) {
+                return buffers[0];
             }
 
-            return list;
+            String key = StringUtils.isEmpty(traceId) ? thread : traceId;
+            int hash = key == null ? 0 : key.hashCode();
+            hash ^= hash >>> 16;
+
+            return buffers[(hash & Integer.MAX_VALUE) % buffers.length];
         }
 
+    }
+
+
+    /**
+     * A Condition Query, Run By A Store Or By Something In Front Of It
+     */
+    interface LogQuery {
+
+        /**
+         * Each Line Goes To The Visitor As It Is Read. The Condition "cursor" Continues From A Previous Page
+         *
+         * @return the cursor of the next page, null if the page isn't full
+         */
+        String visitLogs(Map<String, Object> conditions, Integer order, Integer limit, LogLineVisitor visitor);
+    }
+
+
+    interface CacheOperator extends LogQuery {
+
+        void init();
+
+        boolean enable();
+
+        void putLog(LogDto logDto);
+
+        /**
+         * Put A Batch Of Logs, Implementations Should Write Them In As Few Round Trips As Possible
+         */
+        void putLogs(List<LogDto> logDtos);
+
+        List<String> getLogs(String traceId);
+
+        List<String> getLogs(Map<String, Object> conditions, Integer order, Integer limit);
+
+        /**
+         * Same Query As getLogs, But Each Line Goes To The Visitor As It Is Read Instead Of Into A List.
+         * The Condition "cursor" Continues From A Previous Page, "deadline" (Epoch Millis) Is When The Store Should Give Up
+         *
+         * @return the cursor of the next page, null if the page isn't full
+         * @throws LogQueryGovernor.TimeBudgetException if the query ran past its deadline
+         */
         @Override
-        public List<String> getLogs(Map<String, Object> conditions, Integer order, Integer limit) {
+        String visitLogs(Map<String, Object> conditions, Integer order, Integer limit, LogLineVisitor visitor);
 
-            String keyword = (String) conditions.get("keyword");
-            String traceId = (String) conditions.get("traceId");
-            Date startTime = (Date) conditions.get("startTime");
-            Date endTime = (Date) conditions.get("endTime");
-            String[] level = (String[]) conditions.get("level");
+        void destroy();
+
+    }
+
+    /**
+     * Receives The Lines Of A Query One By One, A Field The Store Doesn't Keep Is Null (createTime -1)
+     */
+    interface LogLineVisitor {
 
-            List<String> list = new ArrayList<>();
+        /**
+         * @return false to stop the query
+         */
+        boolean visit(long createTime, String level, String traceId, String message);
+    }
 
-            DBCollection collection = mongoTemplate.getCollection(lookLogConfig.getMongoDbCollectionName());
+    /**
+     * Collects The Display Lines, What getLogs Returns
+     */
+    static class LogLineList implements LogLineVisitor {
 
+        final List<String> lines = new ArrayList<>();
 
-            BasicDBObject basicDBObject = new BasicDBObject();
+        @Override
+        public boolean visit(long createTime, String level, String traceId, String message) {
+            lines.add(message);
+            return true;
+        }
+    }
 
-            if (StringUtils.isNotBlank(traceId)) {
-                basicDBObject.append("traceId", Pattern.compile(traceId));
+    @Component("redisCacheOperator")
+    public static class RedisCacheOperator implements CacheOperator {
+
+        /**
+         * List Values Read Per LRANGE When Walking A Trace, Each Value Holds One Batch Of Lines
+         */
+        private static final int TRACE_READ_CHUNK = 100;
+
+        @Autowired
+        private LookLogConfig lookLogConfig;
+
+        private JedisPool jedisPool;
+
+        /**
+         * Null Unless The STREAM Layout Is Used
+         */
+        private RedisLogStream stream;
+
+        @Override
+        public void init() {
+
+            if (StringUtils.isBlank(lookLogConfig.getRedisHost())) {
+                return;
             }
 
-            if (StringUtils.isNotBlank(keyword)) {
-                basicDBObject.append("formattedMessage", Pattern.compile(keyword));
+            /**
+             * Build JedisPool !
+             */
+            JedisPoolConfig jedisPoolConfig = new JedisPoolConfig();
+            jedisPoolConfig.setMaxTotal(lookLogConfig.getRedisPoolMaxActive());
+            jedisPoolConfig.setMaxIdle(lookLogConfig.getRedisPoolMaxIdle());
+            jedisPoolConfig.setMinIdle(lookLogConfig.getRedisPoolMinIdle());
+            jedisPoolConfig.setMaxWaitMillis(lookLogConfig.getRedisPoolMaxWait());
+
+            if (StringUtils.isBlank(lookLogConfig.getRedisPassword())) {
+                jedisPool = new JedisPool(
+                        jedisPoolConfig,
+                        lookLogConfig.getRedisHost(),
+                        lookLogConfig.getRedisPort(),
+                        lookLogConfig.getRedisTimeout());
+
+            } else {
+                jedisPool = new JedisPool(
+                        jedisPoolConfig,
+                        lookLogConfig.getRedisHost(),
+                        lookLogConfig.getRedisPort(),
+                        lookLogConfig.getRedisTimeout(),
+                        lookLogConfig.getRedisPassword());
             }
 
-            String createTimeFiledName = "createTime";
 
-            if (startTime != null) {
-                basicDBObject.append(createTimeFiledName, new BasicDBObject(QueryOperators.GTE, startTime));
+
+            /**
+             * Test Jedis Connection !
+             */
+            Jedis jedis = null;
+            try {
+                jedis = jedisPool.getResource();
+                String key = "lookLogApender#OnlyTestKey123";
+                jedis.set(key, "1");
+                jedis.del(key);
+
+                if (lookLogConfig.getRedisLayout() == RedisLayout.STREAM) {
+                    stream = new RedisLogStream(lookLogConfig);
+                    stream.init(jedis);
+                }
+            } finally {
+                if (jedis != null) {
+                    jedis.close();
+                }
             }
 
-            if (endTime != null) {
-                basicDBObject.append(createTimeFiledName, new BasicDBObject(QueryOperators.LTE, endTime));
+        }
+
+        @Override
+        public boolean enable() {
+            return StringUtils.isNotBlank(lookLogConfig.getRedisHost());
+        }
+
+        @Override
+        public void putLog(LogDto logDto) {
+
+            putLogs(Collections.singletonList(logDto));
+
+        }
+
+        @Override
+        public void putLogs(List<LogDto> logDtos) {
+
+            if (stream != null) {
+                Jedis jedis = null;
+                try {
+                    jedis = jedisPool.getResource();
+                    stream.append(jedis, logDtos);
+                } finally {
+                    if (jedis != null) {
+                        jedis.close();
+                    }
+                }
+                return;
             }
 
-            if (level != null && level.length > 0) {
-                BasicDBList values = new BasicDBList();
-                values.addAll(Arrays.asList(level));
-                basicDBObject.append("logLevel", new BasicDBObject(QueryOperators.IN, values));
+            /**
+             * Group By TraceId Key, Keep The Order Of Logs In Each Key !
+             */
+            Map<String, List<LogDto>> groups = new LinkedHashMap<>();
+
+            for (LogDto logDto : logDtos) {
+                String key = lookLogConfig.getKeyPrefix() + logDto.getTraceId();
+                List<LogDto> values = groups.get(key);
+                if (values == null) {
+                    values = new ArrayList<>();
+                    groups.put(key, values);
+                }
+                values.add(logDto);
             }
 
+            boolean expire = lookLogConfig.getCachedSecond() != null && lookLogConfig.getCachedSecond().intValue() > 0;
 
-            DBCursor dbCursor;
+            Jedis jedis = null;
+            try {
 
-            if (basicDBObject.isEmpty()) {
-                dbCursor = collection.find().sort(new BasicDBObject("createTime", order));
-            } else {
-                dbCursor = collection.find(basicDBObject).sort(new BasicDBObject("createTime", order));
+                jedis = jedisPool.getResource();
+
+                /**
+                 * Traces Over The Cap Take No More Lines, Only The Count In Their Marker Line Changes !
+                 */
+                Map<String, Long> truncated = lookLogConfig.getRedisTraceMaxLines() > 0
+                        ? cap(jedis, groups, expire) : Collections.<String, Long>emptyMap();
+
+                /**
+                 * One RPUSH And One EXPIRE Per Key, All In One Pipeline !
+                 */
+                Pipeline pipeline = jedis.pipelined();
+
+                Map<String, Response<Long>> lengths = new LinkedHashMap<>();
+                Map<String, Response<Long>> markers = new HashMap<>();
+
+                for (Map.Entry<String, List<LogDto>> entry : groups.entrySet()) {
+                    lengths.put(entry.getKey(), pipeline.rpush(SafeEncoder.encode(entry.getKey()), values(entry.getValue())));
+                    if (truncated.containsKey(entry.getKey())) {
+                        markers.put(entry.getKey(), pipeline.rpush(entry.getKey(), marker(truncated.get(entry.getKey()))));
+                    }
+                    if (expire) {
+                        pipeline.expire(entry.getKey(), lookLogConfig.getCachedSecond().intValue());
+                    }
+                }
+
+                pipeline.sync();
+
+                if (!markers.isEmpty()) {
+                    Pipeline positions = jedis.pipelined();
+                    for (Map.Entry<String, Response<Long>> entry : markers.entrySet()) {
+                        positions.hset(linesKey(entry.getKey()), "marker", String.valueOf(entry.getValue().get() - 1));
+                    }
+                    positions.sync();
+                }
+
+                if (lookLogConfig.isRedisIndex()) {
+                    index(jedis, groups, lengths, expire);
+                }
+
+            } finally {
+                if (jedis != null) {
+                    jedis.close();
+                }
             }
+        }
+
+        @Override
+        public List<String> getLogs(String traceId) {
 
-            dbCursor = dbCursor.limit(limit == null || limit <= 0 ? lookLogConfig.getLookLogMaxLimit() : limit);
+            if (stream != null && StringUtils.isBlank(traceId)) {
+                Jedis jedis = null;
+                try {
+                    jedis = jedisPool.getResource();
+                    List<String> lines = new ArrayList<>();
+                    for (RedisLogStream.Entry entry : stream.range(jedis, null, null, null, null, null, true, lookLogConfig.getLookLogMaxLimit(), null, Long.MAX_VALUE)) {
+                        lines.add(entry.message);
+                    }
+                    return lines;
+                } finally {
+                    if (jedis != null) {
+                        jedis.close();
+                    }
+                }
+            }
 
-            while (dbCursor.hasNext()) {
-                DBObject dbObject = dbCursor.next();
-                list.add((String) dbObject.get("formattedMessage"));
+            if (StringUtils.isBlank(traceId)) {
+                return new ArrayList<>();
             }
 
-            return list;
+            /**
+             * The First lookLogMaxLimit Lines Of The Trace, Read Chunk By Chunk, Never The Whole Trace At Once !
+             */
+            Map<String, Object> conditions = new HashMap<>();
+            conditions.put("traceId", traceId);
+
+            return getLogs(conditions, 1, lookLogConfig.getLookLogMaxLimit());
         }
 
         @Override
-        public void destroy() {
+        public List<String> getLogs(Map<String, Object> conditions, Integer order, Integer limit) {
+            LogLineList logLineList = new LogLineList();
+            visitLogs(conditions, order, limit, logLineList);
+            return logLineList.lines;
+        }
 
-            //Do Nothing !
+        @Override
+        public String visitLogs(Map<String, Object> conditions, Integer order, Integer limit, LogLineVisitor visitor) {
 
+            String keyword = (String) conditions.get("keyword");
+            String traceId = (String) conditions.get("traceId");
+            Date startTime = (Date) conditions.get("startTime");
+            Date endTime = (Date) conditions.get("endTime");
+            String[] level = (String[]) conditions.get("level");
+            String cursor = (String) conditions.get("cursor");
+
+            Pattern pattern = StringUtils.isNotBlank(keyword) ? Pattern.compile(keyword) : null;
+            int max = limit == null || limit <= 0 ? lookLogConfig.getLookLogMaxLimit() : limit;
+            boolean descending = order == null || order < 0;
+            long deadline = LogQueryGovernor.deadline(conditions);
+
+            Set<String> levels = new LinkedHashSet<>();
+            if (level != null && level.length > 0) {
+                for (String name : level) {
+                    levels.add(LogDtoCodec.levelName(LogDtoCodec.levelCode(name)));
+                }
+            } else {
+                for (int i = 0; i < LogDtoCodec.levelCount(); i++) {
+                    levels.add(LogDtoCodec.levelName(i));
+                }
+            }
+
+            if (stream == null && StringUtils.isBlank(traceId) && !lookLogConfig.isRedisIndex()) {
+                throw new UnsupportedOperationException();
+            }
+
+            Jedis jedis = null;
+            try {
+
+                jedis = jedisPool.getResource();
+
+                if (StringUtils.isNotBlank(traceId)) {
+                    return visitTrace(jedis, traceId, startTime, endTime, levels, pattern, descending, max, cursor, deadline, visitor);
+                }
+
+                if (stream != null) {
+
+                    /**
+                     * Stream IDs Are Unique And Ordered, The Last One Is The Cursor
+                     */
+                    String[] after = LogCursor.decode(cursor, descending, 1);
+
+                    List<RedisLogStream.Entry> entries = stream.range(jedis, startTime, endTime, levels, null, pattern, descending, max,
+                            after == null ? null : after[0], deadline);
+
+                    for (RedisLogStream.Entry entry : entries) {
+                        if (!visitor.visit(entry.time, entry.level, entry.traceId, entry.message)) {
+                            break;
+                        }
+                    }
+
+                    return entries.size() >= max ? LogCursor.encode(descending, entries.get(entries.size() - 1).id) : null;
+                }
+
+                return visitIndexed(jedis, startTime, endTime, levels, pattern, descending, max, cursor, deadline, visitor);
+
+            } finally {
+                if (jedis != null) {
+                    jedis.close();
+                }
+            }
+        }
+
+        /**
+         * A Trace Is Walked Chunk By Chunk From The End The Order Asks For, Stopping At The Limit.
+         * The Cursor Is The List Position Of The Last Line With Its Index In The Block
+         */
+        private String visitTrace(Jedis jedis, String traceId, Date startTime, Date endTime, Set<String> levels,
+                                  Pattern pattern, boolean descending, int max, String cursor, long deadline, LogLineVisitor visitor) {
+
+            String[] after = LogCursor.decode(cursor, descending, 2);
+            long afterPosition = after == null ? -1 : LogCursor.longAt(after, 0);
+            long afterIndex = after == null ? -1 : LogCursor.longAt(after, 1);
+
+            TraceCursor traceCursor = new TraceCursor(jedis, traceId, descending, afterPosition);
+
+            int count = 0;
+            TraceLine last = null;
+
+            TraceLine line;
+            while (count < max && (line = traceCursor.next()) != null) {
+
+                LogQueryGovernor.checkDeadline(deadline);
+
+                if (line.position == afterPosition && (descending ? line.index >= afterIndex : line.index <= afterIndex)) {
+                    continue;
+                }
+
+                if (line.matches(startTime, endTime, levels, pattern)) {
+                    count++;
+                    last = line;
+                    if (!visitor.visit(line.time, line.level, line.traceId, line.message)) {
+                        break;
+                    }
+                }
+            }
+
+            return count >= max ? LogCursor.encode(descending, last.position, last.index) : null;
+        }
+
+        /**
+         * Merges The Level Sorted Sets Page By Page In Time Order, Resolving Each Page Of References To Lines,
+         * Until The Limit Is Reached Or The Sets Are Exhausted.
+         * Equal Scores Are Ordered By Member, As Redis Orders Them Within A Set, So Every Line Has One Place In The Merge.
+         * The Cursor Is The Score (createTime) And Member Of The Last Line, The Next Page Starts At That Score And Resumes Strictly After That Member
+         */
+        private String visitIndexed(Jedis jedis, Date startTime, Date endTime, Set<String> levels,
+                                    Pattern pattern, boolean descending, int max, String cursor, long deadline, LogLineVisitor visitor) {
+
+            String[] after = LogCursor.decode(cursor, descending, 2);
+
+            String min = startTime == null ? "-inf" : String.valueOf(startTime.getTime());
+            String maxScore = endTime == null ? "+inf" : String.valueOf(endTime.getTime());
+
+            long lastScore = Long.MIN_VALUE;
+            byte[] lastMember = null;
+
+            if (after != null) {
+                lastScore = LogCursor.longAt(after, 0);
+                lastMember = SafeEncoder.encode(after[1]);
+                if (descending) {
+                    maxScore = String.valueOf(lastScore);
+                } else {
+                    min = String.valueOf(lastScore);
+                }
+            }
+
+            int page = Math.max(max, 100);
+
+            List<LevelCursor> cursors = new ArrayList<>();
+            for (String name : levels) {
+                cursors.add(new LevelCursor(levelKey(name)));
+            }
+
+            int count = 0;
+
+            while (count < max) {
+
+                LogQueryGovernor.checkDeadline(deadline);
+
+                Pipeline pipeline = jedis.pipelined();
+                Map<LevelCursor, Response<Set<Tuple>>> pages = new HashMap<>();
+
+                for (LevelCursor levelCursor : cursors) {
+                    if (levelCursor.tuples.isEmpty() && !levelCursor.exhausted) {
+                        pages.put(levelCursor, descending
+                                ? pipeline.zrevrangeByScoreWithScores(levelCursor.key, maxScore, min, levelCursor.offset, page)
+                                : pipeline.zrangeByScoreWithScores(levelCursor.key, min, maxScore, levelCursor.offset, page));
+                    }
+                }
+
+                pipeline.sync();
+
+                for (Map.Entry<LevelCursor, Response<Set<Tuple>>> entry : pages.entrySet()) {
+                    LevelCursor levelCursor = entry.getKey();
+                    Set<Tuple> tuples = entry.getValue().get();
+                    levelCursor.tuples.addAll(tuples);
+                    levelCursor.offset += tuples.size();
+                    levelCursor.exhausted = tuples.size() < page;
+                }
+
+
+                /**
+                 * Take The Next Reference Across Sets Only While Every Set Still Has A Head, So The Merge Stays In Order
+                 */
+                List<String> references = new ArrayList<>();
+                List<Tuple> positions = new ArrayList<>();
+                boolean taken = false;
+
+                while (references.size() < page) {
+
+                    LevelCursor next = null;
+                    boolean starved = false;
+
+                    for (LevelCursor levelCursor : cursors) {
+                        if (levelCursor.tuples.isEmpty()) {
+                            starved |= !levelCursor.exhausted;
+                            continue;
+                        }
+                        if (next == null || (descending ? -1 : 1) * compare(levelCursor.tuples.peekFirst(), next.tuples.peekFirst()) < 0) {
+                            next = levelCursor;
+                        }
+                    }
+
+                    if (next == null || starved) {
+                        break;
+                    }
+
+                    Tuple tuple = next.tuples.pollFirst();
+                    taken = true;
+
+                    /**
+                     * At The Cursor's Score, Members Up To The Cursor's Were On Earlier Pages
+                     */
+                    if (lastMember != null && (long) tuple.getScore() == lastScore
+                            && (descending ? -1 : 1) * compare(tuple.getBinaryElement(), lastMember) <= 0) {
+                        continue;
+                    }
+
+                    references.add(tuple.getElement());
+                    positions.add(tuple);
+                }
+
+                if (!taken) {
+                    boolean exhausted = true;
+                    for (LevelCursor levelCursor : cursors) {
+                        exhausted &= levelCursor.exhausted && levelCursor.tuples.isEmpty();
+                    }
+                    if (exhausted) {
+                        break;
+                    }
+                    continue;
+                }
+
+                List<TraceLine> lines = resolve(jedis, references);
+
+                for (int i = 0; i < lines.size(); i++) {
+
+                    TraceLine line = lines.get(i);
+
+                    if (line == null || (pattern != null && !pattern.matcher(line.message).find())) {
+                        continue;
+                    }
+
+                    count++;
+
+                    if (!visitor.visit(line.time, line.level, line.traceId, line.message) || count >= max) {
+                        return count >= max ? LogCursor.encode(descending, (long) positions.get(i).getScore(), positions.get(i).getElement()) : null;
+                    }
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Order Of Two References In The Merge : By Score, Then By Member Like Redis Within A Set
+         */
+        private static int compare(Tuple tuple, Tuple other) {
+            int compare = Double.compare(tuple.getScore(), other.getScore());
+            return compare != 0 ? compare : compare(tuple.getBinaryElement(), other.getBinaryElement());
+        }
+
+        /**
+         * Unsigned Byte Order, The Order Redis Gives Members Of Equal Score
+         */
+        private static int compare(byte[] member, byte[] other) {
+            for (int i = 0; i < Math.min(member.length, other.length); i++) {
+                int compare = (member[i] & 0xff) - (other[i] & 0xff);
+                if (compare != 0) {
+                    return compare;
+                }
+            }
+            return member.length - other.length;
+        }
+
+        /**
+         * Fetch The Blocks Of The References In One Pipeline, Each Block Once,
+         * Lines Line Up With The References, Null Where The Trace Expired Or Its List Was Created Again
+         */
+        private List<TraceLine> resolve(Jedis jedis, List<String> references) {
+
+            Pipeline pipeline = jedis.pipelined();
+            Map<String, Response<byte[]>> values = new HashMap<>();
+
+            for (String reference : references) {
+                String[] parts = reference.split(":", 4);
+                String element = parts[0] + ":" + parts[3];
+                if (!values.containsKey(element)) {
+                    values.put(element, pipeline.lindex(SafeEncoder.encode(lookLogConfig.getKeyPrefix() + parts[3]), Long.parseLong(parts[0])));
+                }
+            }
+
+            pipeline.sync();
+
+            Map<String, LogBlock> blocks = new HashMap<>();
+            List<TraceLine> lines = new ArrayList<>(references.size());
+
+            for (String reference : references) {
+
+                String[] parts = reference.split(":", 4);
+                String element = parts[0] + ":" + parts[3];
+
+                byte[] value = values.get(element).get();
+
+                /**
+                 * Indexed Lines Are Always In Blocks, A Plain Value Is A Marker Of A List Created Again
+                 */
+                if (value == null || !LogBlock.isBlock(value)) {
+                    lines.add(null);
+                    continue;
+                }
+
+                LogBlock block = blocks.get(element);
+                if (block == null) {
+                    block = LogBlock.decode(value);
+                    blocks.put(element, block);
+                }
+
+                int offset = Integer.parseInt(parts[1]);
+                boolean current = block.size() > 0 && block.times[0] == Long.parseLong(parts[2]) && offset < block.size();
+
+                lines.add(current
+                        ? new TraceLine(Long.parseLong(parts[0]), offset, block.times[offset], block.levels[offset], parts[3], block.messages[offset]) : null);
+            }
+
+            return lines;
+        }
+
+        /**
+         * Read Position In The Sorted Set Of One Level
+         */
+        private static class LevelCursor {
+
+            private final String key;
+
+            private final Deque<Tuple> tuples = new ArrayDeque<>();
+
+            private int offset;
+
+            private boolean exhausted;
+
+            private LevelCursor(String key) {
+                this.key = key;
+            }
+        }
+
+        /**
+         * Walks The Lines Of A Trace In Chunks Of TRACE_READ_CHUNK List Values, Forward Or Backward.
+         * The Length Is Taken Once, Values Are Only Appended So Positions Never Move, Lines Appended During The Walk Are Not Seen
+         */
+        private class TraceCursor {
+
+            private final Jedis jedis;
+
+            private final String traceId;
+
+            private final boolean descending;
+
+            private final long length;
+
+            private long position;
+
+            private final Deque<TraceLine> lines = new ArrayDeque<>();
+
+            /**
+             * @param first list position to start from, -1 for the start (or the end walking backward)
+             */
+            private TraceCursor(Jedis jedis, String traceId, boolean descending, long first) {
+
+                this.jedis = jedis;
+                this.traceId = traceId;
+                this.descending = descending;
+
+                Long len = jedis.llen(lookLogConfig.getKeyPrefix() + traceId);
+                this.length = len == null ? 0 : len;
+
+                this.position = first < 0 ? (descending ? length - 1 : 0) : Math.min(first, length - 1 + (descending ? 0 : 1));
+            }
+
+            /**
+             * @return the next line, null once the trace is walked through
+             */
+            private TraceLine next() {
+                while (lines.isEmpty()) {
+                    if (!fetch()) {
+                        return null;
+                    }
+                }
+                return lines.pollFirst();
+            }
+
+            private boolean fetch() {
+
+                if (descending ? position < 0 : position >= length) {
+                    return false;
+                }
+
+                long from = descending ? Math.max(0, position - TRACE_READ_CHUNK + 1) : position;
+                long to = descending ? position : Math.min(length, position + TRACE_READ_CHUNK) - 1;
+                position = descending ? from - 1 : to + 1;
+
+                List<TraceLine> chunk = new ArrayList<>();
+
+                if (stream != null) {
+                    List<RedisLogStream.Entry> entries = stream.trace(jedis, traceId, from, to);
+                    for (int i = 0; i < entries.size(); i++) {
+                        RedisLogStream.Entry entry = entries.get(i);
+                        if (entry != null) {
+                            chunk.add(new TraceLine(from + i, 0, entry.time, entry.level, entry.traceId, entry.message));
+                        }
+                    }
+                } else {
+
+                    List<byte[]> values = jedis.lrange(SafeEncoder.encode(lookLogConfig.getKeyPrefix() + traceId), from, to);
+
+                    /**
+                     * The Key Expired Half Way, Nothing Is Left To Walk
+                     */
+                    if (values.isEmpty()) {
+                        position = descending ? -1 : length;
+                    }
+
+                    for (int k = 0; k < values.size(); k++) {
+                        byte[] value = values.get(k);
+                        if (!LogBlock.isBlock(value)) {
+                            chunk.add(new TraceLine(from + k, 0, -1, null, traceId, SafeEncoder.encode(value)));
+                            continue;
+                        }
+                        LogBlock block = LogBlock.decode(value);
+                        for (int i = 0; i < block.size(); i++) {
+                            chunk.add(new TraceLine(from + k, i, block.times[i], block.levels[i], traceId, block.messages[i]));
+                        }
+                    }
+                }
+
+                if (descending) {
+                    Collections.reverse(chunk);
+                }
+
+                lines.addAll(chunk);
+
+                return true;
+            }
+        }
+
+        /**
+         * A Line Of A Trace At Its List Position And Index In The Block, Plain List Values (Old Lines, Truncation Markers) Have No Time Or Level
+         */
+        private static class TraceLine {
+
+            private final long position;
+
+            private final int index;
+
+            private final long time;
+
+            private final String level;
+
+            private final String traceId;
+
+            private final String message;
+
+            private TraceLine(long position, int index, long time, String level, String traceId, String message) {
+                this.position = position;
+                this.index = index;
+                this.time = time;
+                this.level = level;
+                this.traceId = traceId;
+                this.message = message;
+            }
+
+            private boolean matches(Date startTime, Date endTime, Set<String> levels, Pattern pattern) {
+                return (time < 0 || ((startTime == null || time >= startTime.getTime()) && (endTime == null || time <= endTime.getTime())))
+                        && (level == null || levels.contains(LogDtoCodec.levelName(LogDtoCodec.levelCode(level))))
+                        && (pattern == null || pattern.matcher(message).find());
+            }
+        }
+
+        /**
+         * Count The Lines Of Each Trace, Trim The Batch To The Per-Trace Cap And Refresh The Marker Of Traces Already Over It.
+         * The Count Lives In The Hash "keyPrefix#lines:traceId" With The List Position Of The Marker, So The Marker Stays Put
+         * Even If A Batch From Another Instance Lands After It
+         *
+         * @return traces crossing the cap with this batch, with the count of lines they drop
+         */
+        private Map<String, Long> cap(Jedis jedis, Map<String, List<LogDto>> groups, boolean expire) {
+
+            int maxLines = lookLogConfig.getRedisTraceMaxLines();
+
+            Pipeline pipeline = jedis.pipelined();
+
+            Map<String, Response<Long>> totals = new HashMap<>();
+            Map<String, Response<String>> markers = new HashMap<>();
+            Map<String, Response<Boolean>> lists = new HashMap<>();
+
+            for (Map.Entry<String, List<LogDto>> entry : groups.entrySet()) {
+                String linesKey = linesKey(entry.getKey());
+                lists.put(entry.getKey(), pipeline.exists(entry.getKey()));
+                totals.put(entry.getKey(), pipeline.hincrBy(linesKey, "lines", entry.getValue().size()));
+                markers.put(entry.getKey(), pipeline.hget(linesKey, "marker"));
+                if (expire) {
+                    pipeline.expire(linesKey, lookLogConfig.getCachedSecond().intValue());
+                }
+            }
+
+            pipeline.sync();
+
+            Map<String, Long> crossing = new HashMap<>();
+            Pipeline updates = jedis.pipelined();
+
+            for (Iterator<Map.Entry<String, List<LogDto>>> iterator = groups.entrySet().iterator(); iterator.hasNext(); ) {
+
+                Map.Entry<String, List<LogDto>> entry = iterator.next();
+
+                long total = totals.get(entry.getKey()).get();
+                long previous = total - entry.getValue().size();
+
+                /**
+                 * The List Expired Before Its Count, Start Counting The Trace Again !
+                 */
+                if (previous > 0 && !lists.get(entry.getKey()).get()) {
+                    String linesKey = linesKey(entry.getKey());
+                    updates.hset(linesKey, "lines", String.valueOf(entry.getValue().size()));
+                    updates.hdel(linesKey, "marker");
+                    total = entry.getValue().size();
+                    previous = 0;
+                }
+
+                if (previous >= maxLines) {
+                    iterator.remove();
+                    String position = markers.get(entry.getKey()).get();
+                    if (position != null) {
+                        updates.lset(entry.getKey(), Long.parseLong(position), marker(total - maxLines));
+                    }
+                    /**
+                     * The Trace Takes No RPUSH Here, Keep Its List As Long As Its Count !
+                     */
+                    if (expire) {
+                        updates.expire(entry.getKey(), lookLogConfig.getCachedSecond().intValue());
+                    }
+                } else if (total > maxLines) {
+                    entry.setValue(new ArrayList<>(entry.getValue().subList(0, (int) (maxLines - previous))));
+                    crossing.put(entry.getKey(), total - maxLines);
+                }
+            }
+
+            updates.sync();
+
+            return crossing;
+        }
+
+        private String marker(long truncated) {
+            return "...... 超出单个traceId最大行数 " + lookLogConfig.getRedisTraceMaxLines() + ", 已截断 " + truncated + " 行";
+        }
+
+        private String linesKey(String key) {
+            return lookLogConfig.getKeyPrefix() + "#lines:" + key.substring(lookLogConfig.getKeyPrefix().length());
+        }
+
+        /**
+         * The List Values Of A Key's Lines Of A Batch : One Block Keeping Time And Level Of Each Line When They Are Indexed,
+         * Compressed When Big Enough, Otherwise Plain Display Lines As Before
+         */
+        private byte[][] values(List<LogDto> logDtos) {
+
+            boolean compress = lookLogConfig.isCompression() && LogBlock.chars(logDtos) >= lookLogConfig.getCompressionMinBytes();
+
+            if (lookLogConfig.isRedisIndex() || compress) {
+                return new byte[][]{LogBlock.encode(logDtos, compress)};
+            }
+
+            byte[][] values = new byte[logDtos.size()][];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = SafeEncoder.encode(logDtos.get(i).getFormattedMessage());
+            }
+            return values;
+        }
+
+        /**
+         * Reference Each Line From The Sorted Set Of Its Level, Scored By createTime.
+         * The Member "position:offset:epoch:traceId" Locates The Line In Its Block, Blocks Are Only Appended So Positions Never Move.
+         * A List That Expired And Was Created Again Starts Over At Position 0, The Epoch (createTime Of The Block's First Line)
+         * Tells The Block A Reference Was Made For From The One Now At Its Position
+         */
+        private void index(Jedis jedis, Map<String, List<LogDto>> groups, Map<String, Response<Long>> lengths, boolean expire) {
+
+            Map<String, Map<String, Double>> members = new LinkedHashMap<>();
+
+            for (Map.Entry<String, List<LogDto>> entry : groups.entrySet()) {
+
+                long position = lengths.get(entry.getKey()).get() - 1;
+                String traceId = entry.getKey().substring(lookLogConfig.getKeyPrefix().length());
+
+                List<LogDto> logDtos = entry.getValue();
+                long epoch = logDtos.get(0).getCreateTime().getTime();
+
+                for (int i = 0; i < logDtos.size(); i++) {
+                    String levelKey = levelKey(LogDtoCodec.levelName(LogDtoCodec.levelCode(logDtos.get(i).getLogLevel())));
+                    Map<String, Double> scores = members.get(levelKey);
+                    if (scores == null) {
+                        scores = new HashMap<>();
+                        members.put(levelKey, scores);
+                    }
+                    scores.put(position + ":" + i + ":" + epoch + ":" + traceId, (double) logDtos.get(i).getCreateTime().getTime());
+                }
+            }
+
+            Pipeline pipeline = jedis.pipelined();
+
+            for (Map.Entry<String, Map<String, Double>> entry : members.entrySet()) {
+                pipeline.zadd(entry.getKey(), entry.getValue());
+                if (expire) {
+                    long expireBefore = System.currentTimeMillis() - lookLogConfig.getCachedSecond() * 1000L;
+                    pipeline.zremrangeByScore(entry.getKey(), "-inf", "(" + expireBefore);
+                    pipeline.expire(entry.getKey(), lookLogConfig.getCachedSecond().intValue());
+                }
+            }
+
+            pipeline.sync();
+        }
+
+        private String levelKey(String level) {
+            return lookLogConfig.getKeyPrefix() + "#level:" + level;
+        }
+
+        @Override
+        public void destroy() {
+            if (jedisPool != null) {
+                jedisPool.destroy();
+            }
+        }
+    }
+
+    @Component("mongoDbCacheOperator")
+    public static class MongoDbCacheOperator implements CacheOperator {
+
+        @Autowired
+        private LookLogConfig lookLogConfig;
+
+        @Autowired
+        private MongoTemplate mongoTemplate;
+
+
+        /**
+         * Partition Names Already Indexed By This Process
+         */
+        private final Set<String> indexedPartitions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+
+        @Override
+        public void init() {
+
+            if (lookLogConfig.getMongoDbPartition() == MongoDbPartition.NONE) {
+                ensureIndexes(mongoTemplate.getCollection(baseName()));
+                dropLegacyCollection();
+            } else {
+                dropExpiredPartitions();
+            }
+        }
+
+        @Override
+        public boolean enable() {
+            return StringUtils.isNotBlank(lookLogConfig.getMongoDbCollectionName());
+        }
+
+        @Override
+        public void putLog(LogDto logDto) {
+
+            putLogs(Collections.singletonList(logDto));
+
+        }
+
+        @Override
+        public void putLogs(List<LogDto> logDtos) {
+
+            MongoDbPartition partition = lookLogConfig.getMongoDbPartition();
+
+            if (partition == MongoDbPartition.NONE) {
+                putLogs(mongoTemplate.getCollection(baseName()), logDtos);
+                return;
+            }
+
+            Map<String, List<LogDto>> partitions = new LinkedHashMap<>();
+
+            for (LogDto logDto : logDtos) {
+                String name = partition.collectionName(baseName(), logDto.getCreateTime());
+                List<LogDto> list = partitions.get(name);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    partitions.put(name, list);
+                }
+                list.add(logDto);
+            }
+
+            for (Map.Entry<String, List<LogDto>> entry : partitions.entrySet()) {
+                putLogs(partitionCollection(entry.getKey()), entry.getValue());
+            }
+        }
+
+        private void putLogs(DBCollection collection, List<LogDto> logDtos) {
+
+            if (lookLogConfig.getMongoDbLayout() == MongoDbLayout.BUCKET) {
+                putBuckets(collection, logDtos);
+                return;
+            }
+
+            List<DBObject> dbObjects = new ArrayList<>(logDtos.size());
+
+            int keywordIndexMaxChars = lookLogConfig.getKeywordIndexMaxChars();
+
+            int compressionMinBytes = lookLogConfig.isCompression() ? lookLogConfig.getCompressionMinBytes() : Integer.MAX_VALUE;
+
+            for (LogDto logDto : logDtos) {
+                dbObjects.add(LogDocument.document(logDto, logDto.getCreateTime(),
+                        keywordIndexMaxChars > 0 ? KeywordGrams.index(logDto.getFormattedMessage(), keywordIndexMaxChars) : null,
+                        logDto.getFormattedMessage().length() >= compressionMinBytes ? LogBlock.encode(Collections.singletonList(logDto), true) : null));
+            }
+
+            /**
+             * Unordered Bulk Insert, One Bad Document Doesn't Stop The Rest !
+             */
+            collection.insert(dbObjects, new InsertOptions().continueOnError(true));
+
+        }
+
+        @Override
+        public List<String> getLogs(String traceId) {
+
+            LogLineList logLineList = new LogLineList();
+
+            if (StringUtils.isNotBlank(traceId)) {
+
+                find(new BasicDBObject(LogDocument.TRACE_ID, traceIdCondition(traceId)), 1, null, null, null, null, lookLogConfig.getLookLogMaxLimit(), null, Long.MAX_VALUE, logLineList);
+
+            } else {
+
+                find(new BasicDBObject(), -1, null, null, null, null, lookLogConfig.getLookLogMaxLimit(), null, Long.MAX_VALUE, logLineList);
+
+            }
+
+            return logLineList.lines;
+        }
+
+        @Override
+        public List<String> getLogs(Map<String, Object> conditions, Integer order, Integer limit) {
+            LogLineList logLineList = new LogLineList();
+            visitLogs(conditions, order, limit, logLineList);
+            return logLineList.lines;
+        }
+
+        @Override
+        public String visitLogs(Map<String, Object> conditions, Integer order, Integer limit, LogLineVisitor visitor) {
+
+            String keyword = (String) conditions.get("keyword");
+            String traceId = (String) conditions.get("traceId");
+            Date startTime = (Date) conditions.get("startTime");
+            Date endTime = (Date) conditions.get("endTime");
+            String[] level = (String[]) conditions.get("level");
+
+            boolean bucket = lookLogConfig.getMongoDbLayout() == MongoDbLayout.BUCKET;
+
+            boolean descending = order == null || order < 0;
+
+            /**
+             * The Cursor Is The Last Line's Place In The {createTime, _id} Order, Plus Its Offset When It Came From A Bucket.
+             * The Next Page Seeks The Time Index To Its createTime And Starts Strictly After It, Equal Times Are Told Apart By _id
+             */
+            LineKey cursor = LineKey.decode((String) conditions.get("cursor"), descending);
+
+            if (cursor != null) {
+                if (descending) {
+                    if (endTime == null || endTime.getTime() > cursor.time) {
+                        endTime = new Date(cursor.time);
+                    }
+                } else if (startTime == null || startTime.getTime() < cursor.time) {
+                    startTime = new Date(cursor.time);
+                }
+            }
+
+
+            BasicDBObject basicDBObject = new BasicDBObject();
+
+            if (StringUtils.isNotBlank(traceId)) {
+                basicDBObject.append(LogDocument.TRACE_ID, traceIdCondition(traceId));
+            }
+
+            if (StringUtils.isNotBlank(keyword)) {
+
+                Collection<String> grams = lookLogConfig.getKeywordIndexMaxChars() > 0 ? KeywordGrams.query(keyword) : null;
+
+                BasicDBList clauses = new BasicDBList();
+
+                if (grams != null) {
+
+                    /**
+                     * Candidates Hold Every Trigram Of The Keyword, Or Were Too Long To Be Indexed,
+                     * Or Have No Trigrams At All (Written Before The Index Or While It Was Disabled), Which g : null Matches Through The Index.
+                     * The Regex Below Then Only Checks Those Candidates
+                     */
+                    BasicDBList candidates = new BasicDBList();
+                    candidates.add(new BasicDBObject(LogDocument.GRAMS, new BasicDBObject(QueryOperators.ALL, new ArrayList<>(grams))));
+                    candidates.add(new BasicDBObject(LogDocument.GRAMS, KeywordGrams.UNINDEXED));
+                    candidates.add(new BasicDBObject(LogDocument.GRAMS, null));
+                    clauses.add(new BasicDBObject(QueryOperators.OR, candidates));
+
+                }
+
+                String prefix = bucket ? LogDocument.LINES + "." : "";
+
+                if (lookLogConfig.isCompression()) {
+
+                    /**
+                     * The Server Can't Look Into Compressed Blocks, They Stay Candidates And The Keyword Is Checked After Decompression
+                     */
+                    BasicDBList messages = new BasicDBList();
+                    messages.add(new BasicDBObject(prefix + LogDocument.MESSAGE, Pattern.compile(keyword)));
+                    messages.add(new BasicDBObject(prefix + LogDocument.BLOCK, new BasicDBObject(QueryOperators.EXISTS, true)));
+                    clauses.add(new BasicDBObject(QueryOperators.OR, messages));
+
+                } else {
+                    clauses.add(new BasicDBObject(prefix + LogDocument.MESSAGE, Pattern.compile(keyword)));
+                }
+
+                basicDBObject.append(QueryOperators.AND, clauses);
+            }
+
+            /**
+             * One Combined Range, Appending Twice Would Let endTime Overwrite startTime
+             */
+            BasicDBObject createTimeRange = new BasicDBObject();
+
+            if (startTime != null) {
+                createTimeRange.append(QueryOperators.GTE, startTime);
+            }
+
+            if (endTime != null) {
+                createTimeRange.append(QueryOperators.LTE, endTime);
+            }
+
+            if (bucket) {
+
+                /**
+                 * A Bucket Overlaps The Range When It Ends (TIME) After startTime And Begins (MIN_TIME) Before endTime
+                 */
+                if (startTime != null) {
+                    basicDBObject.append(LogDocument.TIME, new BasicDBObject(QueryOperators.GTE, startTime));
+                }
+
+                if (endTime != null) {
+                    basicDBObject.append(LogDocument.MIN_TIME, new BasicDBObject(QueryOperators.LTE, endTime));
+                }
+
+            } else if (!createTimeRange.isEmpty()) {
+                basicDBObject.append(LogDocument.TIME, createTimeRange);
+            }
+
+            if (cursor != null && !bucket) {
+
+                /**
+                 * t > last || (t == last && _id > lastId), Reversed When Descending
+                 */
+                String past = descending ? QueryOperators.LT : QueryOperators.GT;
+
+                BasicDBList seek = new BasicDBList();
+                seek.add(new BasicDBObject(LogDocument.TIME, new BasicDBObject(past, new Date(cursor.time))));
+                seek.add(new BasicDBObject(LogDocument.TIME, new Date(cursor.time)).append("_id", new BasicDBObject(past, cursor.id)));
+                basicDBObject.append(QueryOperators.OR, seek);
+            }
+
+            if (level != null && level.length > 0) {
+                BasicDBList values = new BasicDBList();
+                values.addAll(Arrays.asList(level));
+                basicDBObject.append(LogDocument.LEVEL, new BasicDBObject(QueryOperators.IN, values));
+            }
+
+
+            return find(basicDBObject, order, startTime, endTime, level, StringUtils.isNotBlank(keyword) ? Pattern.compile(keyword) : null,
+                    limit == null || limit <= 0 ? lookLogConfig.getLookLogMaxLimit() : limit, cursor, LogQueryGovernor.deadline(conditions), visitor);
+        }
+
+        @Override
+        public void destroy() {
+
+            //Do Nothing !
+
+        }
+
+        /**
+         * Indexes Of The Collection, Or Of A Partition Collection When It Is First Written
+         */
+        private void ensureIndexes(DBCollection collection) {
+
+            /**
+             * Compound Indexes So The Trace Lookup And The Level Filter Are Served Already In The {createTime, _id} Order Queries Sort And Seek By
+             */
+            collection.createIndex(new BasicDBObject(LogDocument.TRACE_ID, 1).append(LogDocument.TIME, 1).append("_id", 1), new BasicDBObject("name", "i_t_id"));
+            collection.createIndex(new BasicDBObject(LogDocument.LEVEL, 1).append(LogDocument.TIME, -1).append("_id", -1), new BasicDBObject("name", "l_t_id"));
+            collection.createIndex(new BasicDBObject(LogDocument.TIME, 1).append("_id", 1), new BasicDBObject("name", "t_id"));
+
+            if (lookLogConfig.getKeywordIndexMaxChars() > 0) {
+                collection.createIndex(new BasicDBObject(LogDocument.GRAMS, 1).append(LogDocument.TIME, -1).append("_id", -1), new BasicDBObject("name", "g_t_id"));
+            }
+
+            if (lookLogConfig.getMongoDbLayout() == MongoDbLayout.BUCKET) {
+                collection.createIndex(new BasicDBObject(LogDocument.TRACE_ID, 1).append(LogDocument.WINDOW, 1), new BasicDBObject("name", "i_w"));
+            }
+
+            /**
+             * No TTL For Partitions, They Expire By Drop, And t_id Already Serves Time Ranges And Unfiltered Sorts
+             */
+            if (!ttl()) {
+                return;
+            }
+
+            List<DBObject> indexs = collection.getIndexInfo();
+
+            String indexFiledName = LogDocument.TIME;
+
+            for (DBObject dbObject : indexs) {
+                DBObject key = (DBObject) dbObject.get("key");
+                if (key != null && key.keySet().size() == 1 && key.containsField(indexFiledName)) {
+                    return;
+                }
+            }
+
+            BasicDBObject options = new BasicDBObject("name", "t_expire");
+            options.append("expireAfterSeconds", lookLogConfig.getCachedSecond());
+
+            collection.createIndex(new BasicDBObject(indexFiledName, 1), options);
+        }
+
+        /**
+         * Runs The Query Over The Collection, Or Over The Partitions Overlapping The Time Range In {createTime, _id} Order,
+         * Handing Lines To The Visitor As The Cursor Yields Them, Until The Limit Is Reached.
+         * The Query Of A Later Page Already Starts Past The Cursor's Line, Only Bucket Lines Are Passed Over Here
+         *
+         * @param cursor the last line of the previous page, null for the first page
+         * @param deadline when to give up, the rest of it is each collection's maxTimeMS
+         * @return the cursor of the next page, null if the page isn't full
+         */
+        private String find(DBObject query, Integer order, Date startTime, Date endTime, String[] level, Pattern keyword, int limit,
+                            LineKey cursor, long deadline, LogLineVisitor visitor) {
+
+            int count = 0;
+            boolean stopped = false;
+
+            int direction = order == null || order < 0 ? -1 : 1;
+            LineKey last = null;
+
+            boolean bucket = lookLogConfig.getMongoDbLayout() == MongoDbLayout.BUCKET;
+
+            for (String name : collectionNames(startTime, endTime, order)) {
+
+                DBCursor dbCursor = mongoTemplate.getCollection(name)
+                        .find(query, bucket ? LogDocument.LINES_PROJECTION : LogDocument.MESSAGE_PROJECTION)
+                        .sort(new BasicDBObject(LogDocument.TIME, direction).append("_id", direction));
+
+                long remaining = LogQueryGovernor.remainingMillis(deadline);
+                if (remaining > 0) {
+                    dbCursor = dbCursor.maxTime(remaining, TimeUnit.MILLISECONDS);
+                }
+
+                try {
+
+                    if (bucket) {
+
+                        for (DBObject line : readBuckets(dbCursor, startTime, endTime, level, keyword, direction, limit - count, cursor)) {
+
+                            long time = LogDocument.millis(line.get(LogDocument.TIME));
+
+                            last = LineKey.of(line);
+                            count++;
+
+                            if (!visitor.visit(time, (String) line.get(LogDocument.LEVEL),
+                                    (String) line.get(LogDocument.TRACE_ID), (String) line.get(LogDocument.MESSAGE))) {
+                                stopped = true;
+                            }
+
+                            if (stopped || count >= limit) {
+                                break;
+                            }
+                        }
+
+                    } else {
+
+                        /**
+                         * Compressed Documents May Still Miss The Keyword, So The Limit Is Counted Here Instead Of By The Server
+                         */
+                        boolean verify = keyword != null && lookLogConfig.isCompression();
+
+                        if (!verify) {
+                            dbCursor = dbCursor.limit(limit - count);
+                        }
+
+                        while (count < limit && dbCursor.hasNext()) {
+
+                            DBObject dbObject = dbCursor.next();
+                            byte[] block = (byte[]) dbObject.get(LogDocument.BLOCK);
+
+                            long time = LogDocument.millis(dbObject.get(LogDocument.TIME));
+
+                            String message = block == null ? (String) dbObject.get(LogDocument.MESSAGE) : LogBlock.decode(block).messages[0];
+
+                            if (block != null && keyword != null && !keyword.matcher(message).find()) {
+                                continue;
+                            }
+
+                            last = LineKey.of(dbObject);
+                            count++;
+
+                            if (!visitor.visit(time, (String) dbObject.get(LogDocument.LEVEL), (String) dbObject.get(LogDocument.TRACE_ID), message)) {
+                                stopped = true;
+                                break;
+                            }
+                        }
+                    }
+
+                } catch (MongoExecutionTimeoutException e) {
+                    throw new LogQueryGovernor.TimeBudgetException();
+                } finally {
+                    dbCursor.close();
+                }
+
+                if (stopped || count >= limit) {
+                    break;
+                }
+            }
+
+            return count >= limit && last != null ? last.encode(direction < 0) : null;
+        }
+
+        /**
+         * The Collection, Or The Existing Partitions Overlapping The Time Range, Ordered By Time Like The Query
+         */
+        private List<String> collectionNames(Date startTime, Date endTime, Integer order) {
+
+            String baseName = baseName();
+            MongoDbPartition partition = lookLogConfig.getMongoDbPartition();
+
+            if (partition == MongoDbPartition.NONE) {
+                return Collections.singletonList(baseName);
+            }
+
+            List<Date> starts = new ArrayList<>();
+
+            for (String collectionName : mongoTemplate.getCollectionNames()) {
+
+                Date start = partition.start(baseName, collectionName);
+
+                if (start == null) {
+                    continue;
+                }
+                if (endTime != null && start.after(endTime)) {
+                    continue;
+                }
+                if (startTime != null && !partition.next(start).after(startTime)) {
+                    continue;
+                }
+
+                starts.add(start);
+            }
+
+            Collections.sort(starts);
+
+            if (order != null && order < 0) {
+                Collections.reverse(starts);
+            }
+
+            List<String> names = new ArrayList<>(starts.size());
+
+            for (Date start : starts) {
+                names.add(partition.collectionName(baseName, start));
+            }
+
+            return names;
+        }
+
+        /**
+         * The Partition Collection To Write, Indexed On First Use, Which Is Also When Partitions Roll Over And Expired Ones Are Dropped
+         */
+        private DBCollection partitionCollection(String name) {
+
+            DBCollection collection = mongoTemplate.getCollection(name);
+
+            if (indexedPartitions.add(name)) {
+                ensureIndexes(collection);
+                dropExpiredPartitions();
+            }
+
+            return collection;
+        }
+
+        /**
+         * Drops Whole Partitions Ending Before The Cached Seconds, Instead Of TTL Deletes Document By Document
+         */
+        private void dropExpiredPartitions() {
+
+            if (lookLogConfig.getCachedSecond() == null || lookLogConfig.getCachedSecond() <= 0) {
+                return;
+            }
+
+            MongoDbPartition partition = lookLogConfig.getMongoDbPartition();
+
+            long expireBefore = System.currentTimeMillis() - lookLogConfig.getCachedSecond() * 1000L;
+
+            for (String collectionName : mongoTemplate.getCollectionNames()) {
+
+                /**
+                 * Partitions Of The Old Layout, Named After The Configured Name, Expire The Same Way
+                 */
+                Date start = partition.start(baseName(), collectionName);
+                if (start == null) {
+                    start = partition.start(lookLogConfig.getMongoDbCollectionName(), collectionName);
+                }
+
+                if (start != null && partition.next(start).getTime() <= expireBefore) {
+                    mongoTemplate.dropCollection(collectionName);
+                    indexedPartitions.remove(collectionName);
+                }
+            }
+        }
+
+        /**
+         * Appends The Lines To The Bucket Of Their TraceId And Time Window With One Upsert Per Bucket,
+         * A Full Bucket No Longer Matches The Filter, So The Upsert Opens A New One
+         */
+        private void putBuckets(DBCollection collection, List<LogDto> logDtos) {
+
+            long windowMillis = lookLogConfig.getMongoDbBucketSeconds() * 1000L;
+            int maxLines = lookLogConfig.getMongoDbBucketMaxLines();
+            int keywordIndexMaxChars = lookLogConfig.getKeywordIndexMaxChars();
+
+            Map<String, List<LogDto>> groups = new LinkedHashMap<>();
+
+            for (LogDto logDto : logDtos) {
+                long window = logDto.getCreateTime().getTime() / windowMillis * windowMillis;
+                String key = window + " " + logDto.getTraceId();
+                List<LogDto> group = groups.get(key);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    groups.put(key, group);
+                }
+                group.add(logDto);
+            }
+
+            if (groups.isEmpty()) {
+                return;
+            }
+
+            BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+
+            for (List<LogDto> group : groups.values()) {
+
+                LogDto first = group.get(0);
+                long window = first.getCreateTime().getTime() / windowMillis * windowMillis;
+
+                for (int from = 0; from < group.size(); from += maxLines) {
+
+                    List<LogDto> chunk = group.subList(from, Math.min(group.size(), from + maxLines));
+
+                    BasicDBList lines = new BasicDBList();
+                    Set<String> levels = new LinkedHashSet<>();
+                    Set<String> grams = new LinkedHashSet<>();
+                    Date minTime = null;
+                    Date maxTime = null;
+
+                    for (LogDto logDto : chunk) {
+
+                        Date createTime = logDto.getCreateTime();
+
+                        lines.add(LogDocument.line(logDto, createTime));
+
+                        levels.add(logDto.getLogLevel());
+
+                        if (keywordIndexMaxChars > 0) {
+                            grams.addAll(KeywordGrams.index(logDto.getFormattedMessage(), keywordIndexMaxChars));
+                        }
+
+                        if (minTime == null || createTime.before(minTime)) {
+                            minTime = createTime;
+                        }
+                        if (maxTime == null || createTime.after(maxTime)) {
+                            maxTime = createTime;
+                        }
+                    }
+
+                    /**
+                     * A Chunk Big Enough Is Pushed As One Compressed Block Instead Of Its Lines
+                     */
+                    if (lookLogConfig.isCompression() && LogBlock.chars(chunk) >= lookLogConfig.getCompressionMinBytes()) {
+                        lines = new BasicDBList();
+                        lines.add(new BasicDBObject(LogDocument.TIME, minTime).append(LogDocument.BLOCK, LogBlock.encode(chunk, true)));
+                    }
+
+                    BasicDBObject query = new BasicDBObject(LogDocument.TRACE_ID, first.getTraceId())
+                            .append(LogDocument.WINDOW, new Date(window))
+                            .append(LogDocument.COUNT, new BasicDBObject(QueryOperators.LTE, maxLines - chunk.size()));
+
+                    BasicDBObject addToSet = new BasicDBObject(LogDocument.LEVEL, new BasicDBObject("$each", new ArrayList<>(levels)));
+                    if (!grams.isEmpty()) {
+                        addToSet.append(LogDocument.GRAMS, new BasicDBObject("$each", new ArrayList<>(grams)));
+                    }
+
+                    /**
+                     * TIME Holds The Latest Line, So The TTL Index Expires A Bucket After Its Last Line
+                     */
+                    BasicDBObject update = new BasicDBObject("$push", new BasicDBObject(LogDocument.LINES, new BasicDBObject("$each", lines)))
+                            .append("$inc", new BasicDBObject(LogDocument.COUNT, chunk.size()))
+                            .append("$min", new BasicDBObject(LogDocument.MIN_TIME, minTime))
+                            .append("$max", new BasicDBObject(LogDocument.TIME, maxTime))
+                            .append("$addToSet", addToSet);
+
+                    bulk.find(query).upsert().updateOne(update);
+                }
+            }
+
+            bulk.execute();
+        }
+
+        /**
+         * Unpacks The Matching Lines Of The Buckets In {createTime, Bucket _id, Offset} Order, Keeping The First limit Ones After The Cursor.
+         * Buckets Come In Order Of Their Last Line (TIME), But Buckets Of Different Traces Overlap,
+         * So Reading Goes On While A Later Bucket Could Still Hold A Line Ahead Of The limit-th One :
+         * Descending, Every Later Bucket Ends At Or Before The Next One's TIME;
+         * Ascending, Every Later Bucket Starts At Or After The Window Of The Next One's TIME (mongoDbBucketSeconds)
+         */
+        @SuppressWarnings("unchecked")
+        private List<DBObject> readBuckets(DBCursor dbCursor, Date startTime, Date endTime, String[] level, Pattern keyword,
+                                           final int direction, int limit, LineKey after) {
+
+            Set<String> levels = level != null && level.length > 0 ? new HashSet<>(Arrays.asList(level)) : null;
+
+            long windowMillis = lookLogConfig.getMongoDbBucketSeconds() * 1000L;
+
+            Comparator<DBObject> byTime = new Comparator<DBObject>() {
+                @Override
+                public int compare(DBObject o1, DBObject o2) {
+                    return direction * LineKey.of(o1).compareTo(LineKey.of(o2));
+                }
+            };
+
+            List<DBObject> matched = new ArrayList<>();
+
+            while (dbCursor.hasNext()) {
+
+                DBObject bucket = dbCursor.next();
+
+                if (limit > 0 && matched.size() >= limit) {
+
+                    long last = LogDocument.millis(matched.get(limit - 1).get(LogDocument.TIME));
+                    long bucketTime = LogDocument.millis(bucket.get(LogDocument.TIME));
+
+                    if (direction < 0 ? bucketTime < last : bucketTime / windowMillis * windowMillis > last) {
+                        break;
+                    }
+                }
+
+                List<DBObject> lines = expand((List<DBObject>) bucket.get(LogDocument.LINES));
+
+                for (int offset = 0; offset < lines.size(); offset++) {
+
+                    DBObject line = lines.get(offset);
+                    line.put("_id", bucket.get("_id"));
+                    line.put(LogDocument.OFFSET, offset);
+
+                    if (after != null && direction * LineKey.of(line).compareTo(after) <= 0) {
+                        continue;
+                    }
+
+                    long createTime = LogDocument.millis(line.get(LogDocument.TIME));
+
+                    if (startTime != null && createTime < startTime.getTime()) {
+                        continue;
+                    }
+                    if (endTime != null && createTime > endTime.getTime()) {
+                        continue;
+                    }
+                    if (levels != null && !levels.contains(line.get(LogDocument.LEVEL))) {
+                        continue;
+                    }
+                    if (keyword != null && !keyword.matcher((String) line.get(LogDocument.MESSAGE)).find()) {
+                        continue;
+                    }
+
+                    line.put(LogDocument.TRACE_ID, bucket.get(LogDocument.TRACE_ID));
+                    matched.add(line);
+                }
+
+                /**
+                 * Equal Times Are Ordered By Bucket And Offset, The Same On Every Page
+                 */
+                if (matched.size() >= limit) {
+                    Collections.sort(matched, byTime);
+                    matched = new ArrayList<>(matched.subList(0, limit));
+                }
+            }
+
+            Collections.sort(matched, byTime);
+
+            return matched.size() > limit ? matched.subList(0, limit) : matched;
+        }
+
+        /**
+         * Lines Of A Bucket With Its Compressed Blocks Unpacked In Place
+         */
+        private static List<DBObject> expand(List<DBObject> lines) {
+
+            List<DBObject> expanded = new ArrayList<>(lines.size());
+
+            for (DBObject line : lines) {
+
+                byte[] block = (byte[]) line.get(LogDocument.BLOCK);
+
+                if (block == null) {
+                    expanded.add(line);
+                    continue;
+                }
+
+                LogBlock logBlock = LogBlock.decode(block);
+                for (int i = 0; i < logBlock.size(); i++) {
+                    expanded.add(new BasicDBObject(LogDocument.TIME, logBlock.times[i])
+                            .append(LogDocument.LEVEL, logBlock.levels[i])
+                            .append(LogDocument.MESSAGE, logBlock.messages[i]));
+                }
+            }
+
+            return expanded;
+        }
+
+        /**
+         * The Single Collection Is Expired By A TTL Index, Partitions Are Dropped Whole
+         */
+        private boolean ttl() {
+            return lookLogConfig.getMongoDbPartition() == MongoDbPartition.NONE
+                    && lookLogConfig.getCachedSecond() != null && lookLogConfig.getCachedSecond() > 0;
+        }
+
+        /**
+         * The Collection (Or Partition Prefix) Of The Short Field Layout, Never The One Earlier Versions Wrote
+         */
+        private String baseName() {
+            return lookLogConfig.getMongoDbCollectionName() + LogDocument.COLLECTION_SUFFIX;
+        }
+
+        /**
+         * The Collection Earlier Versions Wrote Under The Configured Name Isn't Read Any More, Its createTime TTL Index Still Empties It.
+         * Drop It Once It Is Empty, So The Old Collection And Its Index Don't Stay Behind
+         */
+        private void dropLegacyCollection() {
+
+            String legacyName = lookLogConfig.getMongoDbCollectionName();
+
+            if (!mongoTemplate.collectionExists(legacyName)) {
+                return;
+            }
+
+            if (mongoTemplate.getCollection(legacyName).count() == 0) {
+                mongoTemplate.dropCollection(legacyName);
+                return;
+            }
+
+            System.err.println("LookLogAppender : collection " + legacyName + " holds logs of the old layout, they are no longer read, "
+                    + "new logs go to " + baseName() + ", the old collection is dropped at a later start once empty");
+        }
+
+        /**
+         * Exact Value Or Anchored Prefix Keep The TraceId Index Usable, Only CONTAINS Scans It
+         */
+        private Object traceIdCondition(String traceId) {
+
+            switch (lookLogConfig.getTraceIdMatch()) {
+                case EXACT:
+                    return traceId;
+                case CONTAINS:
+                    return Pattern.compile(escapeRegex(traceId), Pattern.CASE_INSENSITIVE);
+                default:
+                    return Pattern.compile("^" + escapeRegex(traceId));
+            }
+        }
+
+        /**
+         * Backslash Escaping Rather Than Pattern.quote, So The Server Still Recognizes A Simple Prefix
+         */
+        private static String escapeRegex(String value) {
+
+            StringBuilder sb = new StringBuilder(value.length() + 8);
+
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (!Character.isLetterOrDigit(c) && c != '_' && c != '-') {
+                    sb.append('\\');
+                }
+                sb.append(c);
+            }
+
+            return sb.toString();
+        }
+
+        /**
+         * Place Of A Line In The {createTime, _id} Order Of A Query, The Lines Of A Bucket Share Its _id And Follow Their Offset In It
+         */
+        private static class LineKey implements Comparable<LineKey> {
+
+            private final long time;
+
+            private final ObjectId id;
+
+            private final int offset;
+
+            private LineKey(long time, ObjectId id, int offset) {
+                this.time = time;
+                this.id = id;
+                this.offset = offset;
+            }
+
+            private static LineKey of(DBObject dbObject) {
+                Object offset = dbObject.get(LogDocument.OFFSET);
+                return new LineKey(LogDocument.millis(dbObject.get(LogDocument.TIME)), (ObjectId) dbObject.get("_id"),
+                        offset == null ? 0 : ((Number) offset).intValue());
+            }
+
+            /**
+             * @return the key of the token, null if there is no token
+             * @throws IllegalArgumentException if the token is malformed or was read in the other order
+             */
+            private static LineKey decode(String token, boolean descending) {
+
+                String[] after = LogCursor.decode(token, descending, 3);
+
+                if (after == null) {
+                    return null;
+                }
+
+                if (!ObjectId.isValid(after[1])) {
+                    throw new IllegalArgumentException("malformed cursor");
+                }
+
+                return new LineKey(LogCursor.longAt(after, 0), new ObjectId(after[1]), (int) LogCursor.longAt(after, 2));
+            }
+
+            private String encode(boolean descending) {
+                return LogCursor.encode(descending, time, id.toHexString(), offset);
+            }
+
+            @Override
+            public int compareTo(LineKey other) {
+                int compare = Long.compare(time, other.time);
+                if (compare == 0) {
+                    compare = id.compareTo(other.id);
+                }
+                return compare != 0 ? compare : Integer.compare(offset, other.offset);
+            }
         }
     }
 
@@ -19,6 +19,21 @@ public class LookLogConfig {
 
 
 
+    /**
+     * Capture log from the logging event directly, instead of encoding it by the pattern
+     * in looklog.xml and splitting the encoded message.
+     */
+    private boolean structuredCapture = false;
+
+
+
+    /**
+     * Bean Name Of The CacheOperator : mongoDbCacheOperator, redisCacheOperator, embeddedCacheOperator Or segmentCacheOperator
+     */
+    private String cacheOperator = "mongoDbCacheOperator";
+
+
+
     /**
      * Log cached time, Unit is second.
      *
@@ -46,6 +61,97 @@ public class LookLogConfig {
     private Integer queueSize = 10000;
 
 
+    /**
+     * What To Do When The Buffer Is Full, DROP_NEWEST, DROP_OLDEST, SHED_LOWER_LEVELS Or BLOCK
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+
+
+    /**
+     * With SHED_LOWER_LEVELS, Logs Below WARN Are Dropped Once The Buffer Is Filled Up To This Ratio
+     */
+    private double overflowShedRatio = 0.8;
+
+
+    /**
+     * With BLOCK, Max Time The Logging Thread Waits For Room, Unit Is Millisecond
+     */
+    private long overflowBlockMillis = 10L;
+
+
+    /**
+     * Number Of Consumer Threads Writing To The Cache, Logs Are Sharded To Them By TraceId
+     */
+    private int consumerThreads = 1;
+
+
+    /**
+     * The Buffer Between Logging Threads And The Consumer Thread, QUEUE Or RING_BUFFER
+     */
+    private LogBuffer.Type bufferType = LogBuffer.Type.QUEUE;
+
+
+    /**
+     * How The Consumer Waits On An Empty Ring Buffer, BUSY_SPIN, YIELD Or PARK
+     */
+    private LogRingBuffer.WaitStrategy ringBufferWaitStrategy = LogRingBuffer.WaitStrategy.PARK;
+
+
+    /**
+     * Max Number Of Logs Written To The Cache In One Batch
+     */
+    private int batchSize = 500;
+
+
+    /**
+     * Max Bytes Of Logs Written To The Cache In One Batch, Counted By The Chars Of The Formatted Message
+     */
+    private long batchMaxBytes = 1024 * 1024L;
+
+
+    /**
+     * Max Time To Wait For A Batch To Fill Up Before Writing It, Unit Is Millisecond
+     */
+    private long batchLingerMillis = 100L;
+
+
+    /**
+     * Consecutive Write Failures Before The Circuit Breaker Opens
+     */
+    private int circuitBreakerFailureThreshold = 5;
+
+
+    /**
+     * How Long The Circuit Breaker Stays Open Before A Trial Write, Unit Is Millisecond
+     */
+    private long circuitBreakerOpenMillis = 10000L;
+
+
+    /**
+     * Directory Of The Spill Files Which Hold Logs While The Cache Is Down, Spilling Is Off If Blank
+     */
+    private String spillDirectory;
+
+
+    /**
+     * Max Bytes Of All Spill Files
+     */
+    private long spillMaxBytes = 256 * 1024 * 1024L;
+
+
+    /**
+     * Max Number Of Spilled Logs Replayed In One Batch
+     */
+    private int spillReplayBatchSize = 500;
+
+
+    /**
+     * Pause Between Replay Batches While The Circuit Breaker Probes The Cache, Unit Is Millisecond.
+     * Once It Has Closed, The Spill Is Replayed Batch After Batch Until It Is Empty
+     */
+    private long spillReplayIntervalMillis = 100L;
+
+
     /**
      * The Host Of CacheLog Redis
      */
@@ -104,6 +210,187 @@ public class LookLogConfig {
     private String mongoDbCollectionName;
 
 
+    /**
+     * How The TraceId Of A Query Is Matched : EXACT, PREFIX Or CONTAINS (Full Scan, Fallback Only)
+     */
+    private TraceIdMatch traceIdMatch = TraceIdMatch.PREFIX;
+
+
+    /**
+     * Longest Log Line Indexed Into The Trigram Keyword Index Of MongoDb, Longer Lines Are Always Scanned, 0 Disables The Index
+     */
+    private int keywordIndexMaxChars = 1024;
+
+
+    /**
+     * Layout Of The MongoDb Collection : DOCUMENT (One Document Per Line) Or BUCKET (One Document Per TraceId And Time Window)
+     */
+    private MongoDbLayout mongoDbLayout = MongoDbLayout.DOCUMENT;
+
+
+    /**
+     * Time Window Of A Bucket In The BUCKET Layout
+     */
+    private int mongoDbBucketSeconds = 60;
+
+
+    /**
+     * Max Lines Of A Bucket, A Full Bucket Is Followed By A New One, Keeps Buckets Far From The 16MB Document Limit
+     */
+    private int mongoDbBucketMaxLines = 500;
+
+
+    /**
+     * Time Partitioning Of The MongoDb Collection : NONE (TTL Index), HOUR Or DAY (One Collection Per Period, Dropped Once Expired)
+     */
+    private MongoDbPartition mongoDbPartition = MongoDbPartition.NONE;
+
+
+    /**
+     * Max Bytes Of The Off-Heap Store Of The Embedded Cache, The Oldest Logs Are Evicted Beyond It
+     */
+    private long embeddedMaxBytes = 64 * 1024 * 1024L;
+
+
+    /**
+     * Time Bucket Of The Embedded Cache Time Index, Unit Is Second
+     */
+    private int embeddedTimeBucketSeconds = 60;
+
+
+    /**
+     * Directory Of The Segment Files Of The Local Disk Cache
+     */
+    private String segmentDirectory;
+
+
+    /**
+     * Bytes Of Each Segment File
+     */
+    private int segmentBytes = 64 * 1024 * 1024;
+
+
+    /**
+     * Max Bytes Of All Segment Files, The Oldest Segments Are Deleted Beyond It
+     */
+    private long segmentMaxTotalBytes = 1024 * 1024 * 1024L;
+
+
+    /**
+     * Number Of Records Per Entry Of The Sparse Time Index
+     */
+    private int segmentIndexInterval = 64;
+
+
+    /**
+     * Max Entries Of The Dictionary Coding Thread, Level, Logger And Line In Local Stores, Beyond It Strings Are Stored Inline
+     */
+    private int dictionaryMaxEntries = 65536;
+
+
+    /**
+     * Deflate Lines Before Writing Them To MongoDb Or Redis, Batches Or Buckets Of Lines Are Compressed Together
+     */
+    private boolean compression = false;
+
+
+    /**
+     * Lines Or Batches Shorter Than It (In Chars) Are Kept Uncompressed
+     */
+    private int compressionMinBytes = 512;
+
+
+    /**
+     * Index Redis Lines In Per-Level Sorted Sets Scored By Time, So Condition Queries Work Without A TraceId.
+     * Indexed Lines Are Stored As Blocks, Without It (And Without Compression) List Values Stay Plain Display Lines
+     */
+    private boolean redisIndex = false;
+
+
+    /**
+     * Max Lines Kept Per TraceId In The LIST Layout, Later Lines Are Dropped At Write Time And Counted In A Marker Line, 0 Means No Cap
+     */
+    private int redisTraceMaxLines = 100000;
+
+
+    /**
+     * Layout Of The Redis Store : LIST (One List Per TraceId) Or STREAM (One Capped Stream, Needs Redis 5+)
+     */
+    private RedisLayout redisLayout = RedisLayout.LIST;
+
+
+    /**
+     * Approximate Max Entries Of The Redis Stream, Older Entries Are Trimmed
+     */
+    private long redisStreamMaxLen = 1000000L;
+
+
+    /**
+     * Lines Kept In The Live Tail Ring, A Reconnecting Viewer Resumes From It
+     */
+    private int tailBufferSize = 8192;
+
+
+    /**
+     * Max Concurrent Live Tail Viewers
+     */
+    private int tailMaxClients = 50;
+
+
+    /**
+     * Lines Queued Per Live Tail Viewer, A Viewer That Falls This Far Behind Is Disconnected
+     */
+    private int tailClientQueueSize = 2000;
+
+
+    /**
+     * Max Millis Of One Live Tail Connection, The Browser Reconnects After It, 0 Means No Timeout
+     */
+    private long tailTimeoutMillis = 30 * 60 * 1000L;
+
+
+    /**
+     * Max Cached Query Results, 0 Means No Cache
+     */
+    private int queryCacheEntries = 256;
+
+
+    /**
+     * Max Chars Of Cached Lines, Also Of The Recently Written Lines Kept To Check Them
+     */
+    private long queryCacheMaxChars = 8 * 1024 * 1024L;
+
+
+    /**
+     * Seconds A Cached Query Result Lives At Most
+     */
+    private int queryCacheSeconds = 60;
+
+
+    /**
+     * Max Queries Running Against The Store At Once
+     */
+    private int queryMaxConcurrent = 4;
+
+
+    /**
+     * Max Expensive Queries (Keyword Without traceId Over An Open Or Longer Than An Hour Time Range) Running At Once
+     */
+    private int queryMaxExpensiveConcurrent = 1;
+
+
+    /**
+     * Millis A Query Waits For Its Turn Before It Is Rejected
+     */
+    private long queryQueueMillis = 3000;
+
+
+    /**
+     * Millis A Query May Run In The Store, 0 Means No Limit
+     */
+    private long queryTimeoutMillis = 30000;
+
+
     public boolean isEnable() {
         return enable;
     }
@@ -112,6 +399,22 @@ public class LookLogConfig {
         this.enable = enable;
     }
 
+    public boolean isStructuredCapture() {
+        return structuredCapture;
+    }
+
+    public void setStructuredCapture(boolean structuredCapture) {
+        this.structuredCapture = structuredCapture;
+    }
+
+    public String getCacheOperator() {
+        return cacheOperator;
+    }
+
+    public void setCacheOperator(String cacheOperator) {
+        this.cacheOperator = cacheOperator;
+    }
+
     public Long getCachedSecond() {
         return cachedSecond;
     }
@@ -208,6 +511,126 @@ public class LookLogConfig {
         this.queueSize = queueSize;
     }
 
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public double getOverflowShedRatio() {
+        return overflowShedRatio;
+    }
+
+    public void setOverflowShedRatio(double overflowShedRatio) {
+        this.overflowShedRatio = overflowShedRatio;
+    }
+
+    public long getOverflowBlockMillis() {
+        return overflowBlockMillis;
+    }
+
+    public void setOverflowBlockMillis(long overflowBlockMillis) {
+        this.overflowBlockMillis = overflowBlockMillis;
+    }
+
+    public int getConsumerThreads() {
+        return consumerThreads;
+    }
+
+    public void setConsumerThreads(int consumerThreads) {
+        this.consumerThreads = consumerThreads;
+    }
+
+    public LogBuffer.Type getBufferType() {
+        return bufferType;
+    }
+
+    public void setBufferType(LogBuffer.Type bufferType) {
+        this.bufferType = bufferType;
+    }
+
+    public LogRingBuffer.WaitStrategy getRingBufferWaitStrategy() {
+        return ringBufferWaitStrategy;
+    }
+
+    public void setRingBufferWaitStrategy(LogRingBuffer.WaitStrategy ringBufferWaitStrategy) {
+        this.ringBufferWaitStrategy = ringBufferWaitStrategy;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    public void setBatchMaxBytes(long batchMaxBytes) {
+        this.batchMaxBytes = batchMaxBytes;
+    }
+
+    public long getBatchLingerMillis() {
+        return batchLingerMillis;
+    }
+
+    public void setBatchLingerMillis(long batchLingerMillis) {
+        this.batchLingerMillis = batchLingerMillis;
+    }
+
+    public int getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    public long getCircuitBreakerOpenMillis() {
+        return circuitBreakerOpenMillis;
+    }
+
+    public void setCircuitBreakerOpenMillis(long circuitBreakerOpenMillis) {
+        this.circuitBreakerOpenMillis = circuitBreakerOpenMillis;
+    }
+
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    public void setSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public long getSpillMaxBytes() {
+        return spillMaxBytes;
+    }
+
+    public void setSpillMaxBytes(long spillMaxBytes) {
+        this.spillMaxBytes = spillMaxBytes;
+    }
+
+    public int getSpillReplayBatchSize() {
+        return spillReplayBatchSize;
+    }
+
+    public void setSpillReplayBatchSize(int spillReplayBatchSize) {
+        this.spillReplayBatchSize = spillReplayBatchSize;
+    }
+
+    public long getSpillReplayIntervalMillis() {
+        return spillReplayIntervalMillis;
+    }
+
+    public void setSpillReplayIntervalMillis(long spillReplayIntervalMillis) {
+        this.spillReplayIntervalMillis = spillReplayIntervalMillis;
+    }
+
     public String getMongoDbCollectionName() {
         return mongoDbCollectionName;
     }
@@ -216,6 +639,246 @@ public class LookLogConfig {
         this.mongoDbCollectionName = mongoDbCollectionName;
     }
 
+    public TraceIdMatch getTraceIdMatch() {
+        return traceIdMatch;
+    }
+
+    public void setTraceIdMatch(TraceIdMatch traceIdMatch) {
+        this.traceIdMatch = traceIdMatch;
+    }
+
+    public int getKeywordIndexMaxChars() {
+        return keywordIndexMaxChars;
+    }
+
+    public void setKeywordIndexMaxChars(int keywordIndexMaxChars) {
+        this.keywordIndexMaxChars = keywordIndexMaxChars;
+    }
+
+    public MongoDbLayout getMongoDbLayout() {
+        return mongoDbLayout;
+    }
+
+    public void setMongoDbLayout(MongoDbLayout mongoDbLayout) {
+        this.mongoDbLayout = mongoDbLayout;
+    }
+
+    public int getMongoDbBucketSeconds() {
+        return mongoDbBucketSeconds;
+    }
+
+    public void setMongoDbBucketSeconds(int mongoDbBucketSeconds) {
+        this.mongoDbBucketSeconds = mongoDbBucketSeconds;
+    }
+
+    public int getMongoDbBucketMaxLines() {
+        return mongoDbBucketMaxLines;
+    }
+
+    public void setMongoDbBucketMaxLines(int mongoDbBucketMaxLines) {
+        this.mongoDbBucketMaxLines = mongoDbBucketMaxLines;
+    }
+
+    public MongoDbPartition getMongoDbPartition() {
+        return mongoDbPartition;
+    }
+
+    public void setMongoDbPartition(MongoDbPartition mongoDbPartition) {
+        this.mongoDbPartition = mongoDbPartition;
+    }
+
+    public long getEmbeddedMaxBytes() {
+        return embeddedMaxBytes;
+    }
+
+    public void setEmbeddedMaxBytes(long embeddedMaxBytes) {
+        this.embeddedMaxBytes = embeddedMaxBytes;
+    }
+
+    public int getEmbeddedTimeBucketSeconds() {
+        return embeddedTimeBucketSeconds;
+    }
+
+    public void setEmbeddedTimeBucketSeconds(int embeddedTimeBucketSeconds) {
+        this.embeddedTimeBucketSeconds = embeddedTimeBucketSeconds;
+    }
+
+    public String getSegmentDirectory() {
+        return segmentDirectory;
+    }
+
+    public void setSegmentDirectory(String segmentDirectory) {
+        this.segmentDirectory = segmentDirectory;
+    }
+
+    public int getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    public void setSegmentBytes(int segmentBytes) {
+        this.segmentBytes = segmentBytes;
+    }
+
+    public long getSegmentMaxTotalBytes() {
+        return segmentMaxTotalBytes;
+    }
+
+    public void setSegmentMaxTotalBytes(long segmentMaxTotalBytes) {
+        this.segmentMaxTotalBytes = segmentMaxTotalBytes;
+    }
+
+    public int getSegmentIndexInterval() {
+        return segmentIndexInterval;
+    }
+
+    public void setSegmentIndexInterval(int segmentIndexInterval) {
+        this.segmentIndexInterval = segmentIndexInterval;
+    }
+
+    public int getDictionaryMaxEntries() {
+        return dictionaryMaxEntries;
+    }
+
+    public void setDictionaryMaxEntries(int dictionaryMaxEntries) {
+        this.dictionaryMaxEntries = dictionaryMaxEntries;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public int getCompressionMinBytes() {
+        return compressionMinBytes;
+    }
+
+    public void setCompressionMinBytes(int compressionMinBytes) {
+        this.compressionMinBytes = compressionMinBytes;
+    }
+
+    public boolean isRedisIndex() {
+        return redisIndex;
+    }
+
+    public void setRedisIndex(boolean redisIndex) {
+        this.redisIndex = redisIndex;
+    }
+
+    public int getRedisTraceMaxLines() {
+        return redisTraceMaxLines;
+    }
+
+    public void setRedisTraceMaxLines(int redisTraceMaxLines) {
+        this.redisTraceMaxLines = redisTraceMaxLines;
+    }
+
+    public RedisLayout getRedisLayout() {
+        return redisLayout;
+    }
+
+    public void setRedisLayout(RedisLayout redisLayout) {
+        this.redisLayout = redisLayout;
+    }
+
+    public long getRedisStreamMaxLen() {
+        return redisStreamMaxLen;
+    }
+
+    public void setRedisStreamMaxLen(long redisStreamMaxLen) {
+        this.redisStreamMaxLen = redisStreamMaxLen;
+    }
+
+    public int getTailBufferSize() {
+        return tailBufferSize;
+    }
+
+    public void setTailBufferSize(int tailBufferSize) {
+        this.tailBufferSize = tailBufferSize;
+    }
+
+    public int getTailMaxClients() {
+        return tailMaxClients;
+    }
+
+    public void setTailMaxClients(int tailMaxClients) {
+        this.tailMaxClients = tailMaxClients;
+    }
+
+    public int getTailClientQueueSize() {
+        return tailClientQueueSize;
+    }
+
+    public void setTailClientQueueSize(int tailClientQueueSize) {
+        this.tailClientQueueSize = tailClientQueueSize;
+    }
+
+    public long getTailTimeoutMillis() {
+        return tailTimeoutMillis;
+    }
+
+    public void setTailTimeoutMillis(long tailTimeoutMillis) {
+        this.tailTimeoutMillis = tailTimeoutMillis;
+    }
+
+    public int getQueryCacheEntries() {
+        return queryCacheEntries;
+    }
+
+    public void setQueryCacheEntries(int queryCacheEntries) {
+        this.queryCacheEntries = queryCacheEntries;
+    }
+
+    public long getQueryCacheMaxChars() {
+        return queryCacheMaxChars;
+    }
+
+    public void setQueryCacheMaxChars(long queryCacheMaxChars) {
+        this.queryCacheMaxChars = queryCacheMaxChars;
+    }
+
+    public int getQueryCacheSeconds() {
+        return queryCacheSeconds;
+    }
+
+    public void setQueryCacheSeconds(int queryCacheSeconds) {
+        this.queryCacheSeconds = queryCacheSeconds;
+    }
+
+    public int getQueryMaxConcurrent() {
+        return queryMaxConcurrent;
+    }
+
+    public void setQueryMaxConcurrent(int queryMaxConcurrent) {
+        this.queryMaxConcurrent = queryMaxConcurrent;
+    }
+
+    public int getQueryMaxExpensiveConcurrent() {
+        return queryMaxExpensiveConcurrent;
+    }
+
+    public void setQueryMaxExpensiveConcurrent(int queryMaxExpensiveConcurrent) {
+        this.queryMaxExpensiveConcurrent = queryMaxExpensiveConcurrent;
+    }
+
+    public long getQueryQueueMillis() {
+        return queryQueueMillis;
+    }
+
+    public void setQueryQueueMillis(long queryQueueMillis) {
+        this.queryQueueMillis = queryQueueMillis;
+    }
+
+    public long getQueryTimeoutMillis() {
+        return queryTimeoutMillis;
+    }
+
+    public void setQueryTimeoutMillis(long queryTimeoutMillis) {
+        this.queryTimeoutMillis = queryTimeoutMillis;
+    }
+
     public int getLookLogMaxLimit() {
         return lookLogMaxLimit;
     }
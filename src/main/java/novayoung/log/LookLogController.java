@@ -1,14 +1,23 @@
 package novayoung.log;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Lookup The Log.
@@ -22,6 +31,18 @@ public class LookLogController {
 
     private static final Logger logger = LoggerFactory.getLogger(LookLogController.class);
 
+    /**
+     * A Stream Cut Off Half Way Is Left Unclosed, Not Passed Off As A Complete Array
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+
+    private static final List<String> FIELDS = Arrays.asList("time", "level", "traceId", "message");
+
+    /**
+     * Lines Written Between Flushes Of The Streamed Response
+     */
+    private static final int FLUSH_LINES = 200;
+
 	@Autowired
     private LookLogAppender.CacheLogHandler cacheLogHandler;
 
@@ -37,27 +58,18 @@ public class LookLogController {
                         @RequestParam(value = "traceId", required = false) String traceId,
                         @RequestParam(value = "limit", required = false) Integer limit,
                         @RequestParam(value = "order", required = false) Integer order,
-                        @RequestParam(value = "level", required = false) String[] level
+                        @RequestParam(value = "level", required = false) String[] level,
+                        @RequestParam(value = "cursor", required = false) String cursor
     ) throws ParseException {
 
-        Date startDateTime = StringUtils.isBlank(startTime) ? null : new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(startTime);
-        Date endDateTime   = StringUtils.isBlank(endTime) ? null : new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(endTime);
+        Integer limitParam = limit(limit);
+        Integer orderParam = order(order);
 
-        Integer limitParam = limit;
-        if (limitParam == null) {
-            limitParam = 200;
-        }
+        LookLogAppender.LogLineList logLineList = new LookLogAppender.LogLineList();
 
-        if (limitParam > lookLogConfig.getLookLogMaxLimit()) {
-            limitParam = lookLogConfig.getLookLogMaxLimit();
-        }
-
-        Integer orderParam = order;
-        if (order == null || (orderParam != -1 && orderParam != 1)) {
-            orderParam = -1;
-        }
+        String next = visitLogs(conditions(traceId, keyword, startTime, endTime, level, cursor), orderParam, limitParam, logLineList);
 
-        List<String> contentList = getLogs(traceId, keyword, startDateTime, endDateTime, level, orderParam, limitParam);
+        List<String> contentList = logLineList.lines;
 
         Map<String, Object> renderArgs = new HashMap<>();
         renderArgs.put("keyword", keyword);
@@ -69,23 +81,305 @@ public class LookLogController {
         renderArgs.put("size", contentList.size());
         renderArgs.put("order", orderParam);
         renderArgs.put("limit", limitParam);
+        renderArgs.put("next", next);
+
+        Map<String, Object> stats = cacheLogHandler.getStats();
+        renderArgs.put("dropped", stats.get("droppedTotal"));
+        renderArgs.put("droppedLevels", droppedLevels(stats.get("dropped")));
 
         return TemplateUtil.render("ui.html", renderArgs);
 
     }
 
 
-    private List<String> getLogs(String traceId, String keyword, Date startTime, Date endTime, String[] level, Integer order, Integer limit) {
+    /**
+     * The Same Query For Tools : Lines Are Written As NDJSON (Default) Or A JSON Object's Array While The Store Reads Them,
+     * fields Picks What Each Line Carries (time, level, traceId, message), Gzipped When The Client Accepts It.
+     * A Full Page Ends With The Cursor Of The Next One, The Last NDJSON Line Or The Object's "cursor"
+     */
+    @RequestMapping("/logs")
+    public void logs(
+                        @RequestParam(value = "keyword", required = false) String keyword,
+                        @RequestParam(value = "startTime", required = false) String startTime,
+                        @RequestParam(value = "endTime", required = false) String endTime,
+                        @RequestParam(value = "traceId", required = false) String traceId,
+                        @RequestParam(value = "limit", required = false) Integer limit,
+                        @RequestParam(value = "order", required = false) Integer order,
+                        @RequestParam(value = "level", required = false) String[] level,
+                        @RequestParam(value = "fields", required = false) String[] fields,
+                        @RequestParam(value = "format", required = false) String format,
+                        @RequestParam(value = "cursor", required = false) String cursor,
+                        HttpServletRequest request,
+                        HttpServletResponse response
+    ) throws ParseException, IOException {
+
+        final boolean array = "json".equalsIgnoreCase(format);
+
+        if (StringUtils.isNotBlank(format) && !array && !"ndjson".equalsIgnoreCase(format)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "format must be ndjson or json");
+            return;
+        }
+
+        final Set<String> projection = new HashSet<>(FIELDS);
+
+        if (fields != null && fields.length > 0) {
+            projection.clear();
+            for (String field : fields) {
+                if (!FIELDS.contains(field.trim())) {
+                    response.sendError(HttpServletResponse.SC_BAD_REQUEST, "fields must be among " + FIELDS);
+                    return;
+                }
+                projection.add(field.trim());
+            }
+        }
+
+        Map<String, Object> conditions = conditions(traceId, keyword, startTime, endTime, level, cursor);
+
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+
+        response.setCharacterEncoding("UTF-8");
+        response.setContentType(array ? "application/json" : "application/x-ndjson");
+        response.setHeader("Vary", "Accept-Encoding");
+
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+
+        /**
+         * A Sync Flushing Gzip Stream, So Each Flush Sends What Is Compressed So Far
+         */
+        OutputStream out = gzip ? new GZIPOutputStream(response.getOutputStream(), 8192, true) : response.getOutputStream();
+
+        final JsonGenerator generator = JSON_FACTORY.createGenerator(out);
+        generator.setRootValueSeparator(null);
+
+        try {
+
+            if (array) {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("lines");
+            }
+
+            String next = cacheLogHandler.visitLogs(conditions, order(order), limit(limit), new LookLogAppender.LogLineVisitor() {
+
+                private int count;
+
+                @Override
+                public boolean visit(long createTime, String level, String traceId, String message) {
+                    try {
+
+                        generator.writeStartObject();
+                        if (createTime >= 0 && projection.contains("time")) {
+                            generator.writeNumberField("time", createTime);
+                        }
+                        if (level != null && projection.contains("level")) {
+                            generator.writeStringField("level", level);
+                        }
+                        if (traceId != null && projection.contains("traceId")) {
+                            generator.writeStringField("traceId", traceId);
+                        }
+                        if (message != null && projection.contains("message")) {
+                            generator.writeStringField("message", message);
+                        }
+                        generator.writeEndObject();
+
+                        if (!array) {
+                            generator.writeRaw('\n');
+                        }
+
+                        if (++count % FLUSH_LINES == 0) {
+                            generator.flush();
+                        }
+
+                        return true;
+
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+
+            if (array) {
+                generator.writeEndArray();
+                if (next != null) {
+                    generator.writeStringField("cursor", next);
+                }
+                generator.writeEndObject();
+            } else if (next != null) {
+                generator.writeStartObject();
+                generator.writeStringField("cursor", next);
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+
+        } catch (UncheckedIOException e) {
+
+            /**
+             * The Client Went Away, The Query Has Stopped With It
+             */
+            logger.debug("日志流输出中断", e);
+
+        } catch (LogQueryGovernor.RejectedException e) {
+
+            if (!response.isCommitted()) {
+                response.reset();
+                throw e;
+            }
+
+            /**
+             * Lines Already Went Out, The Stream Ends With The Reason Instead Of A Cursor
+             */
+            logger.info("查询日志中止 : {}", e.getMessage());
+
+            if (array) {
+                generator.writeEndArray();
+                generator.writeStringField("error", e.getMessage());
+                generator.writeEndObject();
+            } else {
+                generator.writeStartObject();
+                generator.writeStringField("error", e.getMessage());
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+
+        } catch (Exception e) {
+
+            logger.warn("查询日志失败", e);
+
+            /**
+             * Nothing Sent Yet, Drop The Buffered Output And Its Headers So The Error Response Goes Out Clean
+             */
+            if (!response.isCommitted()) {
+                response.reset();
+            }
+
+            throw e;
+
+        }
+
+        try {
+            generator.close();
+        } catch (IOException e) {
+            //Ignore
+        }
+    }
+
+
+    /**
+     * Live Tail : Lines Matching traceId, level And keyword Are Pushed As Server-Sent Events While They Are Ingested,
+     * Without Querying The Store. The Browser Resumes With Last-Event-ID After A Reconnect
+     */
+    @RequestMapping("/tail")
+    public SseEmitter tail(
+                        @RequestParam(value = "keyword", required = false) String keyword,
+                        @RequestParam(value = "traceId", required = false) String traceId,
+                        @RequestParam(value = "level", required = false) String[] level,
+                        @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                        HttpServletResponse response
+    ) throws IOException {
+
+        SseEmitter emitter = cacheLogHandler.tail(traceId, level, keyword, lastEventId);
+
+        if (emitter == null) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "lookLog is disabled or too many viewers are tailing");
+        }
+
+        return emitter;
+    }
+
+
+    @RequestMapping("/stats")
+    public Map<String, Object> stats() {
+        return cacheLogHandler.getStats();
+    }
+
+
+    /**
+     * Too Many Queries Running Or The Query Ran Past Its Time Budget, The Store Is Fine
+     */
+    @ExceptionHandler(LogQueryGovernor.RejectedException.class)
+    public void unavailable(LogQueryGovernor.RejectedException e, HttpServletResponse response) throws IOException {
+        response.setHeader("Retry-After", "1");
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+    }
+
+
+    /**
+     * A Malformed Cursor Or Keyword Pattern Is The Caller's Mistake
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    public void badRequest(IllegalArgumentException e, HttpServletResponse response) throws IOException {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+    }
+
+
+    private Map<String, Object> conditions(String traceId, String keyword, String startTime, String endTime, String[] level, String cursor) throws ParseException {
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("traceId", traceId);
+        map.put("keyword", keyword);
+        map.put("startTime", StringUtils.isBlank(startTime) ? null : new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(startTime));
+        map.put("endTime", StringUtils.isBlank(endTime) ? null : new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(endTime));
+        map.put("level", level);
+        map.put("cursor", cursor);
+
+        return map;
+    }
+
+    /**
+     * Levels With Dropped Lines, Such As "INFO 9, WARN 3", Null If None
+     */
+    private String droppedLevels(Object dropped) {
+
+        if (!(dropped instanceof Map)) {
+            return null;
+        }
+
+        List<String> levels = new ArrayList<>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) dropped).entrySet()) {
+            if (entry.getValue() instanceof Number && ((Number) entry.getValue()).longValue() > 0) {
+                levels.add(entry.getKey() + " " + entry.getValue());
+            }
+        }
+
+        return levels.isEmpty() ? null : StringUtils.join(levels, ", ");
+    }
+
+    private Integer limit(Integer limit) {
+
+        Integer limitParam = limit;
+        if (limitParam == null) {
+            limitParam = 200;
+        }
+
+        if (limitParam > lookLogConfig.getLookLogMaxLimit()) {
+            limitParam = lookLogConfig.getLookLogMaxLimit();
+        }
+
+        return limitParam;
+    }
+
+    private Integer order(Integer order) {
+
+        Integer orderParam = order;
+        if (order == null || (orderParam != -1 && orderParam != 1)) {
+            orderParam = -1;
+        }
+
+        return orderParam;
+    }
+
+    private String visitLogs(Map<String, Object> map, Integer order, Integer limit, LookLogAppender.LogLineVisitor visitor) {
         try {
 
-            Map<String, Object> map = new HashMap<>();
-            map.put("traceId", traceId);
-            map.put("keyword", keyword);
-            map.put("startTime", startTime);
-            map.put("endTime", endTime);
-            map.put("level", level);
+            return cacheLogHandler.visitLogs(map, order, limit, visitor);
 
-            return cacheLogHandler.getLogs(map, order, limit);
+        } catch (LogQueryGovernor.RejectedException e) {
+
+            logger.info("查询日志中止 : {}", e.getMessage());
+
+            throw e;
 
         } catch (Exception e) {
 
@@ -0,0 +1,19 @@
+package novayoung.log;
+
+/**
+ * How Log Lines Are Laid Out In The MongoDb Collection
+ *
+ */
+enum MongoDbLayout {
+
+    /**
+     * One Document Per Line
+     */
+    DOCUMENT,
+
+    /**
+     * One Document Per TraceId And Time Window, Lines Are Pushed Into Its "lines" Array
+     */
+    BUCKET
+
+}
@@ -0,0 +1,80 @@
+package novayoung.log;
+
+import org.apache.commons.lang.time.FastDateFormat;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Time Partitioning Of The MongoDb Collection, Each Partition Is A Collection Named "baseName_suffix"
+ *
+ */
+enum MongoDbPartition {
+
+    /**
+     * A Single Collection, Expired By The TTL Index
+     */
+    NONE(null, 0),
+
+    /**
+     * One Collection Per Hour, Suffix yyyyMMddHH
+     */
+    HOUR("yyyyMMddHH", Calendar.HOUR_OF_DAY),
+
+    /**
+     * One Collection Per Day, Suffix yyyyMMdd
+     */
+    DAY("yyyyMMdd", Calendar.DAY_OF_MONTH);
+
+    private final String pattern;
+
+    private final int calendarField;
+
+    MongoDbPartition(String pattern, int calendarField) {
+        this.pattern = pattern;
+        this.calendarField = calendarField;
+    }
+
+    /**
+     * The Partition Collection Holding The Given Time
+     */
+    String collectionName(String baseName, Date time) {
+        return baseName + "_" + FastDateFormat.getInstance(pattern).format(time);
+    }
+
+    /**
+     * Start Time Of The Partition Collection, Null When It Is Not A Partition Of baseName
+     */
+    Date start(String baseName, String collectionName) {
+
+        String prefix = baseName + "_";
+
+        if (!collectionName.startsWith(prefix) || collectionName.length() != prefix.length() + pattern.length()) {
+            return null;
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setLenient(false);
+
+        try {
+            return format.parse(collectionName.substring(prefix.length()));
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Start Time Of The Following Partition, The Exclusive End Of The Given One
+     */
+    Date next(Date start) {
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(start);
+        calendar.add(calendarField, 1);
+
+        return calendar.getTime();
+    }
+
+}
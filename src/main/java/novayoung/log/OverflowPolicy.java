@@ -0,0 +1,30 @@
+package novayoung.log;
+
+/**
+ * What To Do When The Log Buffer Is Full
+ *
+ */
+enum OverflowPolicy {
+
+    /**
+     * Drop The Incoming Log
+     */
+    DROP_NEWEST,
+
+    /**
+     * Drop The Oldest Buffered Log To Make Room, Only The QUEUE Buffer Supports It,
+     * The RING_BUFFER Falls Back To DROP_NEWEST
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop Logs Below WARN Once The Buffer Is Filled Up To The Shed Ratio, So WARN And ERROR Keep The Rest Room
+     */
+    SHED_LOWER_LEVELS,
+
+    /**
+     * Block The Logging Thread Until There Is Room, At Most The Block Timeout, Then Drop The Incoming Log
+     */
+    BLOCK
+
+}
@@ -0,0 +1,84 @@
+package novayoung.log;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LogBuffer Backed By A LinkedBlockingQueue
+ *
+ */
+class QueueLogBuffer implements LogBuffer {
+
+    private final BlockingQueue<LookLogAppender.LogDto> queue;
+
+    private final int capacity;
+
+    QueueLogBuffer(int capacity) {
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.capacity = capacity;
+    }
+
+    @Override
+    public boolean offer(LookLogAppender.LogDto logDto) {
+        return queue.offer(logDto);
+    }
+
+    @Override
+    public boolean offer(ILoggingEvent event) {
+        LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+        logDto.capture(event);
+        return queue.offer(logDto);
+    }
+
+    @Override
+    public boolean offer(LookLogAppender.LogDto logDto, long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.offer(logDto, timeout, unit);
+    }
+
+    @Override
+    public boolean offer(ILoggingEvent event, long timeout, TimeUnit unit) throws InterruptedException {
+        LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+        logDto.capture(event);
+        return queue.offer(logDto, timeout, unit);
+    }
+
+    @Override
+    public LookLogAppender.LogDto evictOldest() {
+        return queue.poll();
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public LookLogAppender.LogDto take() throws InterruptedException {
+        return queue.take();
+    }
+
+    @Override
+    public LookLogAppender.LogDto poll() {
+        return queue.poll();
+    }
+
+    @Override
+    public LookLogAppender.LogDto poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    @Override
+    public void release() {
+
+        //Do Nothing, Polled Logs Are Never Reused !
+
+    }
+}
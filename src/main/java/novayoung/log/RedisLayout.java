@@ -0,0 +1,19 @@
+package novayoung.log;
+
+/**
+ * How Log Lines Are Laid Out In Redis
+ *
+ */
+enum RedisLayout {
+
+    /**
+     * One List Per TraceId, Expired With cachedSecond
+     */
+    LIST,
+
+    /**
+     * One Stream Of All Lines Capped By An Approximate MAXLEN, Plus One List Of Stream Entry IDs Per TraceId
+     */
+    STREAM
+
+}
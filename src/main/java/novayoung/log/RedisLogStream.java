@@ -0,0 +1,336 @@
+package novayoung.log;
+
+import org.apache.commons.lang.StringUtils;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * The STREAM Layout Of The Redis Store.
+ *
+ * All lines are appended to one stream, "keyPrefix#stream", capped by an approximate MAXLEN, each entry holds
+ * t (createTime), l (level), i (traceId) and m (display line). The list "keyPrefix + traceId" keeps the entry IDs of a trace.
+ * Entry IDs are taken from the Redis clock when a line arrives, the hash "keyPrefix#stream-lag" keeps how far the IDs
+ * have been behind (late : spill replay, an open breaker, a slow clock) or ahead (early) of createTime, so time range reads cover those lines.
+ * The client has no stream commands, so every stream access is a Lua script run by EVALSHA.
+ *
+ */
+class RedisLogStream {
+
+    /**
+     * Stream IDs Are Taken When A Line Reaches Redis, A Little After Its createTime,
+     * So Range Reads Look At Least This Far Past endTime, Or As Far As The Lag Recorded In The Lag Hash, And Filter By createTime
+     */
+    private static final long ID_LAG_MILLIS = 5000L;
+
+    /**
+     * KEYS : stream, lag hash, then one entry ID list per line ("" for lines without traceId)
+     * ARGV : maxlen, expire seconds, then per line createTime, level, traceId, display line
+     * XADD With An Auto ID Isn't Deterministic, So The Script Is Replicated By Its Effects.
+     * A New Largest Lag Is Kept For expire Seconds, As Long As The Lines It Was Seen With Are Queried
+     */
+    private static final String APPEND_SCRIPT =
+            "redis.replicate_commands() " +
+            "local expire = tonumber(ARGV[2]) " +
+            "local clock = redis.call('TIME') " +
+            "local now = tonumber(clock[1]) * 1000 + math.floor(tonumber(clock[2]) / 1000) " +
+            "local late = 0 " +
+            "local early = 0 " +
+            "for i = 3, #KEYS do " +
+            "  local a = (i - 3) * 4 + 3 " +
+            "  local id = redis.call('XADD', KEYS[1], 'MAXLEN', '~', ARGV[1], '*', 't', ARGV[a], 'l', ARGV[a + 1], 'i', ARGV[a + 2], 'm', ARGV[a + 3]) " +
+            "  local lag = now - tonumber(ARGV[a]) " +
+            "  if lag > late then late = lag end " +
+            "  if -lag > early then early = -lag end " +
+            "  if KEYS[i] ~= '' then " +
+            "    redis.call('RPUSH', KEYS[i], id) " +
+            "    if expire > 0 then redis.call('EXPIRE', KEYS[i], expire) end " +
+            "  end " +
+            "end " +
+            "local raised = false " +
+            "if late > tonumber(redis.call('HGET', KEYS[2], 'late') or '0') then redis.call('HSET', KEYS[2], 'late', late) raised = true end " +
+            "if early > tonumber(redis.call('HGET', KEYS[2], 'early') or '0') then redis.call('HSET', KEYS[2], 'early', early) raised = true end " +
+            "if raised and expire > 0 then redis.call('EXPIRE', KEYS[2], expire) end " +
+            "return #KEYS - 2";
+
+    /**
+     * KEYS : entry ID list of the trace, stream
+     * ARGV : start, stop of the ID list
+     * Trimmed entries come back as nil, so replies line up with the ID list
+     */
+    private static final String TRACE_SCRIPT =
+            "local ids = redis.call('LRANGE', KEYS[1], ARGV[1], ARGV[2]) " +
+            "local entries = {} " +
+            "for i, id in ipairs(ids) do " +
+            "  local found = redis.call('XRANGE', KEYS[2], id, id) " +
+            "  entries[i] = found[1] or false " +
+            "end " +
+            "return entries";
+
+    /**
+     * KEYS : stream
+     * ARGV : XRANGE or XREVRANGE, first bound, second bound, count
+     */
+    private static final String RANGE_SCRIPT =
+            "return redis.call(ARGV[1], KEYS[1], ARGV[2], ARGV[3], 'COUNT', ARGV[4])";
+
+    private final LookLogConfig lookLogConfig;
+
+    private final Map<String, String> shas = new HashMap<>();
+
+
+    RedisLogStream(LookLogConfig lookLogConfig) {
+        this.lookLogConfig = lookLogConfig;
+    }
+
+    /**
+     * Load The Scripts Once, EVALSHA Falls Back To EVAL If Redis Lost Them
+     */
+    void init(Jedis jedis) {
+        for (String script : Arrays.asList(APPEND_SCRIPT, TRACE_SCRIPT, RANGE_SCRIPT)) {
+            shas.put(script, jedis.scriptLoad(script));
+        }
+    }
+
+    /**
+     * Append A Batch With One Script Call
+     */
+    void append(Jedis jedis, List<LookLogAppender.LogDto> logDtos) {
+
+        List<String> keys = new ArrayList<>(logDtos.size() + 2);
+        List<String> args = new ArrayList<>(logDtos.size() * 4 + 2);
+
+        keys.add(streamKey());
+        keys.add(lagKey());
+        args.add(String.valueOf(lookLogConfig.getRedisStreamMaxLen()));
+        args.add(String.valueOf(lookLogConfig.getCachedSecond() == null ? 0 : lookLogConfig.getCachedSecond()));
+
+        for (LookLogAppender.LogDto logDto : logDtos) {
+            String traceId = logDto.getTraceId();
+            keys.add(StringUtils.isBlank(traceId) ? "" : lookLogConfig.getKeyPrefix() + traceId);
+            args.add(String.valueOf(logDto.getCreateTime().getTime()));
+            args.add(logDto.getLogLevel() == null ? "" : logDto.getLogLevel());
+            args.add(traceId == null ? "" : traceId);
+            args.add(logDto.getFormattedMessage());
+        }
+
+        eval(jedis, APPEND_SCRIPT, keys, args);
+    }
+
+    /**
+     * Entries Of The Trace, Its ID List From start To stop (Inclusive, Negative From The End), Null Where The Entry Was Trimmed
+     */
+    List<Entry> trace(Jedis jedis, String traceId, long start, long stop) {
+        return entries(eval(jedis, TRACE_SCRIPT,
+                Arrays.asList(lookLogConfig.getKeyPrefix() + traceId, streamKey()),
+                Arrays.asList(String.valueOf(start), String.valueOf(stop))));
+    }
+
+    /**
+     * Reads The Stream In Time Order Page By Page, Filtering By createTime, Level, TraceId And Keyword, Until The Limit,
+     * Starting Past The Entry ID after When Given, Giving Up Past The Deadline
+     */
+    List<Entry> range(Jedis jedis, Date startTime, Date endTime, Set<String> levels, String traceId, Pattern pattern, boolean descending, int max,
+                      String after, long deadline) {
+
+        long start = startTime == null ? 0 : startTime.getTime();
+        long end = endTime == null ? Long.MAX_VALUE : endTime.getTime();
+
+        long[] lag = startTime == null && endTime == null ? null : lag(jedis);
+
+        String low = startTime == null ? "-" : Math.max(0, start - lag[1]) + "-0";
+        String high = endTime == null ? "+" : (end + Math.max(ID_LAG_MILLIS, lag[0])) + "-18446744073709551615";
+
+        if (after != null) {
+            try {
+                if (descending) {
+                    high = previousId(after);
+                } else {
+                    low = nextId(after);
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("malformed cursor", e);
+            }
+            if (high == null) {
+                return new ArrayList<>();
+            }
+        }
+
+        int page = Math.max(max, 100);
+        List<Entry> lines = new ArrayList<>();
+
+        while (lines.size() < max) {
+
+            LogQueryGovernor.checkDeadline(deadline);
+
+            List<Entry> entries = entries(eval(jedis, RANGE_SCRIPT, Collections.singletonList(streamKey()),
+                    Arrays.asList(descending ? "XREVRANGE" : "XRANGE", descending ? high : low, descending ? low : high, String.valueOf(page))));
+
+            for (Entry entry : entries) {
+                if (entry.time >= start && entry.time <= end
+                        && (levels == null || levels.contains(LogDtoCodec.levelName(LogDtoCodec.levelCode(entry.level))))
+                        && (traceId == null || traceId.equals(entry.traceId))
+                        && (pattern == null || pattern.matcher(entry.message).find())) {
+                    lines.add(entry);
+                    if (lines.size() >= max) {
+                        break;
+                    }
+                }
+            }
+
+            if (entries.size() < page) {
+                break;
+            }
+
+            String last = entries.get(entries.size() - 1).id;
+
+            if (descending) {
+                high = previousId(last);
+                if (high == null) {
+                    break;
+                }
+            } else {
+                low = nextId(last);
+            }
+        }
+
+        return lines;
+    }
+
+    private String streamKey() {
+        return lookLogConfig.getKeyPrefix() + "#stream";
+    }
+
+    private String lagKey() {
+        return lookLogConfig.getKeyPrefix() + "#stream-lag";
+    }
+
+    /**
+     * Largest Millis Entry IDs Were Behind (late) And Ahead (early) Of createTime Lately
+     */
+    private long[] lag(Jedis jedis) {
+
+        List<String> values = jedis.hmget(lagKey(), "late", "early");
+        long[] lag = new long[2];
+
+        for (int i = 0; i < lag.length; i++) {
+            String value = values.get(i);
+            lag[i] = value == null ? 0 : Math.max(0, (long) Double.parseDouble(value));
+        }
+
+        return lag;
+    }
+
+    private Object eval(Jedis jedis, String script, List<String> keys, List<String> args) {
+
+        String sha = shas.get(script);
+
+        if (sha != null) {
+            try {
+                return jedis.evalsha(sha, keys, args);
+            } catch (JedisDataException e) {
+                if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                    throw e;
+                }
+            }
+        }
+
+        return jedis.eval(script, keys, args);
+    }
+
+    /**
+     * Stream Replies Are Lists Of [id, [field, value, ...]]
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Entry> entries(Object reply) {
+
+        List<Object> items = (List<Object>) reply;
+        List<Entry> entries = new ArrayList<>(items.size());
+
+        for (Object item : items) {
+
+            if (item == null) {
+                entries.add(null);
+                continue;
+            }
+
+            List<Object> pair = (List<Object>) item;
+            List<Object> fields = (List<Object>) pair.get(1);
+
+            Entry entry = new Entry(string(pair.get(0)));
+
+            for (int i = 0; i + 1 < fields.size(); i += 2) {
+                String value = string(fields.get(i + 1));
+                switch (string(fields.get(i))) {
+                    case "t":
+                        entry.time = Long.parseLong(value);
+                        break;
+                    case "l":
+                        entry.level = value;
+                        break;
+                    case "i":
+                        entry.traceId = value;
+                        break;
+                    case "m":
+                        entry.message = value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            entries.add(entry);
+        }
+
+        return entries;
+    }
+
+    private static String string(Object value) {
+        return value instanceof byte[] ? SafeEncoder.encode((byte[]) value) : String.valueOf(value);
+    }
+
+    /**
+     * The Smallest ID After The Given One, Stream IDs Are "millis-sequence"
+     */
+    private static String nextId(String id) {
+        int split = id.indexOf('-');
+        return id.substring(0, split) + "-" + (Long.parseLong(id.substring(split + 1)) + 1);
+    }
+
+    /**
+     * The Largest ID Before The Given One, Null If There Is None
+     */
+    private static String previousId(String id) {
+
+        int split = id.indexOf('-');
+        long millis = Long.parseLong(id.substring(0, split));
+        long sequence = Long.parseLong(id.substring(split + 1));
+
+        if (sequence > 0) {
+            return millis + "-" + (sequence - 1);
+        }
+
+        return millis > 0 ? (millis - 1) + "-18446744073709551615" : null;
+    }
+
+
+    static class Entry {
+
+        final String id;
+
+        long time;
+
+        String level;
+
+        String traceId;
+
+        String message;
+
+        private Entry(String id) {
+            this.id = id;
+        }
+    }
+}
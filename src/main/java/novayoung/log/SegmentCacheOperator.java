@@ -0,0 +1,448 @@
+package novayoung.log;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Keep Logs In Append-Only Segment Files On Local Disk.
+ *
+ * Writes are sequential appends to the active segment, a full segment is sealed and a new one is rolled.
+ * Retention deletes whole segments, by cachedSecond and by the total bytes of all segments.
+ * Queries skip segments by their time range and traceId bloom filter, and seek by the sparse time index inside.
+ *
+ */
+@Component("segmentCacheOperator")
+public class SegmentCacheOperator implements LookLogAppender.CacheOperator {
+
+    /**
+     * Appended To Segment Files That Can't Be Read Any More
+     */
+    private static final String QUARANTINE_SUFFIX = ".orphaned";
+
+    @Autowired
+    private LookLogConfig lookLogConfig;
+
+    @Autowired
+    private DroppedLogCounter droppedLogCounter;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Oldest First, The Last One Is The Active Segment
+     */
+    private final List<LogSegment> segments = new ArrayList<>();
+
+    private File directory;
+
+    /**
+     * Codes Of Thread, Level, Logger And Line Shared By All Segments, Persisted Next To Them
+     */
+    private LogDictionary dictionary;
+
+
+    @Override
+    public void init() {
+
+        directory = new File(lookLogConfig.getSegmentDirectory());
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IllegalStateException("Can't Create Segment Directory : " + directory);
+        }
+
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return LogSegment.isSegmentFile(name);
+            }
+        });
+
+        if (files != null) {
+            Arrays.sort(files);
+        }
+
+        lock.writeLock().lock();
+        try {
+
+            File dictionaryFile = new File(directory, "dictionary.dat");
+
+            /**
+             * Segments Whose Dictionary Is Lost Can't Be Decoded, They Are Moved Aside, Not Deleted !
+             */
+            if (!dictionaryFile.exists() && files != null && files.length > 0) {
+                for (File file : files) {
+                    quarantine(file);
+                    quarantine(new File(directory, file.getName().replace(".log", ".idx")));
+                }
+                System.err.println("LookLogAppender : " + files.length + " segments in " + directory
+                        + " have no dictionary.dat, renamed to *" + QUARANTINE_SUFFIX);
+                files = null;
+            }
+
+            dictionary = LogDictionary.open(dictionaryFile, lookLogConfig.getDictionaryMaxEntries());
+
+            for (File file : files == null ? new File[0] : files) {
+                segments.add(LogSegment.open(file, bloomBits(), lookLogConfig.getSegmentIndexInterval()));
+            }
+
+
+            /**
+             * Segments Left Unsealed By A Crash Are Sealed, Except The Last One Which Stays Active !
+             */
+            for (int i = 0; i < segments.size() - 1; i++) {
+                if (!segments.get(i).isSealed()) {
+                    segments.get(i).seal();
+                }
+            }
+
+            if (segments.isEmpty() || active().isSealed()) {
+                roll();
+            }
+
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean enable() {
+        return StringUtils.isNotBlank(lookLogConfig.getSegmentDirectory());
+    }
+
+    @Override
+    public void putLog(LookLogAppender.LogDto logDto) {
+        putLogs(Collections.singletonList(logDto));
+    }
+
+    @Override
+    public void putLogs(List<LookLogAppender.LogDto> logDtos) {
+
+        lock.writeLock().lock();
+        try {
+
+            for (LookLogAppender.LogDto logDto : logDtos) {
+
+                byte[] body = LogDtoCodec.encode(logDto, dictionary);
+                long createTime = logDto.getCreateTime() == null ? System.currentTimeMillis() : logDto.getCreateTime().getTime();
+                long traceHash = TraceIdUtil.hash(logDto.getTraceId());
+                int levelCode = LogDtoCodec.levelCode(logDto.getLogLevel());
+
+                /**
+                 * Bigger Than A Whole Segment, No Segment Can Hold It
+                 */
+                if (LogSegment.RECORD_HEADER_SIZE + body.length > lookLogConfig.getSegmentBytes()) {
+                    droppedLogCounter.increment(logDto.getLogLevel());
+                    continue;
+                }
+
+                if (!active().append(body, createTime, traceHash, levelCode)) {
+                    active().seal();
+                    roll();
+                    if (!active().append(body, createTime, traceHash, levelCode)) {
+                        droppedLogCounter.increment(logDto.getLogLevel());
+                    }
+                }
+            }
+
+            retain();
+
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> getLogs(final String traceId) {
+
+        if (StringUtils.isBlank(traceId)) {
+            return getLogs(new HashMap<String, Object>(), -1, lookLogConfig.getLookLogMaxLimit());
+        }
+
+        final List<String> list = new ArrayList<>();
+        final long traceHash = TraceIdUtil.hash(traceId);
+        final int max = lookLogConfig.getLookLogMaxLimit();
+
+        lock.readLock().lock();
+        try {
+
+            for (LogSegment segment : segments) {
+
+                if (!segment.mightContain(traceHash)) {
+                    continue;
+                }
+
+                boolean more = segment.scan(Long.MIN_VALUE, Long.MAX_VALUE, false, new LogSegment.RecordVisitor() {
+                    @Override
+                    public boolean visit(LogSegment segment, int position, long createTime, long hash, int levelCode) {
+                        if (hash == traceHash) {
+                            LookLogAppender.LogDto logDto = segment.read(position, dictionary);
+                            if (traceId.equals(logDto.getTraceId())) {
+                                list.add(logDto.getFormattedMessage());
+                            }
+                        }
+                        return list.size() < max;
+                    }
+                });
+
+                if (!more) {
+                    break;
+                }
+            }
+
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return list;
+    }
+
+    @Override
+    public List<String> getLogs(Map<String, Object> conditions, Integer order, Integer limit) {
+        LookLogAppender.LogLineList logLineList = new LookLogAppender.LogLineList();
+        visitLogs(conditions, order, limit, logLineList);
+        return logLineList.lines;
+    }
+
+    @Override
+    public String visitLogs(Map<String, Object> conditions, Integer order, Integer limit, final LookLogAppender.LogLineVisitor visitor) {
+
+        String keyword = (String) conditions.get("keyword");
+        final String traceId = (String) conditions.get("traceId");
+        Date startTime = (Date) conditions.get("startTime");
+        Date endTime = (Date) conditions.get("endTime");
+        String[] level = (String[]) conditions.get("level");
+
+        final Pattern pattern = StringUtils.isNotBlank(keyword) ? Pattern.compile(keyword) : null;
+        final boolean hasTraceId = StringUtils.isNotBlank(traceId);
+        final long traceHash = TraceIdUtil.hash(traceId);
+        long start = startTime == null ? Long.MIN_VALUE : startTime.getTime();
+        long end = endTime == null ? Long.MAX_VALUE : endTime.getTime();
+
+        final boolean[] levels = level == null || level.length == 0 ? null : new boolean[LogDtoCodec.levelCount()];
+        if (levels != null) {
+            for (String name : level) {
+                levels[LogDtoCodec.levelCode(name)] = true;
+            }
+        }
+
+        final int max = limit == null || limit <= 0 ? lookLogConfig.getLookLogMaxLimit() : limit;
+        boolean descending = order == null || order < 0;
+
+        String[] cursor = LogCursor.decode((String) conditions.get("cursor"), descending, 2);
+        final long deadline = LogQueryGovernor.deadline(conditions);
+
+        /**
+         * Sequence And Position Of The Last Record Examined, Where The Next Chunk Goes On From
+         */
+        final long[] resume = new long[2];
+        boolean resuming = cursor != null;
+
+        if (resuming) {
+            resume[0] = LogCursor.longAt(cursor, 0);
+            resume[1] = LogCursor.longAt(cursor, 1);
+        }
+
+        /**
+         * Sequence And Write Position Of The Active Segment When The Query Started, Records Appended Later Are Not Part Of It
+         */
+        final long[] bound = {-1, -1};
+
+        final LogLineChunk chunk = new LogLineChunk();
+        final int[] scanned = {0};
+        final boolean[] paused = {false};
+
+        LogSegment.RecordVisitor recordVisitor = new LogSegment.RecordVisitor() {
+            @Override
+            public boolean visit(LogSegment segment, int position, long createTime, long hash, int levelCode) {
+
+                if (segment.getSequence() == bound[0] && position >= bound[1]) {
+                    return true;
+                }
+
+                if (chunk.isFull() || scanned[0]++ == LogLineChunk.SCAN) {
+                    paused[0] = true;
+                    return false;
+                }
+
+                resume[0] = segment.getSequence();
+                resume[1] = position;
+
+                if ((hasTraceId && hash != traceHash) || (levels != null && !levels[levelCode])) {
+                    return true;
+                }
+
+                LookLogAppender.LogDto logDto = segment.read(position, dictionary);
+
+                if (hasTraceId && !traceId.equals(logDto.getTraceId())) {
+                    return true;
+                }
+                if (pattern != null && (logDto.getFormattedMessage() == null || !pattern.matcher(logDto.getFormattedMessage()).find())) {
+                    return true;
+                }
+
+                chunk.add(createTime, logDto.getLogLevel(), logDto.getTraceId(), logDto.getFormattedMessage(), segment.getSequence(), position);
+
+                return true;
+            }
+        };
+
+        int count = 0;
+        long lastSequence = -1;
+        long lastPosition = -1;
+        boolean done = false;
+
+        while (!done && count < max) {
+
+            LogQueryGovernor.checkDeadline(deadline);
+            chunk.reset(max - count);
+            scanned[0] = 0;
+            paused[0] = false;
+
+            lock.readLock().lock();
+            try {
+
+                if (segments.isEmpty()) {
+                    break;
+                }
+
+                if (bound[0] < 0) {
+                    bound[0] = active().getSequence();
+                    bound[1] = active().getWritePosition();
+                }
+
+                for (int i = 0; i < segments.size(); i++) {
+
+                    LogSegment segment = segments.get(descending ? segments.size() - 1 - i : i);
+
+                    if (segment.getSequence() > bound[0]) {
+                        continue;
+                    }
+
+                    if (!segment.overlaps(start, end) || (hasTraceId && !segment.mightContain(traceHash))) {
+                        continue;
+                    }
+
+                    /**
+                     * Segments Before The Resume Point Are Passed Over, Its Own Is Scanned From Its Position
+                     */
+                    int after = -1;
+
+                    if (resuming) {
+                        if (descending ? segment.getSequence() > resume[0] : segment.getSequence() < resume[0]) {
+                            continue;
+                        }
+                        if (segment.getSequence() == resume[0]) {
+                            after = (int) resume[1];
+                        }
+                    }
+
+                    if (!segment.scan(start, end, descending, after, recordVisitor)) {
+                        break;
+                    }
+                }
+
+                done = !paused[0];
+
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            resuming = true;
+
+            /**
+             * The Visitor May Write To A Slow Client, Never While Ingest Waits For The Lock
+             */
+            boolean go = chunk.deliver(visitor);
+
+            if (chunk.delivered() > 0) {
+                count += chunk.delivered();
+                lastSequence = chunk.lastPosition();
+                lastPosition = chunk.lastSubPosition();
+            }
+
+            if (!go) {
+                break;
+            }
+        }
+
+        return count >= max ? LogCursor.encode(descending, lastSequence, lastPosition) : null;
+    }
+
+    @Override
+    public void destroy() {
+
+        lock.writeLock().lock();
+        try {
+            if (!segments.isEmpty()) {
+                active().force();
+            }
+            if (dictionary != null) {
+                dictionary.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    private static void quarantine(File file) {
+        if (file.exists() && !file.renameTo(new File(file.getPath() + QUARANTINE_SUFFIX))) {
+            throw new IllegalStateException("Can't Move Aside Segment File : " + file);
+        }
+    }
+
+    private LogSegment active() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private void roll() throws IOException {
+
+        long sequence = segments.isEmpty() ? 0 : active().getSequence() + 1;
+
+        segments.add(LogSegment.create(
+                directory,
+                sequence,
+                lookLogConfig.getSegmentBytes(),
+                bloomBits(),
+                lookLogConfig.getSegmentIndexInterval()));
+    }
+
+    /**
+     * Delete Whole Sealed Segments That Are Expired Or Beyond The Total Bytes
+     */
+    private void retain() {
+
+        Long cachedSecond = lookLogConfig.getCachedSecond();
+        long expireTime = cachedSecond == null || cachedSecond <= 0 ? Long.MIN_VALUE : System.currentTimeMillis() - cachedSecond * 1000L;
+
+        long totalBytes = 0;
+        for (LogSegment segment : segments) {
+            totalBytes += segment.getSize();
+        }
+
+        while (segments.size() > 1 && segments.get(0).isSealed() &&
+                (segments.get(0).getMaxTime() < expireTime || totalBytes > lookLogConfig.getSegmentMaxTotalBytes())) {
+
+            LogSegment segment = segments.remove(0);
+            totalBytes -= segment.getSize();
+            segment.delete();
+        }
+    }
+
+    /**
+     * About 10 Bits Per Record, Assuming 160 Bytes A Record
+     */
+    private int bloomBits() {
+        return Math.max(1024, lookLogConfig.getSegmentBytes() / 16);
+    }
+}
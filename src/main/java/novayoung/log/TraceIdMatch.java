@@ -0,0 +1,46 @@
+package novayoung.log;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * How A TraceId Condition Is Matched Against The Stored TraceIds
+ *
+ */
+enum TraceIdMatch {
+
+    /**
+     * Equal TraceId Only, Served By The Index Directly
+     */
+    EXACT,
+
+    /**
+     * TraceIds Starting With The Given Value, An Anchored Prefix Is Still Served By The Index
+     */
+    PREFIX,
+
+    /**
+     * TraceIds Containing The Given Value Anywhere, Scans The Whole Index, Explicit Fallback Only
+     */
+    CONTAINS;
+
+
+    /**
+     * Match A TraceId Held In Memory, The Same Way The Store Query Would
+     */
+    boolean matches(String traceId, String condition) {
+
+        if (traceId == null) {
+            return false;
+        }
+
+        switch (this) {
+            case EXACT:
+                return traceId.equals(condition);
+            case CONTAINS:
+                return StringUtils.containsIgnoreCase(traceId, condition);
+            default:
+                return traceId.startsWith(condition);
+        }
+    }
+
+}
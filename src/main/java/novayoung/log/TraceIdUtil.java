@@ -11,7 +11,7 @@ import java.util.UUID;
 class TraceIdUtil {
 
 
-    private static final String TRACE_ID = "traceId";
+    static final String TRACE_ID = "traceId";
 
     private static final char[] finalChars = new char[]{'a', 'b', 'c', 'd', 'e', 'f',
             'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p', 'q', 'r', 's',
@@ -49,6 +49,25 @@ class TraceIdUtil {
         return MDC.get(TRACE_ID);
     }
 
+    /**
+     * 64-Bit FNV-1a Hash Of The TraceId, Used As Primitive Index Key
+     */
+    static long hash(String traceId) {
+
+        long hash = 0xcbf29ce484222325L;
+
+        if (traceId == null) {
+            return hash;
+        }
+
+        for (int i = 0; i < traceId.length(); i++) {
+            hash ^= traceId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
     private static String buildTraceId() {
         return uuid(8);
     }
@@ -0,0 +1,221 @@
+package novayoung.log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Batching, Sharding And Overflow Of The Buffers, And What Happens To A Batch When The Store Fails
+ *
+ */
+public class CacheLogHandlerTest {
+
+    private LookLogAppender.CacheLogHandler handler;
+
+    private LookLogConfig lookLogConfig;
+
+    private DroppedLogCounter droppedLogCounter;
+
+    private FailingCacheOperator cacheOperator;
+
+    @Before
+    public void setUp() {
+
+        lookLogConfig = new LookLogConfig();
+        lookLogConfig.setEnable(true);
+
+        droppedLogCounter = new DroppedLogCounter();
+        cacheOperator = new FailingCacheOperator();
+
+        handler = new LookLogAppender.CacheLogHandler();
+        ReflectionTestUtils.setField(handler, "lookLogConfig", lookLogConfig);
+        ReflectionTestUtils.setField(handler, "droppedLogCounter", droppedLogCounter);
+        ReflectionTestUtils.setField(handler, "cacheOperator", cacheOperator);
+        ReflectionTestUtils.setField(handler, "circuitBreaker", new CircuitBreaker(1, 60000));
+    }
+
+    @Test
+    public void drainStopsAtBatchSize() throws Exception {
+
+        lookLogConfig.setBatchSize(3);
+
+        LogBuffer buffer = buffer(10, logs("INFO", "INFO", "INFO", "INFO", "INFO"));
+        List<LookLogAppender.LogDto> batch = new ArrayList<>();
+
+        ReflectionTestUtils.invokeMethod(handler, "drain", buffer, batch);
+
+        assertEquals(3, batch.size());
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    public void drainLingersForLateLogs() throws Exception {
+
+        lookLogConfig.setBatchSize(2);
+        lookLogConfig.setBatchLingerMillis(2000);
+
+        final LogBuffer buffer = buffer(10, logs("INFO"));
+        List<LookLogAppender.LogDto> batch = new ArrayList<>();
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                buffer.offer(logs("WARN").get(0));
+            }
+        });
+        producer.start();
+
+        ReflectionTestUtils.invokeMethod(handler, "drain", buffer, batch);
+        producer.join();
+
+        assertEquals(2, batch.size());
+        assertEquals("WARN", batch.get(1).getLogLevel());
+    }
+
+    @Test
+    public void drainReturnsOnceTheLingerIsOver() throws Exception {
+
+        lookLogConfig.setBatchSize(10);
+        lookLogConfig.setBatchLingerMillis(50);
+
+        List<LookLogAppender.LogDto> batch = new ArrayList<>();
+
+        long start = System.currentTimeMillis();
+        ReflectionTestUtils.invokeMethod(handler, "drain", buffer(10, logs("INFO", "INFO")), batch);
+
+        assertEquals(2, batch.size());
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void oneTraceStaysOnOneShard() {
+
+        LogBuffer[] buffers = new LogBuffer[4];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new QueueLogBuffer(10);
+        }
+        ReflectionTestUtils.setField(handler, "buffers", buffers);
+
+        for (int i = 0; i < 20; i++) {
+            Object shard = ReflectionTestUtils.invokeMethod(handler, "shard", "trace-" + i, "thread-" + i);
+            assertSame(shard, ReflectionTestUtils.invokeMethod(handler, "shard", "trace-" + i, "another-thread"));
+        }
+
+        assertSame(ReflectionTestUtils.invokeMethod(handler, "shard", null, "thread-1"),
+                ReflectionTestUtils.invokeMethod(handler, "shard", "", "thread-1"));
+    }
+
+    @Test
+    public void dropNewestCountsTheIncomingLog() {
+
+        lookLogConfig.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        LogBuffer buffer = buffer(2, logs("INFO", "INFO"));
+
+        ReflectionTestUtils.invokeMethod(handler, "handle", logs("ERROR").get(0));
+
+        assertEquals(2, buffer.size());
+        assertEquals(Long.valueOf(1), droppedLogCounter.snapshot().get("ERROR"));
+    }
+
+    @Test
+    public void shedLowerLevelsKeepsRoomForWarnings() {
+
+        lookLogConfig.setOverflowPolicy(OverflowPolicy.SHED_LOWER_LEVELS);
+        lookLogConfig.setOverflowShedRatio(0.5);
+        LogBuffer buffer = buffer(4, logs("INFO", "INFO"));
+
+        ReflectionTestUtils.invokeMethod(handler, "handle", logs("INFO").get(0));
+        ReflectionTestUtils.invokeMethod(handler, "handle", logs("WARN").get(0));
+        ReflectionTestUtils.invokeMethod(handler, "handle", logs("ERROR").get(0));
+
+        assertEquals(4, buffer.size());
+        assertEquals(1, droppedLogCounter.total());
+        assertEquals(Long.valueOf(1), droppedLogCounter.snapshot().get("INFO"));
+    }
+
+    @Test
+    public void failedBatchIsCountedWithoutSpillFile() {
+
+        ReflectionTestUtils.invokeMethod(handler, "writeLogs", 0, logs("INFO", "WARN", "ERROR"));
+
+        assertEquals(1, cacheOperator.calls);
+        assertEquals(3, droppedLogCounter.total());
+    }
+
+    @Test
+    public void openBreakerCountsWithoutCallingTheStore() {
+
+        ReflectionTestUtils.invokeMethod(handler, "writeLogs", 0, logs("INFO"));
+
+        /**
+         * The First Failure Opened The Breaker, The Next Batch Doesn't Reach The Store
+         */
+        ReflectionTestUtils.invokeMethod(handler, "writeLogs", 0, logs("INFO", "WARN", "WARN"));
+
+        assertEquals(1, cacheOperator.calls);
+        assertEquals(4, droppedLogCounter.total());
+        assertEquals(Long.valueOf(2), droppedLogCounter.snapshot().get("INFO"));
+        assertEquals(Long.valueOf(2), droppedLogCounter.snapshot().get("WARN"));
+    }
+
+
+    /**
+     * The Handler's Only Buffer, Holding The Given Logs
+     */
+    private LogBuffer buffer(int capacity, List<LookLogAppender.LogDto> logDtos) {
+
+        LogBuffer buffer = new QueueLogBuffer(capacity);
+        for (LookLogAppender.LogDto logDto : logDtos) {
+            buffer.offer(logDto);
+        }
+
+        ReflectionTestUtils.setField(handler, "buffers", new LogBuffer[]{buffer});
+
+        return buffer;
+    }
+
+    private static List<LookLogAppender.LogDto> logs(String... levels) {
+
+        List<LookLogAppender.LogDto> logDtos = new ArrayList<>();
+
+        for (String level : levels) {
+            LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+            logDto.setCreateTime(new Date(1000L + logDtos.size()));
+            logDto.setLogLevel(level);
+            logDto.setFormattedMessage("line " + logDtos.size());
+            logDtos.add(logDto);
+        }
+
+        return logDtos;
+    }
+
+    /**
+     * A Store That Is Always Down
+     */
+    private static class FailingCacheOperator extends LookLogAppender.RedisCacheOperator {
+
+        private int calls;
+
+        @Override
+        public boolean enable() {
+            return true;
+        }
+
+        @Override
+        public void putLogs(List<LookLogAppender.LogDto> logDtos) {
+            calls++;
+            throw new IllegalStateException("Store Is Down");
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package novayoung.log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Queries Over The In-Process Store, Its Indexes And Eviction, Paging By Cursor And Results Longer Than A Chunk
+ *
+ */
+public class EmbeddedCacheOperatorTest {
+
+    private static final String[] LEVELS = {"INFO", "WARN", "ERROR"};
+
+    private EmbeddedCacheOperator cacheOperator;
+
+    private long now;
+
+    @Before
+    public void setUp() {
+
+        cacheOperator = cacheOperator(1024 * 1024);
+        now = System.currentTimeMillis();
+    }
+
+    @After
+    public void tearDown() {
+        cacheOperator.destroy();
+    }
+
+    @Test
+    public void traceInWriteOrder() {
+
+        cacheOperator.putLogs(logs(0, 30));
+
+        assertEquals(Arrays.asList("line 1", "line 4", "line 7", "line 10"), cacheOperator.getLogs("trace1").subList(0, 4));
+        assertEquals(10, cacheOperator.getLogs("trace1").size());
+        assertTrue(cacheOperator.getLogs("trace9").isEmpty());
+    }
+
+    @Test
+    public void conditionsCombine() {
+
+        cacheOperator.putLogs(logs(0, 30));
+
+        Map<String, Object> conditions = new HashMap<>();
+        conditions.put("level", new String[]{"WARN"});
+        conditions.put("startTime", new Date(now + 10));
+        conditions.put("endTime", new Date(now + 20));
+
+        assertEquals(Arrays.asList("line 10", "line 13", "line 16", "line 19"), cacheOperator.getLogs(conditions, 1, 100));
+        assertEquals(Arrays.asList("line 19", "line 16"), cacheOperator.getLogs(conditions, -1, 2));
+
+        conditions.put("keyword", "line 1[36]");
+        assertEquals(Arrays.asList("line 13", "line 16"), cacheOperator.getLogs(conditions, 1, 100));
+    }
+
+    @Test
+    public void pagesByCursorCoverEveryLineOnce() {
+
+        cacheOperator.putLogs(logs(0, 50));
+
+        for (int order : new int[]{1, -1}) {
+
+            List<String> expected = cacheOperator.getLogs(new HashMap<String, Object>(), order, 100);
+
+            List<String> paged = new ArrayList<>();
+            String cursor = null;
+
+            do {
+                Map<String, Object> conditions = new HashMap<>();
+                conditions.put("cursor", cursor);
+                LookLogAppender.LogLineList page = new LookLogAppender.LogLineList();
+                cursor = cacheOperator.visitLogs(conditions, order, 7, page);
+                paged.addAll(page.lines);
+            } while (cursor != null);
+
+            assertEquals(50, expected.size());
+            assertEquals(expected, paged);
+        }
+    }
+
+    @Test
+    public void resultsLongerThanAChunkComeBackWhole() {
+
+        cacheOperator.putLogs(logs(0, 10000));
+
+        List<String> all = cacheOperator.getLogs(new HashMap<String, Object>(), 1, 10000);
+        assertEquals(10000, all.size());
+        assertEquals("line 0", all.get(0));
+        assertEquals("line 9999", all.get(9999));
+
+        List<String> trace = cacheOperator.getLogs(Collections.<String, Object>singletonMap("traceId", "trace1"), -1, 10000);
+        assertEquals(3333, trace.size());
+        assertEquals("line 9997", trace.get(0));
+        assertEquals("line 1", trace.get(3332));
+
+        /**
+         * One Match Past Several Chunks Of Records Examined
+         */
+        assertEquals(Collections.singletonList("line 9999"), cacheOperator.getLogs(Collections.<String, Object>singletonMap("keyword", "line 9999$"), 1, 10));
+    }
+
+    @Test
+    public void oldestLinesAreEvictedWhenFull() {
+
+        cacheOperator.destroy();
+        cacheOperator = cacheOperator(4096);
+
+        cacheOperator.putLogs(logs(0, 500));
+
+        List<String> lines = cacheOperator.getLogs(new HashMap<String, Object>(), 1, 1000);
+
+        assertTrue(lines.size() < 500);
+        assertEquals("line 499", lines.get(lines.size() - 1));
+        assertEquals("line " + (500 - lines.size()), lines.get(0));
+        assertEquals(Collections.singletonList("line 499"), cacheOperator.getLogs(Collections.<String, Object>singletonMap("traceId", "trace1"), -1, 1));
+    }
+
+
+    private static EmbeddedCacheOperator cacheOperator(long maxBytes) {
+
+        LookLogConfig lookLogConfig = new LookLogConfig();
+        lookLogConfig.setEmbeddedMaxBytes(maxBytes);
+
+        EmbeddedCacheOperator cacheOperator = new EmbeddedCacheOperator();
+        ReflectionTestUtils.setField(cacheOperator, "lookLogConfig", lookLogConfig);
+        ReflectionTestUtils.setField(cacheOperator, "droppedLogCounter", new DroppedLogCounter());
+        cacheOperator.init();
+
+        return cacheOperator;
+    }
+
+    private List<LookLogAppender.LogDto> logs(int from, int to) {
+
+        List<LookLogAppender.LogDto> logDtos = new ArrayList<>();
+
+        for (int i = from; i < to; i++) {
+            LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+            logDto.setCreateTime(new Date(now + i));
+            logDto.setTraceId("trace" + (i % 3));
+            logDto.setLogLevel(LEVELS[i % 3]);
+            logDto.setFormattedMessage("line " + i);
+            logDtos.add(logDto);
+        }
+
+        return logDtos;
+    }
+}
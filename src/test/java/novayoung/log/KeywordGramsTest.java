@@ -0,0 +1,61 @@
+package novayoung.log;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Trigrams Indexed For A Line And Required By A Keyword, A Keyword Must Only Need Grams Its Lines Hold
+ *
+ */
+public class KeywordGramsTest {
+
+    @Test
+    public void distinctLowerCasedTrigrams() {
+        assertEquals(Arrays.asList("abc", "bca", "cab"), list(KeywordGrams.index("ABCabc", 100)));
+    }
+
+    @Test
+    public void shortTextHasNoTrigrams() {
+        assertTrue(KeywordGrams.index("ab", 100).isEmpty());
+        assertTrue(KeywordGrams.index(null, 100).isEmpty());
+    }
+
+    @Test
+    public void longTextIsOnlyMarkedUnindexed() {
+        assertEquals(Collections.singletonList(KeywordGrams.UNINDEXED), list(KeywordGrams.index("abcdef", 5)));
+        assertEquals(4, KeywordGrams.index("abcdef", 6).size());
+    }
+
+    @Test
+    public void keywordGramsAreASubsetOfTheLineGrams() {
+
+        String line = "2017-01-10 06:13:20.123 [main] INFO n.log.LogService - Order 中文订单 Paid";
+
+        Collection<String> lineGrams = KeywordGrams.index(line, 1024);
+
+        for (String keyword : new String[]{"order", "LogService", "中文订", "Paid", "ice - Or"}) {
+            assertTrue(keyword, lineGrams.containsAll(KeywordGrams.query(keyword)));
+        }
+
+        assertFalse(lineGrams.containsAll(KeywordGrams.query("refund")));
+    }
+
+    @Test
+    public void indexCantAnswerShortOrRegexKeywords() {
+        assertNull(KeywordGrams.query(null));
+        assertNull(KeywordGrams.query("ab"));
+        assertNull(KeywordGrams.query("order.*paid"));
+        assertNull(KeywordGrams.query("a|bcd"));
+        assertNull(KeywordGrams.query("(abc)"));
+    }
+
+
+    private static Object list(Collection<String> grams) {
+        return Arrays.asList(grams.toArray());
+    }
+}
@@ -0,0 +1,93 @@
+package novayoung.log;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round Trip Of Stored And Deflated Blocks, And Telling Blocks From Plain Lines
+ *
+ */
+public class LogBlockTest {
+
+    @Test
+    public void storedBlockKeepsEveryLine() {
+
+        List<LookLogAppender.LogDto> logDtos = logs(3);
+
+        byte[] bytes = LogBlock.encode(logDtos, false);
+        assertTrue(LogBlock.isBlock(bytes));
+
+        assertLines(logDtos, LogBlock.decode(bytes));
+    }
+
+    @Test
+    public void deflatedBlockKeepsEveryLineAndIsSmaller() {
+
+        List<LookLogAppender.LogDto> logDtos = logs(200);
+
+        byte[] stored = LogBlock.encode(logDtos, false);
+        byte[] deflated = LogBlock.encode(logDtos, true);
+
+        assertTrue(LogBlock.isBlock(deflated));
+        assertTrue(deflated.length * 4 < stored.length);
+
+        assertLines(logDtos, LogBlock.decode(deflated));
+    }
+
+    @Test
+    public void missingLevelIsEmpty() {
+
+        List<LookLogAppender.LogDto> logDtos = logs(1);
+        logDtos.get(0).setLogLevel(null);
+
+        assertEquals("", LogBlock.decode(LogBlock.encode(logDtos, true)).levels[0]);
+    }
+
+    @Test
+    public void plainLinesAreNotBlocks() {
+
+        assertFalse(LogBlock.isBlock(null));
+        assertFalse(LogBlock.isBlock(new byte[0]));
+        assertFalse(LogBlock.isBlock("LB plain line 中文".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(LogBlock.isBlock(new byte[]{0, 'L'}));
+    }
+
+    @Test
+    public void charsCountsDisplayLines() {
+        assertEquals(3 * "line 0 ".length() + 3 * 40, LogBlock.chars(logs(3)));
+    }
+
+
+    private static List<LookLogAppender.LogDto> logs(int count) {
+
+        List<LookLogAppender.LogDto> logDtos = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+            logDto.setCreateTime(new Date(1484000000000L + i));
+            logDto.setLogLevel(i % 2 == 0 ? "INFO" : "WARN");
+            logDto.setFormattedMessage("line " + (i % 10) + " " + StringUtils.repeat("x", 40));
+            logDtos.add(logDto);
+        }
+
+        return logDtos;
+    }
+
+    private static void assertLines(List<LookLogAppender.LogDto> logDtos, LogBlock block) {
+
+        assertEquals(logDtos.size(), block.size());
+
+        for (int i = 0; i < logDtos.size(); i++) {
+            assertEquals(logDtos.get(i).getCreateTime().getTime(), block.times[i]);
+            assertEquals(logDtos.get(i).getLogLevel(), block.levels[i]);
+            assertEquals(logDtos.get(i).getFormattedMessage(), block.messages[i]);
+        }
+    }
+}
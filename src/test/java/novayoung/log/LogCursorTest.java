@@ -0,0 +1,67 @@
+package novayoung.log;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round Trip Of Continuation Tokens, And Rejection Of Tokens Of Another Query
+ *
+ */
+public class LogCursorTest {
+
+    @Test
+    public void positionsRoundTrip() {
+
+        String token = LogCursor.encode(true, 1484000000123L, 42);
+
+        String[] positions = LogCursor.decode(token, true, 2);
+
+        assertEquals(1484000000123L, LogCursor.longAt(positions, 0));
+        assertEquals(42L, LogCursor.longAt(positions, 1));
+    }
+
+    @Test
+    public void tokenIsUrlSafe() {
+        assertTrue(LogCursor.encode(false, "a+b/c=d", 1).matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    public void lastPositionMayHoldColons() {
+
+        String[] positions = LogCursor.decode(LogCursor.encode(false, 7, "12:0:1484000000123:trace:1"), false, 2);
+
+        assertEquals(7L, LogCursor.longAt(positions, 0));
+        assertEquals("12:0:1484000000123:trace:1", positions[1]);
+    }
+
+    @Test
+    public void noTokenIsTheFirstPage() {
+        assertNull(LogCursor.decode(null, true, 1));
+        assertNull(LogCursor.decode(" ", true, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tokenOfTheOtherOrderIsRejected() {
+        LogCursor.decode(LogCursor.encode(true, 1), false, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tokenWithTooFewPositionsIsRejected() {
+        LogCursor.decode(LogCursor.encode(true, 1), true, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void garbageIsRejected() {
+        LogCursor.decode("not base64 !", true, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonNumericPositionIsRejected() {
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString("a:x".getBytes(StandardCharsets.UTF_8));
+        LogCursor.longAt(LogCursor.decode(token, false, 1), 0);
+    }
+}
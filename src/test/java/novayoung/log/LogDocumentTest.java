@@ -0,0 +1,71 @@
+package novayoung.log;
+
+import com.mongodb.BasicDBObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Field Names And Types Of The Hand Written Documents
+ *
+ */
+public class LogDocumentTest {
+
+    private static final Date TIME = new Date(1484000000123L);
+
+    @Test
+    public void lineDocumentHasShortFieldsAndADate() {
+
+        BasicDBObject document = LogDocument.document(log(), TIME, Arrays.asList("abc", "bcd"), null);
+
+        assertEquals("trace-1", document.get(LogDocument.TRACE_ID));
+        assertEquals(TIME, document.get(LogDocument.TIME));
+        assertEquals("INFO", document.get(LogDocument.LEVEL));
+        assertEquals("abcd", document.get(LogDocument.MESSAGE));
+        assertEquals(Arrays.asList("abc", "bcd"), document.get(LogDocument.GRAMS));
+        assertFalse(document.containsField("_class"));
+        assertFalse(document.containsField(LogDocument.BLOCK));
+    }
+
+    @Test
+    public void blockReplacesTheDisplayLine() {
+
+        byte[] block = LogBlock.encode(Collections.singletonList(log()), true);
+
+        BasicDBObject document = LogDocument.document(log(), TIME, null, block);
+
+        assertSame(block, document.get(LogDocument.BLOCK));
+        assertFalse(document.containsField(LogDocument.MESSAGE));
+        assertFalse(document.containsField(LogDocument.GRAMS));
+    }
+
+    @Test
+    public void missingTraceIdIsLeftOut() {
+
+        LookLogAppender.LogDto logDto = log();
+        logDto.setTraceId(null);
+
+        assertFalse(LogDocument.document(logDto, TIME, null, null).containsField(LogDocument.TRACE_ID));
+    }
+
+    @Test
+    public void millisOfDatesAndUnpackedLines() {
+        assertEquals(TIME.getTime(), LogDocument.millis(TIME));
+        assertEquals(TIME.getTime(), LogDocument.millis(TIME.getTime()));
+        assertEquals(-1, LogDocument.millis(null));
+    }
+
+
+    private static LookLogAppender.LogDto log() {
+        LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+        logDto.setCreateTime(TIME);
+        logDto.setTraceId("trace-1");
+        logDto.setLogLevel("INFO");
+        logDto.setFormattedMessage("abcd");
+        return logDto;
+    }
+}
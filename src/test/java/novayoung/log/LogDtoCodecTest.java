@@ -0,0 +1,199 @@
+package novayoung.log;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round Trip Of Both Layouts, Each Record Kind Of The Compact One, And The Dictionary It Codes Against
+ *
+ */
+public class LogDtoCodecTest {
+
+    private static final long TIMESTAMP = 1484000000123L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fullLayoutKeepsEveryField() {
+
+        LookLogAppender.LogDto logDto = joined();
+        logDto.setFormattedMessage("anything, 中文 too");
+
+        LookLogAppender.LogDto decoded = LogDtoCodec.decode(ByteBuffer.wrap(LogDtoCodec.encode(logDto)));
+
+        assertEquals(logDto.getCreateTime(), decoded.getCreateTime());
+        assertEquals(logDto.getFormattedMessage(), decoded.getFormattedMessage());
+        assertEquals(logDto.getTraceId(), decoded.getTraceId());
+        assertEquals(logDto.getTime(), decoded.getTime());
+        assertEquals(logDto.getThread(), decoded.getThread());
+        assertEquals(logDto.getLogLevel(), decoded.getLogLevel());
+        assertEquals(logDto.getLoggerName(), decoded.getLoggerName());
+        assertEquals(logDto.getLine(), decoded.getLine());
+        assertEquals(logDto.getMessage(), decoded.getMessage());
+    }
+
+    @Test
+    public void fullLayoutKeepsNulls() {
+
+        LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+        logDto.setCreateTime(new Date(TIMESTAMP));
+        logDto.setFormattedMessage("only this");
+
+        LookLogAppender.LogDto decoded = LogDtoCodec.decode(ByteBuffer.wrap(LogDtoCodec.encode(logDto)));
+
+        assertEquals("only this", decoded.getFormattedMessage());
+        assertNull(decoded.getTraceId());
+        assertNull(decoded.getMessage());
+    }
+
+    @Test
+    public void formattedKindIsRebuiltFromParts() {
+
+        LogDictionary dictionary = LogDictionary.create(100);
+
+        LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+        logDto.restore(TIMESTAMP, "trace-1", "main", "WARN", "novayoung.log.LogService", "21", "multi\nline 中文");
+
+        LookLogAppender.LogDto decoded = roundTrip(logDto, dictionary);
+
+        assertEquals(TIMESTAMP, decoded.getTimestamp());
+        assertEquals(logDto.getFormattedMessage(), decoded.getFormattedMessage());
+        assertEquals("trace-1", decoded.getTraceId());
+        assertEquals("WARN", decoded.getLogLevel());
+        assertEquals("multi\nline 中文", decoded.getMessage());
+    }
+
+    @Test
+    public void joinedKindIsRebuiltFromParts() {
+
+        LogDictionary dictionary = LogDictionary.create(100);
+
+        LookLogAppender.LogDto logDto = joined();
+
+        byte[] compact = LogDtoCodec.encode(logDto, dictionary);
+        LookLogAppender.LogDto decoded = LogDtoCodec.decode(ByteBuffer.wrap(compact), dictionary);
+
+        assertEquals(logDto.getFormattedMessage(), decoded.getFormattedMessage());
+        assertEquals(logDto.getTime(), decoded.getTime());
+        assertEquals(logDto.getMessage(), decoded.getMessage());
+        assertEquals(logDto.getLoggerName(), decoded.getLoggerName());
+
+        /**
+         * The Display Line Isn't Stored, Only The Parts
+         */
+        assertTrue(compact.length < logDto.getFormattedMessage().length());
+    }
+
+    @Test
+    public void verbatimKindKeepsTheDisplayLine() {
+
+        LogDictionary dictionary = LogDictionary.create(100);
+
+        LookLogAppender.LogDto logDto = joined();
+        logDto.setFormattedMessage("a line not matching the pattern");
+
+        LookLogAppender.LogDto decoded = roundTrip(logDto, dictionary);
+
+        assertEquals("a line not matching the pattern", decoded.getFormattedMessage());
+        assertEquals(logDto.getThread(), decoded.getThread());
+        assertEquals(logDto.getLine(), decoded.getLine());
+    }
+
+    @Test
+    public void fullDictionaryStoresInline() {
+
+        LogDictionary dictionary = LogDictionary.create(2);
+
+        LookLogAppender.LogDto logDto = joined();
+        LookLogAppender.LogDto decoded = roundTrip(logDto, dictionary);
+
+        assertEquals(2, dictionary.size());
+        assertEquals(logDto.getFormattedMessage(), decoded.getFormattedMessage());
+        assertEquals(logDto.getLoggerName(), decoded.getLoggerName());
+        assertEquals(logDto.getLine(), decoded.getLine());
+    }
+
+    @Test
+    public void nullPartsStayNull() {
+
+        LogDictionary dictionary = LogDictionary.create(100);
+
+        LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+        logDto.setCreateTime(new Date(TIMESTAMP));
+        logDto.setFormattedMessage("bare");
+
+        LookLogAppender.LogDto decoded = roundTrip(logDto, dictionary);
+
+        assertEquals("bare", decoded.getFormattedMessage());
+        assertNull(decoded.getTraceId());
+        assertNull(decoded.getThread());
+        assertNull(decoded.getLogLevel());
+    }
+
+    @Test
+    public void persistedDictionaryKeepsItsCodes() throws Exception {
+
+        File file = new File(folder.getRoot(), "dictionary.dat");
+
+        LogDictionary dictionary = LogDictionary.open(file, 100);
+        LookLogAppender.LogDto logDto = joined();
+        byte[] compact = LogDtoCodec.encode(logDto, dictionary);
+        int main = dictionary.code("main");
+        dictionary.close();
+
+        LogDictionary reopened = LogDictionary.open(file, 100);
+
+        assertEquals(dictionary.size(), reopened.size());
+        assertEquals(main, reopened.code("main"));
+        assertEquals(logDto.getFormattedMessage(), LogDtoCodec.decode(ByteBuffer.wrap(compact), reopened).getFormattedMessage());
+
+        reopened.close();
+    }
+
+    @Test
+    public void levelCodes() {
+
+        assertEquals(5, LogDtoCodec.levelCount());
+
+        for (int i = 0; i < LogDtoCodec.levelCount(); i++) {
+            assertEquals(i, LogDtoCodec.levelCode(LogDtoCodec.levelName(i)));
+        }
+
+        assertEquals("WARN", LogDtoCodec.levelName(LogDtoCodec.levelCode(" warn ")));
+        assertEquals("INFO", LogDtoCodec.levelName(LogDtoCodec.levelCode("FATAL")));
+        assertEquals("INFO", LogDtoCodec.levelName(LogDtoCodec.levelCode(null)));
+    }
+
+
+    private static LookLogAppender.LogDto roundTrip(LookLogAppender.LogDto logDto, LogDictionary dictionary) {
+        return LogDtoCodec.decode(ByteBuffer.wrap(LogDtoCodec.encode(logDto, dictionary)), dictionary);
+    }
+
+    /**
+     * A Log As Parsed From The looklog.xml Pattern, The Display Line Is Its Parts Joined
+     */
+    private static LookLogAppender.LogDto joined() {
+
+        LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+        logDto.setCreateTime(new Date(TIMESTAMP));
+        logDto.setTime("2017-01-10 06:13:20.123");
+        logDto.setThread("http-nio-8080-exec-1");
+        logDto.setTraceId("trace-1");
+        logDto.setLogLevel("INFO");
+        logDto.setLoggerName("n.log.LogService");
+        logDto.setLine("21");
+        logDto.setMessage("this is a logService ! 中文");
+        logDto.setFormattedMessage(LookLogAppender.LogDto.join(logDto.getTime(), logDto.getThread(), logDto.getTraceId(),
+                logDto.getLogLevel(), logDto.getLoggerName(), logDto.getLine(), logDto.getMessage()));
+
+        return logDto;
+    }
+}
@@ -0,0 +1,59 @@
+package novayoung.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Capturing An Event On The Logging Thread, And The Display Line Formatted Later
+ *
+ */
+public class LogDtoTest {
+
+    @Test
+    public void captureCopiesTheEventAndFormatsLazily() {
+
+        Logger logger = new LoggerContext().getLogger("novayoung.log.LogDtoTest");
+
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, Level.WARN, "order {} failed", null, new Object[]{42});
+        event.setTimeStamp(1484000000123L);
+        event.setThreadName("worker-1");
+        event.setMDCPropertyMap(Collections.singletonMap(TraceIdUtil.TRACE_ID, "trace-1"));
+
+        LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+        logDto.capture(event);
+
+        assertEquals("trace-1", logDto.getTraceId());
+        assertEquals("WARN", logDto.getLogLevel());
+        assertEquals("worker-1", logDto.getThread());
+        assertEquals(1484000000123L, logDto.getCreateTime().getTime());
+        assertNull(ReflectionTestUtils.getField(logDto, "formattedMessage"));
+
+        String formattedMessage = logDto.getFormattedMessage();
+
+        assertTrue(formattedMessage, formattedMessage.startsWith(logDto.getTime() + " worker-1 trace-1 WARN  "));
+        assertTrue(formattedMessage, formattedMessage.contains(" - order 42 failed"));
+    }
+
+    @Test
+    public void throwableIsAppendedToTheMessage() {
+
+        Logger logger = new LoggerContext().getLogger("novayoung.log.LogDtoTest");
+
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, Level.ERROR, "boom", new IllegalStateException("bad state"), null);
+        event.setMDCPropertyMap(Collections.<String, String>emptyMap());
+
+        LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+        logDto.capture(event);
+
+        assertNull(logDto.getTraceId());
+        assertTrue(logDto.getFormattedMessage().contains("java.lang.IllegalStateException: bad state"));
+    }
+}
@@ -0,0 +1,80 @@
+package novayoung.log;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Chunk Capacity, Delivery And The Position Of The Last Line The Visitor Took
+ *
+ */
+public class LogLineChunkTest {
+
+    @Test
+    public void capacityIsThePageRestUpToLines() {
+
+        LogLineChunk chunk = new LogLineChunk();
+
+        chunk.reset(2);
+        assertFalse(chunk.isFull());
+        chunk.add(1, "INFO", "t", "a", 10, 0);
+        chunk.add(2, "INFO", "t", "b", 11, 0);
+        assertTrue(chunk.isFull());
+
+        chunk.reset(Integer.MAX_VALUE);
+        for (int i = 0; i < LogLineChunk.LINES; i++) {
+            assertFalse(chunk.isFull());
+            chunk.add(i, "INFO", "t", "x", i, 0);
+        }
+        assertTrue(chunk.isFull());
+    }
+
+    @Test
+    public void deliversInOrder() {
+
+        LogLineChunk chunk = new LogLineChunk();
+        chunk.reset(10);
+        chunk.add(1, "INFO", "t1", "a", 10, 1);
+        chunk.add(2, "WARN", "t2", "b", 11, 2);
+
+        final List<String> lines = new ArrayList<>();
+
+        assertTrue(chunk.deliver(new LookLogAppender.LogLineVisitor() {
+            @Override
+            public boolean visit(long createTime, String level, String traceId, String message) {
+                lines.add(createTime + level + traceId + message);
+                return true;
+            }
+        }));
+
+        assertEquals(2, lines.size());
+        assertEquals("1INFOt1a", lines.get(0));
+        assertEquals("2WARNt2b", lines.get(1));
+        assertEquals(2, chunk.delivered());
+        assertEquals(11, chunk.lastPosition());
+        assertEquals(2, chunk.lastSubPosition());
+    }
+
+    @Test
+    public void stoppedVisitorKeepsTheLastLineItTook() {
+
+        LogLineChunk chunk = new LogLineChunk();
+        chunk.reset(10);
+        for (int i = 0; i < 5; i++) {
+            chunk.add(i, "INFO", "t", "line " + i, 100 + i, 0);
+        }
+
+        assertFalse(chunk.deliver(new LookLogAppender.LogLineVisitor() {
+            @Override
+            public boolean visit(long createTime, String level, String traceId, String message) {
+                return createTime < 2;
+            }
+        }));
+
+        assertEquals(3, chunk.delivered());
+        assertEquals(102, chunk.lastPosition());
+    }
+}
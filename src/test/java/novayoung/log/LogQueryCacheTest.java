@@ -0,0 +1,199 @@
+package novayoung.log;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hits, Invalidation By Newly Written Lines, And What Is Cached For A Store Shared With Other Instances
+ *
+ */
+public class LogQueryCacheTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private LookLogConfig lookLogConfig;
+
+    private CountingStore store;
+
+    @Before
+    public void setUp() {
+        lookLogConfig = new LookLogConfig();
+        store = new CountingStore();
+    }
+
+    @Test
+    public void sameQueryIsReplayed() {
+
+        LogQueryCache cache = new LogQueryCache(lookLogConfig, false);
+
+        assertEquals(Collections.singletonList("line 1"), query(cache, traceId("trace-1"), true));
+        assertEquals(Collections.singletonList("line 1"), query(cache, traceId("trace-1"), true));
+
+        assertEquals(1, store.calls);
+        assertEquals(1L, cache.getStats().get("hits"));
+    }
+
+    @Test
+    public void matchingLineInvalidates() {
+
+        LogQueryCache cache = new LogQueryCache(lookLogConfig, false);
+
+        query(cache, traceId("trace-1"), true);
+
+        /**
+         * Another Trace Doesn't Change The Result
+         */
+        cache.written(Collections.singletonList(log("trace-2", System.currentTimeMillis())));
+        query(cache, traceId("trace-1"), true);
+        assertEquals(1, store.calls);
+
+        cache.written(Collections.singletonList(log("trace-1", System.currentTimeMillis())));
+        query(cache, traceId("trace-1"), true);
+        assertEquals(2, store.calls);
+        assertEquals(1L, cache.getStats().get("invalidations"));
+    }
+
+    @Test
+    public void entryOlderThanTheHistoryIsDropped() {
+
+        lookLogConfig.setQueryCacheMaxChars(1000);
+
+        LogQueryCache cache = new LogQueryCache(lookLogConfig, false);
+
+        query(cache, traceId("trace-1"), true);
+
+        /**
+         * Big Batches Of Other Traces Push The Entry's Watermark Out Of The Bounded History
+         */
+        for (int i = 0; i < 5; i++) {
+            LookLogAppender.LogDto logDto = log("trace-2", System.currentTimeMillis());
+            logDto.setFormattedMessage(new String(new char[400]));
+            cache.written(Collections.singletonList(logDto));
+        }
+
+        query(cache, traceId("trace-1"), true);
+        assertEquals(2, store.calls);
+    }
+
+    @Test
+    public void sharedStoreCachesOnlySealedWindows() {
+
+        LogQueryCache cache = new LogQueryCache(lookLogConfig, true);
+
+        /**
+         * Another Instance May Still Write Into An Open Window
+         */
+        query(cache, traceId("trace-1"), true);
+        query(cache, traceId("trace-1"), true);
+        assertEquals(2, store.calls);
+
+        long now = System.currentTimeMillis();
+        Map<String, Object> sealed = window(now - 2 * HOUR, now - HOUR);
+
+        query(cache, sealed, true);
+        query(cache, sealed, true);
+        assertEquals(3, store.calls);
+
+        /**
+         * Lines Still Waiting To Be Written Here Could Land In It, Not Sealed Yet
+         */
+        Map<String, Object> pending = window(now - 3 * HOUR, now - HOUR);
+        query(cache, pending, false);
+        query(cache, pending, false);
+        assertEquals(5, store.calls);
+    }
+
+    @Test
+    public void sealedEntryStillSeesLateLinesItHasHistoryFor() {
+
+        LogQueryCache cache = new LogQueryCache(lookLogConfig, true);
+
+        long now = System.currentTimeMillis();
+        Map<String, Object> sealed = window(now - 2 * HOUR, now - HOUR);
+
+        query(cache, sealed, true);
+
+        cache.written(Collections.singletonList(log("trace-1", now - HOUR - 1000)));
+
+        query(cache, sealed, true);
+        assertEquals(2, store.calls);
+    }
+
+    @Test
+    public void stoppedQueryIsNotCached() {
+
+        LogQueryCache cache = new LogQueryCache(lookLogConfig, false);
+
+        cache.visitLogs(store, traceId("trace-1"), -1, 10, true, new LookLogAppender.LogLineVisitor() {
+            @Override
+            public boolean visit(long createTime, String level, String traceId, String message) {
+                return false;
+            }
+        });
+
+        query(cache, traceId("trace-1"), true);
+        assertEquals(2, store.calls);
+    }
+
+
+    private List<String> query(LogQueryCache cache, Map<String, Object> conditions, boolean settled) {
+
+        final List<String> lines = new ArrayList<>();
+
+        cache.visitLogs(store, conditions, -1, 10, settled, new LookLogAppender.LogLineVisitor() {
+            @Override
+            public boolean visit(long createTime, String level, String traceId, String message) {
+                lines.add(message);
+                return true;
+            }
+        });
+
+        return lines;
+    }
+
+    private static Map<String, Object> traceId(String traceId) {
+        Map<String, Object> conditions = new HashMap<>();
+        conditions.put("traceId", traceId);
+        return conditions;
+    }
+
+    private static Map<String, Object> window(long start, long end) {
+        Map<String, Object> conditions = new HashMap<>();
+        conditions.put("startTime", new Date(start));
+        conditions.put("endTime", new Date(end));
+        return conditions;
+    }
+
+    private static LookLogAppender.LogDto log(String traceId, long time) {
+        LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+        logDto.setCreateTime(new Date(time));
+        logDto.setTraceId(traceId);
+        logDto.setLogLevel("INFO");
+        logDto.setFormattedMessage("written");
+        return logDto;
+    }
+
+    /**
+     * Answers Every Query With One Line, Counting The Calls
+     */
+    private static class CountingStore implements LookLogAppender.LogQuery {
+
+        private int calls;
+
+        @Override
+        public String visitLogs(Map<String, Object> conditions, Integer order, Integer limit, LookLogAppender.LogLineVisitor visitor) {
+            calls++;
+            visitor.visit(1000L, "INFO", "trace-1", "line " + calls);
+            return null;
+        }
+    }
+}
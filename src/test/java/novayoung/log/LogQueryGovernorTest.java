@@ -0,0 +1,206 @@
+package novayoung.log;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Concurrency Caps, The Expensive Query Cap, And The Deadline Handed To The Store
+ *
+ */
+public class LogQueryGovernorTest {
+
+    private LookLogConfig lookLogConfig;
+
+    @Before
+    public void setUp() {
+        lookLogConfig = new LookLogConfig();
+        lookLogConfig.setQueryMaxConcurrent(1);
+        lookLogConfig.setQueryMaxExpensiveConcurrent(1);
+        lookLogConfig.setQueryQueueMillis(50);
+        lookLogConfig.setQueryTimeoutMillis(1000);
+    }
+
+    @Test
+    public void storeGetsTheDeadline() {
+
+        final AtomicReference<Map<String, Object>> seen = new AtomicReference<>();
+
+        LogQueryGovernor governor = new LogQueryGovernor(lookLogConfig, new LookLogAppender.LogQuery() {
+            @Override
+            public String visitLogs(Map<String, Object> conditions, Integer order, Integer limit, LookLogAppender.LogLineVisitor visitor) {
+                seen.set(conditions);
+                return "next";
+            }
+        });
+
+        Map<String, Object> conditions = new HashMap<>();
+        long before = System.currentTimeMillis();
+
+        assertEquals("next", governor.visitLogs(conditions, -1, 10, null));
+
+        long deadline = LogQueryGovernor.deadline(seen.get());
+        assertTrue(deadline >= before + 1000 && deadline <= System.currentTimeMillis() + 1000);
+
+        /**
+         * The Caller's Conditions Are Left Alone
+         */
+        assertFalse(conditions.containsKey(LogQueryGovernor.DEADLINE));
+    }
+
+    @Test
+    public void noTimeoutMeansNoDeadline() {
+
+        lookLogConfig.setQueryTimeoutMillis(0);
+
+        final AtomicReference<Map<String, Object>> seen = new AtomicReference<>();
+
+        new LogQueryGovernor(lookLogConfig, new LookLogAppender.LogQuery() {
+            @Override
+            public String visitLogs(Map<String, Object> conditions, Integer order, Integer limit, LookLogAppender.LogLineVisitor visitor) {
+                seen.set(conditions);
+                return null;
+            }
+        }).visitLogs(new HashMap<String, Object>(), -1, 10, null);
+
+        assertEquals(Long.MAX_VALUE, LogQueryGovernor.deadline(seen.get()));
+        assertEquals(0, LogQueryGovernor.remainingMillis(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void queryOverTheCapIsRejected() throws Exception {
+
+        BlockingStore store = new BlockingStore();
+        LogQueryGovernor governor = new LogQueryGovernor(lookLogConfig, store);
+
+        Thread running = store.runIn(governor, new HashMap<String, Object>());
+
+        try {
+            governor.visitLogs(new HashMap<String, Object>(), -1, 10, null);
+            fail();
+        } catch (LogQueryGovernor.RejectedException e) {
+            assertFalse(e instanceof LogQueryGovernor.TimeBudgetException);
+        }
+
+        store.release.countDown();
+        running.join();
+
+        assertEquals(1L, governor.getStats().get("rejected"));
+
+        /**
+         * The Permit Is Back
+         */
+        governor.visitLogs(new HashMap<String, Object>(), -1, 10, null);
+    }
+
+    @Test
+    public void onlyExpensiveQueriesWaitForEachOther() throws Exception {
+
+        lookLogConfig.setQueryMaxConcurrent(2);
+
+        BlockingStore store = new BlockingStore();
+        LogQueryGovernor governor = new LogQueryGovernor(lookLogConfig, store);
+
+        Thread running = store.runIn(governor, keyword(null, null));
+
+        try {
+            try {
+                governor.visitLogs(keyword(new Date(0), new Date(2 * 60 * 60 * 1000L)), -1, 10, null);
+                fail();
+            } catch (LogQueryGovernor.RejectedException e) {
+                assertTrue(e.getMessage().contains("expensive"));
+            }
+
+            /**
+             * A Narrow Window Or A TraceId Makes The Same Keyword Cheap
+             */
+            governor.visitLogs(keyword(new Date(0), new Date(60 * 1000L)), -1, 10, null);
+
+            Map<String, Object> traced = keyword(null, null);
+            traced.put("traceId", "trace-1");
+            governor.visitLogs(traced, -1, 10, null);
+
+        } finally {
+            store.release.countDown();
+            running.join();
+        }
+    }
+
+    @Test
+    public void storeRunningPastTheDeadlineIsCounted() {
+
+        lookLogConfig.setQueryTimeoutMillis(1);
+
+        LogQueryGovernor governor = new LogQueryGovernor(lookLogConfig, new LookLogAppender.LogQuery() {
+            @Override
+            public String visitLogs(Map<String, Object> conditions, Integer order, Integer limit, LookLogAppender.LogLineVisitor visitor) {
+                long deadline = LogQueryGovernor.deadline(conditions);
+                while (true) {
+                    LogQueryGovernor.checkDeadline(deadline);
+                }
+            }
+        });
+
+        try {
+            governor.visitLogs(new HashMap<String, Object>(), -1, 10, null);
+            fail();
+        } catch (LogQueryGovernor.TimeBudgetException e) {
+            assertEquals(1L, governor.getStats().get("timedOut"));
+        }
+    }
+
+
+    private static Map<String, Object> keyword(Date startTime, Date endTime) {
+        Map<String, Object> conditions = new HashMap<>();
+        conditions.put("keyword", "order");
+        conditions.put("startTime", startTime);
+        conditions.put("endTime", endTime);
+        return conditions;
+    }
+
+    /**
+     * Holds The First Query Until Released, Answers Later Ones At Once
+     */
+    private static class BlockingStore implements LookLogAppender.LogQuery {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public String visitLogs(Map<String, Object> conditions, Integer order, Integer limit, LookLogAppender.LogLineVisitor visitor) {
+            if (started.getCount() > 0) {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return null;
+        }
+
+        private Thread runIn(final LogQueryGovernor governor, final Map<String, Object> conditions) throws InterruptedException {
+
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    governor.visitLogs(conditions, -1, 10, null);
+                }
+            };
+            thread.start();
+
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            return thread;
+        }
+    }
+}
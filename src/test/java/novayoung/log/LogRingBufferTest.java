@@ -0,0 +1,172 @@
+package novayoung.log;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Slot Reuse, Wraparound And Claim / Publish / Release Ordering Of The Ring Buffer
+ *
+ */
+public class LogRingBufferTest {
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(8, new LogRingBuffer(5, LogRingBuffer.WaitStrategy.PARK).capacity());
+        assertEquals(8, new LogRingBuffer(8, LogRingBuffer.WaitStrategy.PARK).capacity());
+        assertEquals(2, new LogRingBuffer(0, LogRingBuffer.WaitStrategy.PARK).capacity());
+    }
+
+    @Test
+    public void wrapsAroundInOrder() {
+
+        LogRingBuffer buffer = new LogRingBuffer(4, LogRingBuffer.WaitStrategy.BUSY_SPIN);
+
+        int next = 0;
+        int expected = 0;
+
+        for (int round = 0; round < 10; round++) {
+
+            for (int i = 0; i < 3; i++) {
+                assertTrue(buffer.offer(log(next++)));
+            }
+
+            LookLogAppender.LogDto logDto;
+            while ((logDto = buffer.poll()) != null) {
+                assertEquals("line " + expected++, logDto.getMessage());
+            }
+
+            buffer.release();
+            assertEquals(0, buffer.size());
+        }
+
+        assertEquals(30, expected);
+    }
+
+    @Test
+    public void slotsAreReusedOnlyAfterRelease() {
+
+        LogRingBuffer buffer = new LogRingBuffer(4, LogRingBuffer.WaitStrategy.BUSY_SPIN);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(log(i)));
+        }
+        assertFalse(buffer.offer(log(4)));
+        assertEquals(4, buffer.size());
+
+        LookLogAppender.LogDto first = buffer.poll();
+        LookLogAppender.LogDto second = buffer.poll();
+        assertEquals("line 0", first.getMessage());
+        assertEquals("line 1", second.getMessage());
+
+        /**
+         * Polled But Not Released, The Consumer Still Owns Those Slots !
+         */
+        assertFalse(buffer.offer(log(4)));
+        assertEquals("line 0", first.getMessage());
+
+        buffer.release();
+
+        assertTrue(buffer.offer(log(4)));
+        assertTrue(buffer.offer(log(5)));
+        assertFalse(buffer.offer(log(6)));
+
+        /**
+         * The Freed Slot Is Filled In Place
+         */
+        assertEquals("line 4", first.getMessage());
+
+        for (int i = 2; i < 6; i++) {
+            assertEquals("line " + i, buffer.poll().getMessage());
+        }
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void pollWaitsUpToTimeout() throws InterruptedException {
+
+        LogRingBuffer buffer = new LogRingBuffer(4, LogRingBuffer.WaitStrategy.PARK);
+
+        long start = System.nanoTime();
+        assertNull(buffer.poll(20, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(log(i)));
+        }
+        assertFalse(buffer.offer(log(4), 20, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void producersKeepTheirOwnOrder() throws Exception {
+
+        final LogRingBuffer buffer = new LogRingBuffer(64, LogRingBuffer.WaitStrategy.YIELD);
+        final int producers = 4;
+        final int perProducer = 20000;
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final String traceId = String.valueOf(p);
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < perProducer; i++) {
+                            LookLogAppender.LogDto logDto = log(i);
+                            logDto.setTraceId(traceId);
+                            if (!buffer.offer(logDto, 10, TimeUnit.SECONDS)) {
+                                throw new IllegalStateException("Offer Timed Out");
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+
+        int[] next = new int[producers];
+
+        for (int received = 0; received < producers * perProducer; received++) {
+
+            LookLogAppender.LogDto logDto = buffer.poll(10, TimeUnit.SECONDS);
+            assertNotNull("Missing Logs, Received " + received, logDto);
+
+            int producer = Integer.parseInt(logDto.getTraceId());
+            assertEquals("line " + next[producer], logDto.getMessage());
+            next[producer]++;
+
+            if (received % 7 == 0) {
+                buffer.release();
+            }
+        }
+
+        buffer.release();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+    }
+
+
+    private static LookLogAppender.LogDto log(int i) {
+        LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+        logDto.setCreateTime(new Date(1000L + i));
+        logDto.setLogLevel("INFO");
+        logDto.setMessage("line " + i);
+        return logDto;
+    }
+}
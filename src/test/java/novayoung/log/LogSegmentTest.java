@@ -0,0 +1,380 @@
+package novayoung.log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Segment Records And Their Block Index Across A Restart, Sealed Or Rebuilt, And The Segment Store Over Several Segments
+ *
+ */
+public class LogSegmentTest {
+
+    private static final int SEGMENT_BYTES = 64 * 1024;
+
+    private static final int BLOOM_BITS = 1024;
+
+    private static final int INDEX_INTERVAL = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogDictionary dictionary;
+
+    @Before
+    public void setUp() {
+        dictionary = LogDictionary.create(100);
+    }
+
+    @After
+    public void tearDown() {
+        dictionary.close();
+    }
+
+    @Test
+    public void scanInOrderAndReversed() throws Exception {
+
+        LogSegment segment = LogSegment.create(folder.getRoot(), 0, SEGMENT_BYTES, BLOOM_BITS, INDEX_INTERVAL);
+        append(segment, 0, 30);
+
+        assertEquals(lines(0, 30), scan(segment, Long.MIN_VALUE, Long.MAX_VALUE, false, -1));
+
+        List<String> reversed = lines(0, 30);
+        Collections.reverse(reversed);
+        assertEquals(reversed, scan(segment, Long.MIN_VALUE, Long.MAX_VALUE, true, -1));
+    }
+
+    @Test
+    public void scanSkipsBlocksOutsideTheRange() throws Exception {
+
+        LogSegment segment = LogSegment.create(folder.getRoot(), 0, SEGMENT_BYTES, BLOOM_BITS, INDEX_INTERVAL);
+        append(segment, 0, 30);
+
+        assertEquals(lines(9, 21), scan(segment, time(9), time(20), false, -1));
+        assertTrue(segment.overlaps(time(29), time(40)));
+        assertFalse(segment.overlaps(time(30), time(40)));
+
+        final int[] visited = {0};
+        segment.scan(time(9), time(10), false, new LogSegment.RecordVisitor() {
+            @Override
+            public boolean visit(LogSegment segment, int position, long createTime, long traceHash, int levelCode) {
+                visited[0]++;
+                return true;
+            }
+        });
+        assertEquals(2, visited[0]);
+    }
+
+    @Test
+    public void scanResumesPastAPosition() throws Exception {
+
+        LogSegment segment = LogSegment.create(folder.getRoot(), 0, SEGMENT_BYTES, BLOOM_BITS, INDEX_INTERVAL);
+        append(segment, 0, 30);
+
+        final List<Integer> positions = new ArrayList<>();
+        segment.scan(Long.MIN_VALUE, Long.MAX_VALUE, false, new LogSegment.RecordVisitor() {
+            @Override
+            public boolean visit(LogSegment segment, int position, long createTime, long traceHash, int levelCode) {
+                positions.add(position);
+                return true;
+            }
+        });
+
+        assertEquals(lines(11, 30), scan(segment, Long.MIN_VALUE, Long.MAX_VALUE, false, positions.get(10)));
+        assertEquals(Arrays.asList("line 9", "line 8"), scan(segment, Long.MIN_VALUE, Long.MAX_VALUE, true, positions.get(10)).subList(0, 2));
+    }
+
+    @Test
+    public void sealedSegmentLoadsItsIndex() throws Exception {
+
+        LogSegment segment = LogSegment.create(folder.getRoot(), 7, SEGMENT_BYTES, BLOOM_BITS, INDEX_INTERVAL);
+        append(segment, 0, 30);
+        segment.seal();
+
+        assertFalse(segment.append(new byte[8], time(31), 0, 2));
+
+        File logFile = new File(folder.getRoot(), String.format("%020d.log", 7));
+        assertTrue(new File(folder.getRoot(), String.format("%020d.idx", 7)).exists());
+
+        LogSegment reopened = LogSegment.open(logFile, BLOOM_BITS, INDEX_INTERVAL);
+
+        assertTrue(reopened.isSealed());
+        assertEquals(7, reopened.getSequence());
+        assertEquals(segment.getWritePosition(), reopened.getWritePosition());
+        assertEquals(time(29), reopened.getMaxTime());
+        assertEquals(lines(0, 30), scan(reopened, Long.MIN_VALUE, Long.MAX_VALUE, false, -1));
+        assertEquals(lines(9, 21), scan(reopened, time(9), time(20), false, -1));
+        assertTrue(reopened.mightContain(TraceIdUtil.hash("trace1")));
+    }
+
+    @Test
+    public void unsealedSegmentRebuildsItsIndex() throws Exception {
+
+        LogSegment segment = LogSegment.create(folder.getRoot(), 0, SEGMENT_BYTES, BLOOM_BITS, INDEX_INTERVAL);
+        append(segment, 0, 30);
+        segment.force();
+
+        LogSegment reopened = LogSegment.open(new File(folder.getRoot(), String.format("%020d.log", 0)), BLOOM_BITS, INDEX_INTERVAL);
+
+        assertFalse(reopened.isSealed());
+        assertEquals(segment.getWritePosition(), reopened.getWritePosition());
+        assertEquals(lines(9, 21), scan(reopened, time(9), time(20), false, -1));
+        assertTrue(reopened.mightContain(TraceIdUtil.hash("trace2")));
+
+        /**
+         * The Rebuilt Segment Goes On Appending After The Last Record
+         */
+        append(reopened, 30, 35);
+        assertEquals(lines(0, 35), scan(reopened, Long.MIN_VALUE, Long.MAX_VALUE, false, -1));
+    }
+
+    @Test
+    public void fullSegmentRefusesTheRecord() throws Exception {
+
+        LogSegment segment = LogSegment.create(folder.getRoot(), 0, 1024, BLOOM_BITS, INDEX_INTERVAL);
+
+        int appended = 0;
+        while (segment.append(body(appended), time(appended), TraceIdUtil.hash("trace0"), 2)) {
+            appended++;
+        }
+
+        assertTrue(appended > 0);
+        assertTrue(segment.getWritePosition() <= segment.getSize());
+        assertEquals(lines(0, appended), scan(segment, Long.MIN_VALUE, Long.MAX_VALUE, false, -1));
+    }
+
+    @Test
+    public void storeKeepsLinesAcrossSegmentsAndRestart() throws Exception {
+
+        LookLogConfig lookLogConfig = new LookLogConfig();
+        lookLogConfig.setSegmentDirectory(folder.getRoot().getPath());
+        lookLogConfig.setSegmentBytes(4096);
+        lookLogConfig.setSegmentIndexInterval(INDEX_INTERVAL);
+        lookLogConfig.setCachedSecond(0L);
+
+        DroppedLogCounter droppedLogCounter = new DroppedLogCounter();
+
+        SegmentCacheOperator operator = operator(lookLogConfig, droppedLogCounter);
+        operator.init();
+
+        List<LookLogAppender.LogDto> logDtos = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            logDtos.add(logDto(i));
+        }
+        operator.putLogs(logDtos);
+        operator.destroy();
+
+        File[] segmentFiles = folder.getRoot().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".log");
+            }
+        });
+        assertNotNull(segmentFiles);
+        assertTrue(segmentFiles.length > 1);
+
+        SegmentCacheOperator reopened = operator(lookLogConfig, droppedLogCounter);
+        reopened.init();
+
+        assertEquals(lines(0, 200), reopened.getLogs(new HashMap<String, Object>(), 1, 1000));
+
+        List<String> trace = new ArrayList<>();
+        for (int i = 1; i < 200; i += 3) {
+            trace.add("line " + i);
+        }
+        assertEquals(trace, reopened.getLogs("trace1"));
+
+        /**
+         * Pages Of 30 Follow Each Other Without Gaps Or Repeats
+         */
+        List<String> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            Map<String, Object> conditions = new HashMap<>();
+            conditions.put("cursor", cursor);
+            LookLogAppender.LogLineList page = new LookLogAppender.LogLineList();
+            cursor = reopened.visitLogs(conditions, -1, 30, page);
+            paged.addAll(page.lines);
+        } while (cursor != null);
+
+        List<String> descending = lines(0, 200);
+        Collections.reverse(descending);
+        assertEquals(descending, paged);
+
+        reopened.destroy();
+        assertEquals(0, droppedLogCounter.total());
+    }
+
+    @Test
+    public void storeResultsLongerThanAChunkComeBackWhole() throws Exception {
+
+        LookLogConfig lookLogConfig = new LookLogConfig();
+        lookLogConfig.setSegmentDirectory(folder.getRoot().getPath());
+        lookLogConfig.setSegmentBytes(64 * 1024);
+        lookLogConfig.setCachedSecond(0L);
+
+        SegmentCacheOperator operator = operator(lookLogConfig, new DroppedLogCounter());
+        operator.init();
+
+        List<LookLogAppender.LogDto> logDtos = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            logDtos.add(logDto(i));
+        }
+        operator.putLogs(logDtos);
+
+        assertEquals(lines(0, 10000), operator.getLogs(new HashMap<String, Object>(), 1, 10000));
+
+        List<String> trace = operator.getLogs(Collections.<String, Object>singletonMap("traceId", "trace1"), -1, 10000);
+        assertEquals(3333, trace.size());
+        assertEquals("line 9997", trace.get(0));
+        assertEquals("line 1", trace.get(3332));
+
+        assertEquals(Collections.singletonList("line 9999"), operator.getLogs(Collections.<String, Object>singletonMap("keyword", "line 9999$"), 1, 10));
+
+        operator.destroy();
+    }
+
+    @Test
+    public void storeDropsRecordBiggerThanASegment() throws Exception {
+
+        LookLogConfig lookLogConfig = new LookLogConfig();
+        lookLogConfig.setSegmentDirectory(folder.getRoot().getPath());
+        lookLogConfig.setSegmentBytes(1024);
+
+        DroppedLogCounter droppedLogCounter = new DroppedLogCounter();
+
+        SegmentCacheOperator operator = operator(lookLogConfig, droppedLogCounter);
+        operator.init();
+
+        LookLogAppender.LogDto big = logDto(0);
+        big.setFormattedMessage(new String(new char[2048]).replace('\0', 'x'));
+
+        operator.putLogs(Arrays.asList(big, logDto(1)));
+
+        assertEquals(1, droppedLogCounter.total());
+        assertEquals(lines(1, 2), operator.getLogs(new HashMap<String, Object>(), 1, 10));
+
+        operator.destroy();
+    }
+
+    @Test
+    public void storeLeavesForeignFilesAlone() throws Exception {
+
+        File foreign = folder.newFile("app.log");
+        File notes = folder.newFile("00000000000000000001.log.bak");
+
+        LookLogConfig lookLogConfig = new LookLogConfig();
+        lookLogConfig.setSegmentDirectory(folder.getRoot().getPath());
+
+        SegmentCacheOperator operator = operator(lookLogConfig, new DroppedLogCounter());
+        operator.init();
+        operator.putLogs(Arrays.asList(logDto(0), logDto(1)));
+        operator.destroy();
+
+        SegmentCacheOperator reopened = operator(lookLogConfig, new DroppedLogCounter());
+        reopened.init();
+
+        assertEquals(lines(0, 2), reopened.getLogs(new HashMap<String, Object>(), 1, 10));
+        assertTrue(foreign.exists());
+        assertTrue(notes.exists());
+
+        reopened.destroy();
+    }
+
+    @Test
+    public void segmentsWithoutDictionaryAreMovedAside() throws Exception {
+
+        LookLogConfig lookLogConfig = new LookLogConfig();
+        lookLogConfig.setSegmentDirectory(folder.getRoot().getPath());
+
+        SegmentCacheOperator operator = operator(lookLogConfig, new DroppedLogCounter());
+        operator.init();
+        operator.putLogs(Arrays.asList(logDto(0), logDto(1)));
+        operator.destroy();
+
+        File segment = new File(folder.getRoot(), String.format("%020d.log", 0));
+        File foreign = folder.newFile("app.log");
+        assertTrue(new File(folder.getRoot(), "dictionary.dat").delete());
+
+        SegmentCacheOperator reopened = operator(lookLogConfig, new DroppedLogCounter());
+        reopened.init();
+
+        assertTrue(reopened.getLogs(new HashMap<String, Object>(), 1, 10).isEmpty());
+        assertTrue(new File(segment.getPath() + ".orphaned").exists());
+        assertTrue(foreign.exists());
+
+        /**
+         * The Store Starts Over With A Fresh Segment Under The Same Name
+         */
+        reopened.putLogs(Arrays.asList(logDto(2)));
+        assertEquals(lines(2, 3), reopened.getLogs(new HashMap<String, Object>(), 1, 10));
+
+        reopened.destroy();
+    }
+
+
+    private void append(LogSegment segment, int from, int to) {
+        for (int i = from; i < to; i++) {
+            assertTrue(segment.append(body(i), time(i), TraceIdUtil.hash("trace" + (i % 3)), 2));
+        }
+    }
+
+    private byte[] body(int i) {
+        return LogDtoCodec.encode(logDto(i), dictionary);
+    }
+
+    private List<String> scan(final LogSegment segment, long start, long end, boolean descending, int after) {
+
+        final List<String> lines = new ArrayList<>();
+
+        segment.scan(start, end, descending, after, new LogSegment.RecordVisitor() {
+            @Override
+            public boolean visit(LogSegment visited, int position, long createTime, long traceHash, int levelCode) {
+                LookLogAppender.LogDto logDto = visited.read(position, dictionary);
+                assertEquals(logDto.getCreateTime().getTime(), createTime);
+                lines.add(logDto.getFormattedMessage());
+                return true;
+            }
+        });
+
+        return lines;
+    }
+
+    private static SegmentCacheOperator operator(LookLogConfig lookLogConfig, DroppedLogCounter droppedLogCounter) {
+        SegmentCacheOperator operator = new SegmentCacheOperator();
+        ReflectionTestUtils.setField(operator, "lookLogConfig", lookLogConfig);
+        ReflectionTestUtils.setField(operator, "droppedLogCounter", droppedLogCounter);
+        return operator;
+    }
+
+    private static LookLogAppender.LogDto logDto(int i) {
+        LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+        logDto.setCreateTime(new Date(time(i)));
+        logDto.setTraceId("trace" + (i % 3));
+        logDto.setThread("main");
+        logDto.setLogLevel("INFO");
+        logDto.setFormattedMessage("line " + i);
+        return logDto;
+    }
+
+    private static long time(int i) {
+        return 1484000000000L + i * 1000L;
+    }
+
+    private static List<String> lines(int from, int to) {
+        List<String> lines = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            lines.add("line " + i);
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,180 @@
+package novayoung.log;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Order Across The Wrap Of The Circular File, And What Survives A Restart Before And After Commit
+ *
+ */
+public class LogSpillFileTest {
+
+    /**
+     * The Smallest Spill File, 1024 Bytes Of Records
+     */
+    private static final int MAX_BYTES = 32 + 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void peekAndCommitInOrder() throws Exception {
+
+        LogSpillFile spill = new LogSpillFile(folder.newFile("spill.dat"), MAX_BYTES);
+        assertTrue(spill.isEmpty());
+
+        assertEquals(3, spill.append(logs(0, 3)));
+
+        List<LookLogAppender.LogDto> peeked = spill.peek(2);
+        assertMessages(peeked, 0, 2);
+
+        /**
+         * Peek Doesn't Remove, The Same Logs Come Again Until Commit
+         */
+        assertMessages(spill.peek(2), 0, 2);
+
+        spill.commit();
+        assertMessages(spill.peek(10), 2, 3);
+
+        spill.commit();
+        assertTrue(spill.isEmpty());
+        assertEquals(0, spill.getUsedBytes());
+    }
+
+    @Test
+    public void appendStopsWhenFull() throws Exception {
+
+        LogSpillFile spill = new LogSpillFile(folder.newFile("spill.dat"), MAX_BYTES);
+
+        int appended = spill.append(logs(0, 100));
+
+        assertTrue(appended > 0 && appended < 100);
+        assertTrue(spill.getUsedBytes() <= spill.getCapacity());
+        assertEquals(0, spill.append(logs(appended, appended + 1)));
+
+        assertMessages(spill.peek(1000), 0, appended);
+    }
+
+    @Test
+    public void keepsOrderAcrossTheWrap() throws Exception {
+
+        LogSpillFile spill = new LogSpillFile(folder.newFile("spill.dat"), MAX_BYTES);
+
+        int next = 0;
+        int expected = 0;
+
+        /**
+         * Drain A Little Less Than Is Appended Each Round, So The Write Side Wraps Around Behind The Read Side
+         */
+        for (int round = 0; round < 20; round++) {
+
+            int appended = spill.append(logs(next, next + 4));
+            next += appended;
+
+            List<LookLogAppender.LogDto> peeked = spill.peek(3);
+            assertMessages(peeked, expected, expected + peeked.size());
+            expected += peeked.size();
+            spill.commit();
+        }
+
+        List<LookLogAppender.LogDto> rest = spill.peek(1000);
+        assertMessages(rest, expected, next);
+        spill.commit();
+
+        /**
+         * Records Are Over 100 Bytes, So The File Went Round At Least Twice
+         */
+        assertTrue(next * 100 > spill.getCapacity() * 2);
+        assertTrue(spill.isEmpty());
+    }
+
+    @Test
+    public void uncommittedLogsSurviveRestart() throws Exception {
+
+        File file = folder.newFile("spill.dat");
+
+        LogSpillFile spill = new LogSpillFile(file, MAX_BYTES);
+        spill.append(logs(0, 5));
+        spill.peek(3);
+        spill.force();
+
+        LogSpillFile reopened = new LogSpillFile(file, MAX_BYTES);
+        assertMessages(reopened.peek(10), 0, 5);
+    }
+
+    @Test
+    public void committedLogsAreGoneAfterRestart() throws Exception {
+
+        File file = folder.newFile("spill.dat");
+
+        LogSpillFile spill = new LogSpillFile(file, MAX_BYTES);
+        spill.append(logs(0, 5));
+        spill.peek(3);
+
+        /**
+         * Appended Between Peek And Commit, Must Not Be Committed Away
+         */
+        spill.append(logs(5, 6));
+        spill.commit();
+        spill.force();
+
+        LogSpillFile reopened = new LogSpillFile(file, MAX_BYTES);
+        assertEquals(spill.getUsedBytes(), reopened.getUsedBytes());
+        assertMessages(reopened.peek(10), 3, 6);
+    }
+
+    @Test
+    public void fileOfAnotherSizeStartsEmpty() throws Exception {
+
+        File file = folder.newFile("spill.dat");
+
+        LogSpillFile spill = new LogSpillFile(file, MAX_BYTES);
+        spill.append(logs(0, 5));
+        spill.force();
+
+        assertTrue(new LogSpillFile(file, MAX_BYTES * 2).isEmpty());
+    }
+
+
+    private static List<LookLogAppender.LogDto> logs(int from, int to) {
+
+        List<LookLogAppender.LogDto> logDtos = new ArrayList<>();
+
+        for (int i = from; i < to; i++) {
+            LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+            logDto.setCreateTime(new Date(1000L + i));
+            logDto.setTraceId("trace" + (i % 3));
+            logDto.setLogLevel("INFO");
+            logDto.setMessage("line " + i + " " + StringUtils.repeat("x", 40));
+            logDto.setFormattedMessage("line " + i);
+            logDtos.add(logDto);
+        }
+
+        return logDtos;
+    }
+
+    private static void assertMessages(List<LookLogAppender.LogDto> logDtos, int from, int to) {
+
+        List<String> expected = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            expected.add("line " + i);
+        }
+
+        List<String> actual = new ArrayList<>();
+        for (LookLogAppender.LogDto logDto : logDtos) {
+            actual.add(logDto.getFormattedMessage());
+            assertEquals(new Date(1000L + Integer.parseInt(logDto.getFormattedMessage().substring(5))), logDto.getCreateTime());
+        }
+
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,140 @@
+package novayoung.log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Line Numbering, Resume By Last-Event-ID And Filters Of The Live Tail.
+ * The Emitters Are Never Handed To A Response, So What The Tail Sends Stays In Their Early Sends
+ *
+ */
+public class LogTailTest {
+
+    private LogTail logTail;
+
+    @Before
+    public void setUp() {
+
+        LookLogConfig lookLogConfig = new LookLogConfig();
+        lookLogConfig.setTailBufferSize(16);
+        lookLogConfig.setTailMaxClients(2);
+
+        logTail = new LogTail(lookLogConfig);
+        logTail.start();
+    }
+
+    @After
+    public void tearDown() {
+        logTail.close();
+    }
+
+    @Test
+    public void linesAreNumberedWhileNobodyWatches() {
+
+        logTail.publish(logs("INFO", 5));
+
+        assertEquals(5L, ReflectionTestUtils.getField(logTail, "published"));
+        assertEquals(0, logTail.viewers());
+    }
+
+    @Test
+    public void resumeAcrossAnUnwatchedGapReportsItSkipped() throws Exception {
+
+        logTail.publish(logs("INFO", 5));
+
+        /**
+         * Last Saw Line 1, Lines 2..4 Came While Nobody Watched
+         */
+        SseEmitter emitter = logTail.subscribe(null, null, null, "1");
+        logTail.publish(logs("INFO", 2));
+
+        String sent = await(emitter, "id:6");
+
+        assertTrue(sent, sent.contains("event:skipped\ndata:3"));
+        assertTrue(sent, sent.contains("id:5"));
+        assertFalse(sent, sent.contains("id:4"));
+    }
+
+    @Test
+    public void viewerOnlyGetsMatchingLines() throws Exception {
+
+        SseEmitter emitter = logTail.subscribe(null, new String[]{"warn"}, null, null);
+
+        /**
+         * Wait Until The Dispatcher Has Joined The Viewer, A New Viewer Starts Live
+         */
+        Thread.sleep(100);
+
+        logTail.publish(logs("INFO", 2));
+        logTail.publish(logs("WARN", 1));
+
+        String sent = await(emitter, "id:2");
+
+        assertFalse(sent, sent.contains("id:0"));
+        assertFalse(sent, sent.contains("id:1"));
+        assertTrue(sent, sent.contains("\"level\":\"WARN\""));
+    }
+
+    @Test
+    public void viewersAreCapped() {
+
+        assertNotNull(logTail.subscribe(null, null, null, null));
+        assertNotNull(logTail.subscribe(null, null, null, null));
+        assertNull(logTail.subscribe(null, null, null, null));
+        assertEquals(2, logTail.viewers());
+    }
+
+
+    private static List<LookLogAppender.LogDto> logs(String level, int count) {
+
+        List<LookLogAppender.LogDto> logDtos = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+            logDto.setCreateTime(new Date(1484000000000L + i));
+            logDto.setLogLevel(level);
+            logDto.setTraceId("trace-1");
+            logDto.setFormattedMessage(level + " line " + i);
+            logDtos.add(logDto);
+        }
+
+        return logDtos;
+    }
+
+    /**
+     * The Event Stream Sent So Far, Once It Holds The Expected Text
+     */
+    @SuppressWarnings("unchecked")
+    private static String await(SseEmitter emitter, String expected) throws InterruptedException {
+
+        String sent = "";
+
+        for (int i = 0; i < 500 && !sent.contains(expected); i++) {
+
+            Thread.sleep(10);
+
+            StringBuilder sb = new StringBuilder();
+            synchronized (emitter) {
+                for (Object data : (Set<Object>) ReflectionTestUtils.getField(emitter, "earlySendAttempts")) {
+                    sb.append(((ResponseBodyEmitter.DataWithMediaType) data).getData());
+                }
+            }
+            sent = sb.toString();
+        }
+
+        assertTrue(sent, sent.contains(expected));
+
+        return sent;
+    }
+}
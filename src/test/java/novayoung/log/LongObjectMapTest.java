@@ -0,0 +1,110 @@
+package novayoung.log;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Put, Overwrite, Rehash And Backward-Shift Removal, Checked Against A HashMap
+ *
+ */
+public class LongObjectMapTest {
+
+    @Test
+    public void putGetAndOverwrite() {
+
+        LongObjectMap<String> map = new LongObjectMap<>();
+
+        map.put(1L, "a");
+        map.put(-1L, "b");
+        map.put(0L, "c");
+        map.put(Long.MIN_VALUE, "d");
+        map.put(1L, "e");
+
+        assertEquals(4, map.size());
+        assertEquals("e", map.get(1L));
+        assertEquals("b", map.get(-1L));
+        assertEquals("c", map.get(0L));
+        assertEquals("d", map.get(Long.MIN_VALUE));
+        assertNull(map.get(2L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullValueIsRejected() {
+        new LongObjectMap<String>().put(1L, null);
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+
+        LongObjectMap<Long> map = new LongObjectMap<>(4);
+
+        for (long key = 0; key < 10000; key++) {
+            map.put(key * 31, key);
+        }
+
+        assertEquals(10000, map.size());
+        for (long key = 0; key < 10000; key++) {
+            assertEquals(Long.valueOf(key), map.get(key * 31));
+        }
+    }
+
+    @Test
+    public void removeKeepsCollidingKeysReachable() {
+
+        LongObjectMap<Integer> map = new LongObjectMap<>(16);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        /**
+         * Few Distinct Keys In A Small Map, So Probe Chains Are Long And Removals Shift Them
+         */
+        for (int i = 0; i < 200000; i++) {
+
+            long key = random.nextInt(64);
+
+            if (random.nextBoolean()) {
+                map.put(key, i);
+                expected.put(key, i);
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (long key = 0; key < 64; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    public void forEachVisitsEveryEntryOnce() {
+
+        LongObjectMap<String> map = new LongObjectMap<>();
+        for (long key = 0; key < 100; key++) {
+            map.put(key, "v" + key);
+        }
+        map.remove(50L);
+
+        final Map<Long, String> visited = new HashMap<>();
+        map.forEach(new LongObjectMap.Visitor<String>() {
+            @Override
+            public void visit(long key, String value) {
+                assertNull(visited.put(key, value));
+            }
+        });
+
+        assertEquals(99, visited.size());
+        assertEquals("v7", visited.get(7L));
+        assertFalse(visited.containsKey(50L));
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(7L));
+    }
+}
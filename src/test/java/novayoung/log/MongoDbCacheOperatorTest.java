@@ -0,0 +1,183 @@
+package novayoung.log;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * The Query Conditions Sent To MongoDb, How Buckets Are Read Back And The Legacy Collection, No MongoDb Needed
+ *
+ */
+public class MongoDbCacheOperatorTest {
+
+    private LookLogConfig lookLogConfig;
+
+    private LookLogAppender.MongoDbCacheOperator cacheOperator;
+
+    @Before
+    public void setUp() {
+
+        lookLogConfig = new LookLogConfig();
+
+        cacheOperator = new LookLogAppender.MongoDbCacheOperator();
+        ReflectionTestUtils.setField(cacheOperator, "lookLogConfig", lookLogConfig);
+    }
+
+    @Test
+    public void exactTraceIdIsTheValue() {
+
+        lookLogConfig.setTraceIdMatch(TraceIdMatch.EXACT);
+
+        assertEquals("a.b", traceIdCondition("a.b"));
+    }
+
+    @Test
+    public void prefixIsAnAnchoredEscapedRegex() {
+
+        Pattern pattern = (Pattern) traceIdCondition("a.b-c_1");
+
+        assertEquals("^a\\.b-c_1", pattern.pattern());
+        assertEquals(0, pattern.flags());
+        assertTrue(pattern.matcher("a.b-c_1-x").find());
+        assertFalse(pattern.matcher("axb-c_1").find());
+        assertFalse(pattern.matcher("x-a.b-c_1").find());
+    }
+
+    @Test
+    public void containsIgnoresCase() {
+
+        lookLogConfig.setTraceIdMatch(TraceIdMatch.CONTAINS);
+
+        Pattern pattern = (Pattern) traceIdCondition("B(1");
+
+        assertTrue(pattern.matcher("ab(12").find());
+        assertFalse(pattern.matcher("ab12").find());
+    }
+
+    @Test
+    public void emptyLegacyCollectionIsDropped() {
+
+        MongoTemplate mongoTemplate = mongoTemplate(0);
+
+        ReflectionTestUtils.invokeMethod(cacheOperator, "dropLegacyCollection");
+
+        verify(mongoTemplate).dropCollection(lookLogConfig.getMongoDbCollectionName());
+    }
+
+    @Test
+    public void legacyCollectionWithLogsIsKept() {
+
+        MongoTemplate mongoTemplate = mongoTemplate(5);
+
+        ReflectionTestUtils.invokeMethod(cacheOperator, "dropLegacyCollection");
+
+        verify(mongoTemplate, never()).dropCollection(anyString());
+    }
+
+    @Test
+    public void laterBucketCanHoldTheNewestLines() {
+
+        lookLogConfig.setMongoDbBucketSeconds(60);
+
+        /**
+         * Buckets Come Newest Last Line First, The Second Still Holds Lines Newer Than The First's Oldest
+         */
+        DBCursor dbCursor = cursor(bucket(1, 10), bucket(8, 9), bucket(2, 3));
+
+        assertEquals(Arrays.asList("line 10", "line 9"), readBuckets(dbCursor, -1, 2));
+        verify(dbCursor, times(3)).next();
+    }
+
+    @Test
+    public void ascendingStopsOnceNoLaterBucketCanStartInTime() {
+
+        lookLogConfig.setMongoDbBucketSeconds(10);
+
+        /**
+         * Buckets Come Oldest Last Line First, One Ending Later Can Still Start Earlier Within Its Window
+         */
+        DBCursor dbCursor = cursor(bucket(1, 2), bucket(0, 3), bucket(5, 6), bucket(15, 16), bucket(17, 18));
+
+        assertEquals(Arrays.asList("line 0", "line 1"), readBuckets(dbCursor, 1, 2));
+        verify(dbCursor, times(4)).next();
+    }
+
+
+    /**
+     * A Template Whose Legacy Collection Exists And Holds The Given Count
+     */
+    private MongoTemplate mongoTemplate(long count) {
+
+        DBCollection legacy = mock(DBCollection.class);
+        when(legacy.count()).thenReturn(count);
+
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.collectionExists(lookLogConfig.getMongoDbCollectionName())).thenReturn(true);
+        when(mongoTemplate.getCollection(lookLogConfig.getMongoDbCollectionName())).thenReturn(legacy);
+
+        ReflectionTestUtils.setField(cacheOperator, "mongoTemplate", mongoTemplate);
+
+        return mongoTemplate;
+    }
+
+    private List<String> readBuckets(DBCursor dbCursor, int order, int limit) {
+
+        List<DBObject> lines = ReflectionTestUtils.invokeMethod(cacheOperator, "readBuckets", dbCursor, null, null, null, null, order, limit, null);
+
+        List<String> messages = new ArrayList<>();
+        for (DBObject line : lines) {
+            messages.add((String) line.get(LogDocument.MESSAGE));
+        }
+        return messages;
+    }
+
+    private static DBCursor cursor(DBObject... buckets) {
+
+        DBCursor dbCursor = mock(DBCursor.class);
+
+        Boolean[] more = new Boolean[buckets.length];
+        Arrays.fill(more, Boolean.TRUE);
+        more[buckets.length - 1] = Boolean.FALSE;
+
+        when(dbCursor.hasNext()).thenReturn(true, more);
+        when(dbCursor.next()).thenReturn(buckets[0], Arrays.copyOfRange(buckets, 1, buckets.length));
+
+        return dbCursor;
+    }
+
+    /**
+     * A Bucket Of Lines At The Given Seconds, Its Time Is The Last One
+     */
+    private static DBObject bucket(int... seconds) {
+
+        List<DBObject> lines = new ArrayList<>();
+        for (int second : seconds) {
+            lines.add(new BasicDBObject(LogDocument.TIME, new Date(second * 1000L))
+                    .append(LogDocument.LEVEL, "INFO")
+                    .append(LogDocument.MESSAGE, "line " + second));
+        }
+
+        return new BasicDBObject("_id", new ObjectId())
+                .append(LogDocument.TIME, new Date(seconds[seconds.length - 1] * 1000L))
+                .append(LogDocument.LINES, lines);
+    }
+
+    private Object traceIdCondition(String traceId) {
+        return ReflectionTestUtils.invokeMethod(cacheOperator, "traceIdCondition", traceId);
+    }
+}
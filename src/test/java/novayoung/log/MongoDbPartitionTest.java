@@ -0,0 +1,48 @@
+package novayoung.log;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Partition Names, And Reading The Start Time Back Out Of Them
+ *
+ */
+public class MongoDbPartitionTest {
+
+    @Test
+    public void namesRoundTrip() throws Exception {
+
+        Date time = time("2017-01-10 06:13:20");
+
+        assertEquals("lookLog_2017011006", MongoDbPartition.HOUR.collectionName("lookLog", time));
+        assertEquals("lookLog_20170110", MongoDbPartition.DAY.collectionName("lookLog", time));
+
+        assertEquals(time("2017-01-10 06:00:00"), MongoDbPartition.HOUR.start("lookLog", "lookLog_2017011006"));
+        assertEquals(time("2017-01-10 00:00:00"), MongoDbPartition.DAY.start("lookLog", "lookLog_20170110"));
+    }
+
+    @Test
+    public void otherCollectionsAreNotPartitions() {
+
+        assertNull(MongoDbPartition.HOUR.start("lookLog", "lookLog"));
+        assertNull(MongoDbPartition.HOUR.start("lookLog", "other_2017011006"));
+        assertNull(MongoDbPartition.HOUR.start("lookLog", "lookLog_20170110"));
+        assertNull(MongoDbPartition.HOUR.start("lookLog", "lookLog_2017011099"));
+        assertNull(MongoDbPartition.DAY.start("lookLog", "lookLog_x_20170110"));
+    }
+
+    @Test
+    public void nextIsTheExclusiveEnd() throws Exception {
+        assertEquals(time("2017-01-10 07:00:00"), MongoDbPartition.HOUR.next(time("2017-01-10 06:00:00")));
+        assertEquals(time("2017-02-01 00:00:00"), MongoDbPartition.DAY.next(time("2017-01-31 00:00:00")));
+    }
+
+
+    private static Date time(String text) throws Exception {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(text);
+    }
+}
@@ -0,0 +1,230 @@
+package novayoung.log;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * The Commands A Batch Is Written With, The Per-Trace Cap And The List Values Under Each Combination Of Index And Compression,
+ * Against A Mocked Connection, No Redis Needed
+ *
+ */
+public class RedisCacheOperatorTest {
+
+    private LookLogConfig lookLogConfig;
+
+    private LookLogAppender.RedisCacheOperator cacheOperator;
+
+    private Jedis jedis;
+
+    private Pipeline pipeline;
+
+    @Before
+    public void setUp() {
+
+        lookLogConfig = new LookLogConfig();
+        lookLogConfig.setCachedSecond(600L);
+        lookLogConfig.setCompressionMinBytes(100);
+
+        /**
+         * The Per-Trace Cap Takes Its Own Pipeline, It Is Tested On Its Own
+         */
+        lookLogConfig.setRedisTraceMaxLines(0);
+
+        pipeline = mock(Pipeline.class);
+        jedis = mock(Jedis.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        JedisPool jedisPool = mock(JedisPool.class);
+        when(jedisPool.getResource()).thenReturn(jedis);
+
+        cacheOperator = new LookLogAppender.RedisCacheOperator();
+        ReflectionTestUtils.setField(cacheOperator, "lookLogConfig", lookLogConfig);
+        ReflectionTestUtils.setField(cacheOperator, "jedisPool", jedisPool);
+    }
+
+    @Test
+    public void oneRpushAndExpirePerTraceInOnePipeline() {
+
+        cacheOperator.putLogs(logs("a", "b", "a", "a", "b"));
+
+        String a = lookLogConfig.getKeyPrefix() + "a";
+        String b = lookLogConfig.getKeyPrefix() + "b";
+
+        verify(pipeline).rpush(bytes(a), bytes("a 0"), bytes("a 2"), bytes("a 3"));
+        verify(pipeline).rpush(bytes(b), bytes("b 1"), bytes("b 4"));
+        verify(pipeline).expire(a, 600);
+        verify(pipeline).expire(b, 600);
+        verify(pipeline).sync();
+        verify(jedis).close();
+        verifyNoMoreInteractions(pipeline);
+    }
+
+    @Test
+    public void noExpireWithoutCachedSecond() {
+
+        lookLogConfig.setCachedSecond(0L);
+
+        cacheOperator.putLogs(logs("a"));
+
+        verify(pipeline).rpush(bytes(lookLogConfig.getKeyPrefix() + "a"), bytes("a 0"));
+        verify(pipeline, never()).expire(anyString(), anyInt());
+    }
+
+    @Test
+    public void batchCrossingTheCapIsTrimmedAndMarked() {
+
+        lookLogConfig.setCachedSecond(0L);
+        lookLogConfig.setRedisTraceMaxLines(3);
+
+        String a = lookLogConfig.getKeyPrefix() + "a";
+        String lines = lookLogConfig.getKeyPrefix() + "#lines:a";
+
+        doReturn(response(true)).when(pipeline).exists(a);
+        doReturn(response(5L)).when(pipeline).hincrBy(lines, "lines", 5);
+        doReturn(response((String) null)).when(pipeline).hget(lines, "marker");
+        doReturn(response(3L)).when(pipeline).rpush(any(byte[].class), Matchers.<byte[]>anyVararg());
+        doReturn(response(4L)).when(pipeline).rpush(anyString(), Matchers.<String>anyVararg());
+
+        cacheOperator.putLogs(logs("a", "a", "a", "a", "a"));
+
+        verify(pipeline).rpush(bytes(a), bytes("a 0"), bytes("a 1"), bytes("a 2"));
+        verify(pipeline).rpush(a, "...... 超出单个traceId最大行数 3, 已截断 2 行");
+        verify(pipeline).hset(lines, "marker", "3");
+    }
+
+    @Test
+    public void traceOverTheCapOnlyUpdatesItsMarker() {
+
+        lookLogConfig.setRedisTraceMaxLines(3);
+
+        String a = lookLogConfig.getKeyPrefix() + "a";
+        String lines = lookLogConfig.getKeyPrefix() + "#lines:a";
+
+        doReturn(response(true)).when(pipeline).exists(a);
+        doReturn(response(5L)).when(pipeline).hincrBy(lines, "lines", 2);
+        doReturn(response("3")).when(pipeline).hget(lines, "marker");
+
+        cacheOperator.putLogs(logs("a", "a"));
+
+        verify(pipeline).lset(a, 3, "...... 超出单个traceId最大行数 3, 已截断 2 行");
+        verify(pipeline).expire(a, 600);
+        verify(pipeline, never()).rpush(any(byte[].class), Matchers.<byte[]>anyVararg());
+    }
+
+    @Test
+    public void expiredListStartsCountingAgain() {
+
+        lookLogConfig.setRedisTraceMaxLines(3);
+
+        String a = lookLogConfig.getKeyPrefix() + "a";
+        String lines = lookLogConfig.getKeyPrefix() + "#lines:a";
+
+        doReturn(response(false)).when(pipeline).exists(a);
+        doReturn(response(5L)).when(pipeline).hincrBy(lines, "lines", 2);
+        doReturn(response("3")).when(pipeline).hget(lines, "marker");
+
+        cacheOperator.putLogs(logs("a", "a"));
+
+        verify(pipeline).hset(lines, "lines", "2");
+        verify(pipeline).hdel(lines, "marker");
+        verify(pipeline).rpush(bytes(a), bytes("a 0"), bytes("a 1"));
+        verify(pipeline, never()).lset(anyString(), anyLong(), anyString());
+    }
+
+    @Test
+    public void plainLinesByDefault() {
+
+        byte[][] values = values(sized(3, 40));
+
+        assertEquals(3, values.length);
+        for (int i = 0; i < values.length; i++) {
+            assertFalse(LogBlock.isBlock(values[i]));
+            assertEquals(sized(3, 40).get(i).getFormattedMessage(), SafeEncoder.encode(values[i]));
+        }
+    }
+
+    @Test
+    public void indexedLinesAreOneBlock() {
+
+        lookLogConfig.setRedisIndex(true);
+
+        byte[][] values = values(sized(3, 10));
+
+        assertEquals(1, values.length);
+        assertEquals(3, LogBlock.decode(values[0]).size());
+    }
+
+    @Test
+    public void compressionOnlyAboveTheThreshold() {
+
+        lookLogConfig.setCompression(true);
+
+        assertEquals(2, values(sized(2, 10)).length);
+
+        byte[][] values = values(sized(5, 40));
+        assertEquals(1, values.length);
+        assertTrue(LogBlock.isBlock(values[0]));
+        assertEquals(5, LogBlock.decode(values[0]).size());
+    }
+
+
+    private byte[][] values(List<LookLogAppender.LogDto> logDtos) {
+        return ReflectionTestUtils.invokeMethod(cacheOperator, "values", logDtos);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Response<T> response(T value) {
+        Response<T> response = mock(Response.class);
+        when(response.get()).thenReturn(value);
+        return response;
+    }
+
+    private static byte[] bytes(String value) {
+        return SafeEncoder.encode(value);
+    }
+
+    private static List<LookLogAppender.LogDto> logs(String... traceIds) {
+
+        List<LookLogAppender.LogDto> logDtos = new ArrayList<>();
+
+        for (String traceId : traceIds) {
+            LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+            logDto.setCreateTime(new Date(1484000000000L + logDtos.size()));
+            logDto.setLogLevel("INFO");
+            logDto.setTraceId(traceId);
+            logDto.setFormattedMessage(traceId + " " + logDtos.size());
+            logDtos.add(logDto);
+        }
+
+        return logDtos;
+    }
+
+    private static List<LookLogAppender.LogDto> sized(int count, int length) {
+
+        List<LookLogAppender.LogDto> logDtos = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            LookLogAppender.LogDto logDto = new LookLogAppender.LogDto();
+            logDto.setCreateTime(new Date(1484000000000L + i));
+            logDto.setLogLevel("INFO");
+            logDto.setFormattedMessage(i + StringUtils.repeat("x", length));
+            logDtos.add(logDto);
+        }
+
+        return logDtos;
+    }
+}
@@ -0,0 +1,135 @@
+package novayoung.log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Stream Range Bounds, Entry Filtering, Cursors, The Deadline And IDs, Against A Mocked Connection, No Redis Needed
+ *
+ */
+public class RedisLogStreamTest {
+
+    private static final long START = 1484000000000L;
+
+    private RedisLogStream stream;
+
+    private Jedis jedis;
+
+    @Before
+    public void setUp() {
+
+        LookLogConfig lookLogConfig = new LookLogConfig();
+
+        stream = new RedisLogStream(lookLogConfig);
+        jedis = mock(Jedis.class);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void rangeIsWidenedByTheRecordedLag() {
+
+        when(jedis.hmget(anyString(), eq("late"), eq("early"))).thenReturn(Arrays.asList("30000", "2000"));
+        when(jedis.eval(anyString(), anyListOf(String.class), anyListOf(String.class))).thenReturn(new ArrayList<>());
+
+        stream.range(jedis, new Date(START), new Date(START + 1000), null, null, null, false, 10, null, Long.MAX_VALUE);
+
+        ArgumentCaptor<List> args = ArgumentCaptor.forClass(List.class);
+        verify(jedis).eval(anyString(), anyListOf(String.class), args.capture());
+
+        assertEquals(Arrays.asList("XRANGE", (START - 2000) + "-0", (START + 1000 + 30000) + "-18446744073709551615", "100"), args.getValue());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void smallLagStillReadsFiveSecondsPastTheEnd() {
+
+        when(jedis.hmget(anyString(), eq("late"), eq("early"))).thenReturn(Arrays.<String>asList(null, null));
+        when(jedis.eval(anyString(), anyListOf(String.class), anyListOf(String.class))).thenReturn(new ArrayList<>());
+
+        stream.range(jedis, new Date(START), new Date(START + 1000), null, null, null, true, 10, null, Long.MAX_VALUE);
+
+        ArgumentCaptor<List> args = ArgumentCaptor.forClass(List.class);
+        verify(jedis).eval(anyString(), anyListOf(String.class), args.capture());
+
+        assertEquals(Arrays.asList("XREVRANGE", (START + 1000 + 5000) + "-18446744073709551615", START + "-0", "100"), args.getValue());
+    }
+
+    @Test
+    public void entriesOutsideTheTimesOrConditionsAreLeftOut() {
+
+        when(jedis.hmget(anyString(), eq("late"), eq("early"))).thenReturn(Arrays.asList("60000", "0"));
+        when(jedis.eval(anyString(), anyListOf(String.class), anyListOf(String.class))).thenReturn(Arrays.<Object>asList(
+                entry(START + 10, START - 1, "INFO", "t1", "before the start"),
+                entry(START + 20, START, "INFO", "t1", "at the start"),
+                entry(START + 30, START + 500, "DEBUG", "t1", "other level"),
+                entry(START + 40, START + 600, "INFO", "t2", "other trace"),
+                entry(START + 50, START + 700, "INFO", "t1", "no keyword"),
+                entry(START + 60000, START + 1000, "INFO", "t1", "late at the end")));
+
+        List<RedisLogStream.Entry> entries = stream.range(jedis, new Date(START), new Date(START + 1000), new HashSet<>(Collections.singletonList("INFO")),
+                "t1", Pattern.compile("the"), false, 10, null, Long.MAX_VALUE);
+
+        assertEquals(2, entries.size());
+        assertEquals("at the start", entries.get(0).message);
+        assertEquals(START, entries.get(0).time);
+        assertEquals("t1", entries.get(0).traceId);
+        assertEquals("late at the end", entries.get(1).message);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void cursorStartsPastItsEntry() {
+
+        when(jedis.eval(anyString(), anyListOf(String.class), anyListOf(String.class))).thenReturn(new ArrayList<>());
+
+        stream.range(jedis, null, null, null, null, null, false, 10, "5-3", Long.MAX_VALUE);
+        stream.range(jedis, null, null, null, null, null, true, 10, "5-3", Long.MAX_VALUE);
+
+        ArgumentCaptor<List> args = ArgumentCaptor.forClass(List.class);
+        verify(jedis, times(2)).eval(anyString(), anyListOf(String.class), args.capture());
+
+        assertEquals(Arrays.asList("XRANGE", "5-4", "+", "100"), args.getAllValues().get(0));
+        assertEquals(Arrays.asList("XREVRANGE", "5-2", "-", "100"), args.getAllValues().get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedCursorIsRejected() {
+        stream.range(jedis, null, null, null, null, null, false, 10, "five", Long.MAX_VALUE);
+    }
+
+    @Test(expected = LogQueryGovernor.TimeBudgetException.class)
+    public void pastTheDeadlineNothingIsRead() {
+        stream.range(jedis, null, null, null, null, null, false, 10, null, System.currentTimeMillis() - 1);
+    }
+
+    @Test
+    public void idsStepOverSequencesAndMillis() {
+
+        assertEquals("5-1", ReflectionTestUtils.invokeMethod(stream, "nextId", "5-0"));
+        assertEquals("5-0", ReflectionTestUtils.invokeMethod(stream, "previousId", "5-1"));
+        assertEquals("4-18446744073709551615", ReflectionTestUtils.invokeMethod(stream, "previousId", "5-0"));
+        assertNull(ReflectionTestUtils.invokeMethod(stream, "previousId", "0-0"));
+    }
+
+
+    /**
+     * A Stream Entry As The Script Returns It, [id, [field, value, ...]] With Binary Fields
+     */
+    private static List<Object> entry(long id, long time, String level, String traceId, String message) {
+        return Arrays.<Object>asList(SafeEncoder.encode(id + "-0"), Arrays.<Object>asList(
+                SafeEncoder.encode("t"), SafeEncoder.encode(String.valueOf(time)),
+                SafeEncoder.encode("l"), SafeEncoder.encode(level),
+                SafeEncoder.encode("i"), SafeEncoder.encode(traceId),
+                SafeEncoder.encode("m"), SafeEncoder.encode(message)));
+    }
+}
@@ -0,0 +1,38 @@
+package novayoung.log;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * In-Memory TraceId Matching, The Same As The Store Queries
+ *
+ */
+public class TraceIdMatchTest {
+
+    @Test
+    public void exact() {
+        assertTrue(TraceIdMatch.EXACT.matches("abc123", "abc123"));
+        assertFalse(TraceIdMatch.EXACT.matches("abc123", "abc"));
+    }
+
+    @Test
+    public void prefix() {
+        assertTrue(TraceIdMatch.PREFIX.matches("abc123", "abc"));
+        assertFalse(TraceIdMatch.PREFIX.matches("abc123", "123"));
+        assertFalse(TraceIdMatch.PREFIX.matches("abc123", "ABC"));
+    }
+
+    @Test
+    public void containsIgnoresCase() {
+        assertTrue(TraceIdMatch.CONTAINS.matches("abc123", "C12"));
+        assertFalse(TraceIdMatch.CONTAINS.matches("abc123", "x"));
+    }
+
+    @Test
+    public void missingTraceIdNeverMatches() {
+        for (TraceIdMatch match : TraceIdMatch.values()) {
+            assertFalse(match.matches(null, "abc"));
+        }
+    }
+}